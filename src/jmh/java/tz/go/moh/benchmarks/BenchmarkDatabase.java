@@ -0,0 +1,148 @@
+package tz.go.moh.benchmarks;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import tz.go.moh.domain.ChwDetails;
+import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.domain.Period;
+import tz.go.moh.util.DatabaseConnectionFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A throwaway PostgreSQL instance seeded with synthetic HPS service data, shared by the benchmarks.
+ * <p>
+ * Twice as many providers as requested CHWs are seeded so the queries have to skip unrelated rows, every fifth
+ * provider has no activity at all, and the services of the others are spread over three months around
+ * {@link #MONTH} and split unevenly between the four service tables, roughly like production data.
+ * </p>
+ */
+public class BenchmarkDatabase implements AutoCloseable {
+    /**
+     * The month checked by the benchmarks.
+     */
+    public static final YearMonth MONTH = YearMonth.of(2024, 2);
+
+    private static final String[] CREATE_SQL = {
+            "CREATE TABLE hps_client_services (provider_id VARCHAR(255), event_date DATE)",
+            "CREATE TABLE hps_household_services (provider_id VARCHAR(255), event_date DATE)",
+            "CREATE TABLE hps_death_registrations (provider_id VARCHAR(255), event_date DATE)",
+            "CREATE TABLE hps_mobilization_services (provider_id VARCHAR(255), event_date DATE)"
+    };
+
+    private static final String[] INDEX_SQL = {
+            "CREATE INDEX hps_client_services_provider_date ON hps_client_services (provider_id, event_date)",
+            "CREATE INDEX hps_household_services_provider_date ON hps_household_services (provider_id, event_date)",
+            "CREATE INDEX hps_death_registrations_provider_date ON hps_death_registrations (provider_id, event_date)",
+            "CREATE INDEX hps_mobilization_services_provider_date ON hps_mobilization_services (provider_id, event_date)"
+    };
+
+    private static final String[] TABLES = {
+            "hps_client_services", "hps_household_services", "hps_death_registrations", "hps_mobilization_services"
+    };
+
+    // Share of each provider's rows written to each table, in TABLES order.
+    private static final double[] TABLE_SHARES = {0.50, 0.25, 0.05, 0.20};
+
+    private final EmbeddedPostgres postgres;
+    private final DatabaseConnectionFactory connectionFactory;
+
+    /**
+     * Starts PostgreSQL and seeds it.
+     *
+     * @param chwCount        The number of CHWs the benchmarks check.
+     * @param rowsPerProvider The number of service rows seeded per active provider across the four tables.
+     * @throws IOException  If PostgreSQL could not be started.
+     * @throws SQLException If seeding failed.
+     */
+    public BenchmarkDatabase(int chwCount, int rowsPerProvider) throws IOException, SQLException {
+        this.postgres = EmbeddedPostgres.builder().start();
+        this.connectionFactory = new DatabaseConnectionFactory(databaseConfig(postgres.getPort()));
+        seed(chwCount * 2, rowsPerProvider);
+    }
+
+    /**
+     * @return The pooled connections to the seeded database.
+     */
+    public DatabaseConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    /**
+     * Builds a request checking the first {@code chwCount} seeded providers in {@link #MONTH}.
+     *
+     * @param chwCount The number of CHWs to check.
+     * @return The request.
+     */
+    public static EligibleChwCheckRequest request(int chwCount) {
+        List<ChwDetails> chws = new ArrayList<>(chwCount);
+        for (int i = 1; i <= chwCount; i++) {
+            chws.add(new ChwDetails(String.format("%020d", i), providerId(i)));
+        }
+        return new EligibleChwCheckRequest(
+                new Period(String.format("%02d", MONTH.getMonthValue()), String.valueOf(MONTH.getYear())), chws);
+    }
+
+    /**
+     * @param index The 1-based index of a seeded provider.
+     * @return The provider ID used for it.
+     */
+    public static String providerId(int index) {
+        return "provider-" + index;
+    }
+
+    @Override
+    public void close() throws IOException {
+        connectionFactory.close();
+        postgres.close();
+    }
+
+    private static Config databaseConfig(int port) {
+        return ConfigFactory.load().getConfig("chw-status-check-service.database")
+                .withValue("DB_HOST", ConfigValueFactory.fromAnyRef("localhost"))
+                .withValue("DB_PORT", ConfigValueFactory.fromAnyRef(port))
+                .withValue("DB_NAME", ConfigValueFactory.fromAnyRef("postgres"))
+                .withValue("DB_USER", ConfigValueFactory.fromAnyRef("postgres"))
+                .withValue("DB_PASSWORD", ConfigValueFactory.fromAnyRef("postgres"))
+                .withValue("pool.register-mbeans", ConfigValueFactory.fromAnyRef(false));
+    }
+
+    private void seed(int providers, int rowsPerProvider) throws SQLException {
+        try (Connection conn = connectionFactory.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : CREATE_SQL) {
+                    stmt.execute(sql);
+                }
+            }
+            for (int table = 0; table < TABLES.length; table++) {
+                int rows = Math.max(1, (int) Math.round(rowsPerProvider * TABLE_SHARES[table]));
+                // Rows land on the 90 days starting one month before MONTH; providers divisible by 5 stay inactive.
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO " + TABLES[table] + " (provider_id, event_date) " +
+                        "SELECT 'provider-' || p, ?::date + ((p * 7 + r * 13) % 90) " +
+                        "FROM generate_series(1, ?) p, generate_series(1, ?) r " +
+                        "WHERE p % 5 <> 0")) {
+                    stmt.setObject(1, MONTH.minusMonths(1).atDay(1));
+                    stmt.setInt(2, providers);
+                    stmt.setInt(3, rows);
+                    stmt.executeUpdate();
+                }
+            }
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : INDEX_SQL) {
+                    stmt.execute(sql);
+                }
+                stmt.execute("ANALYZE");
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package tz.go.moh.benchmarks;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tz.go.moh.actors.CheckChwEligibilityStatusProcessor;
+import tz.go.moh.domain.EligibilityOutcome;
+import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.rules.EligibilityRules;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a whole {@link CheckChwEligibilityStatusProcessor#checkEligibility(EligibleChwCheckRequest)} against a
+ * seeded embedded PostgreSQL, with the cache and the rollup disabled so every call reaches the service tables.
+ * Chunking uses the defaults of {@code application.conf}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EndToEndEligibilityBenchmark {
+    @Param({"1000", "10000", "50000"})
+    public int chwCount;
+
+    @Param({"4", "40"})
+    public int rowsPerProvider;
+
+    private BenchmarkDatabase database;
+    private ExecutorService chunkExecutor;
+    private CheckChwEligibilityStatusProcessor processor;
+    private EligibleChwCheckRequest request;
+
+    @Setup
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase(chwCount, rowsPerProvider);
+        Config config = ConfigFactory.load().getConfig("chw-status-check-service");
+        chunkExecutor = Executors.newFixedThreadPool(config.getInt("chunk-query-dispatcher.thread-pool-executor.fixed-pool-size"));
+        processor = new CheckChwEligibilityStatusProcessor(database.getConnectionFactory(), null, null, null,
+                new EligibilityRules(config.getConfig("eligibility")), chunkExecutor,
+                config.getInt("chunking.chunk-size"), config.getInt("chunking.parallelism"));
+        request = BenchmarkDatabase.request(chwCount);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        chunkExecutor.shutdown();
+        database.close();
+    }
+
+    @Benchmark
+    public EligibilityOutcome checkEligibility() {
+        return processor.checkEligibility(request);
+    }
+}
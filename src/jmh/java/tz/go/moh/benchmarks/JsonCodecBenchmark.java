@@ -0,0 +1,96 @@
+package tz.go.moh.benchmarks;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.http.javadsl.unmarshalling.Unmarshaller;
+import akka.util.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tz.go.moh.codec.EligibilityCodec;
+import tz.go.moh.domain.ChwEligibilityResults;
+import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.util.CustomJacksonObjectMapper;
+import tz.go.moh.util.CustomJacksonSupport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading an eligibility request and writing its response, without any database access, comparing the
+ * Jackson databinding path with the streaming {@link EligibilityCodec}. Run with {@code -PjmhProfilers=gc} to
+ * compare the allocation rate of both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+    @Param({"100", "1000", "10000", "50000"})
+    public int chwCount;
+
+    private ActorSystem<Void> system;
+    private Unmarshaller<ByteString, EligibleChwCheckRequest> requestUnmarshaller;
+    private ByteString requestBody;
+    private List<ChwEligibilityResults> results;
+
+    @Setup
+    public void setUp() throws Exception {
+        system = ActorSystem.create(Behaviors.empty(), "json-codec-benchmark");
+        requestUnmarshaller = CustomJacksonSupport.customJacksonByteStringUnmarshaller(EligibleChwCheckRequest.class);
+        requestBody = ByteString.fromArray(CustomJacksonObjectMapper.mapper.writeValueAsBytes(BenchmarkDatabase.request(chwCount)));
+        results = new ArrayList<>(chwCount);
+        for (int i = 0; i < chwCount; i++) {
+            results.add(new ChwEligibilityResults(String.format("%020d", i), i % 5 != 0));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        system.terminate();
+    }
+
+    /**
+     * Request unmarshalling as done by the routes, through {@link CustomJacksonSupport}.
+     */
+    @Benchmark
+    public EligibleChwCheckRequest unmarshalRequest() {
+        return requestUnmarshaller.unmarshal(requestBody, system).toCompletableFuture().join();
+    }
+
+    /**
+     * Response marshalling with the mapper the Jackson marshallers of the routes delegate to.
+     */
+    @Benchmark
+    public byte[] marshalResponse() throws Exception {
+        return CustomJacksonObjectMapper.mapper.writeValueAsBytes(results);
+    }
+
+    /**
+     * Request reading with the streaming codec used by the monthly status route.
+     */
+    @Benchmark
+    public EligibleChwCheckRequest decodeRequestStreaming() {
+        return EligibilityCodec.decodeRequest(CustomJacksonObjectMapper.mapper.getFactory(), requestBody);
+    }
+
+    /**
+     * Response writing with the streaming codec used by the monthly status route.
+     */
+    @Benchmark
+    public ByteString encodeResponseStreaming() {
+        return EligibilityCodec.encodeResults(CustomJacksonObjectMapper.mapper.getFactory(), results);
+    }
+}
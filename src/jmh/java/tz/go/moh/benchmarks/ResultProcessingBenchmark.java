@@ -0,0 +1,84 @@
+package tz.go.moh.benchmarks;
+
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tz.go.moh.domain.ActivityCounts;
+import tz.go.moh.domain.ChwCohort;
+import tz.go.moh.domain.ChwDetails;
+import tz.go.moh.domain.ChwEligibilityResults;
+import tz.go.moh.domain.EligibilityResultList;
+import tz.go.moh.domain.ProviderIndex;
+import tz.go.moh.rules.EligibilityRules;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning the activity found in the database into per-CHW verdicts in request order, the in-memory part
+ * of an eligibility check, both as one result object per CHW and as interned per-provider verdicts in an
+ * {@link EligibilityResultList}. Run with {@code -PjmhProfilers=gc} to compare their allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultProcessingBenchmark {
+    @Param({"100", "1000", "10000", "50000"})
+    public int chwCount;
+
+    private List<ChwDetails> chws;
+    private ChwCohort cohort;
+    private Map<String, ActivityCounts> activity;
+    private EligibilityRules rules;
+
+    @Setup
+    public void setUp() {
+        chws = BenchmarkDatabase.request(chwCount).getChws();
+        cohort = ChwCohort.of(chws);
+        activity = new HashMap<>();
+        for (int i = 1; i <= chwCount; i++) {
+            if (i % 5 != 0) {
+                activity.put(BenchmarkDatabase.providerId(i), new ActivityCounts(i % 7, i % 3, 0, i % 2));
+            }
+        }
+        rules = new EligibilityRules(ConfigFactory.load().getConfig("chw-status-check-service.eligibility"));
+    }
+
+    @Benchmark
+    public List<ChwEligibilityResults> evaluateVerdicts() {
+        List<ChwEligibilityResults> results = new ArrayList<>(chws.size());
+        for (ChwDetails chw : chws) {
+            ActivityCounts counts = activity.get(chw.getOpenmrsProviderId());
+            results.add(new ChwEligibilityResults(chw.getNationalIdentificationNumber(), rules.evaluate(counts).isEmpty()));
+        }
+        return results;
+    }
+
+    @Benchmark
+    public List<ChwEligibilityResults> evaluateInternedVerdicts() {
+        int[] providerIndexes = new int[cohort.size()];
+        ProviderIndex providers = ProviderIndex.of(cohort, providerIndexes);
+        BitSet eligible = new BitSet(providers.size() + 1);
+        for (int i = 0; i < providers.size(); i++) {
+            eligible.set(i, rules.evaluate(activity.get(providers.providerId(i))).isEmpty());
+        }
+        eligible.set(providers.size(), rules.evaluate(null).isEmpty());
+        return new EligibilityResultList(cohort, providerIndexes, eligible, null, null);
+    }
+}
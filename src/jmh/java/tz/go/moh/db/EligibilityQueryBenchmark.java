@@ -0,0 +1,101 @@
+package tz.go.moh.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tz.go.moh.benchmarks.BenchmarkDatabase;
+import tz.go.moh.domain.ActivityCounts;
+import tz.go.moh.domain.ChwDetails;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the eligibility queries of {@link ProviderActivityRepository} against a seeded embedded PostgreSQL.
+ * Lives in the repository's package to reach its SQL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EligibilityQueryBenchmark {
+    @Param({"1000", "10000"})
+    public int chwCount;
+
+    @Param({"4", "40"})
+    public int rowsPerProvider;
+
+    private BenchmarkDatabase database;
+    private ProviderActivityRepository repository;
+    private List<String> providerIds;
+
+    @Setup
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase(chwCount, rowsPerProvider);
+        repository = new ProviderActivityRepository(database.getConnectionFactory());
+        providerIds = new ArrayList<>(chwCount);
+        for (ChwDetails chw : BenchmarkDatabase.request(chwCount).getChws()) {
+            providerIds.add(chw.getOpenmrsProviderId());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    /**
+     * Borrowing a connection, preparing the presence statement and binding the provider ID array, without
+     * executing it.
+     */
+    @Benchmark
+    public int buildStatement() throws SQLException {
+        try (Connection conn = database.getConnectionFactory().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(ProviderActivityRepository.ACTIVE_PROVIDERS_SQL)) {
+            Array ids = conn.createArrayOf("varchar", providerIds.toArray(new String[0]));
+            try {
+                stmt.setDate(1, Date.valueOf(BenchmarkDatabase.MONTH.atDay(1)));
+                stmt.setDate(2, Date.valueOf(BenchmarkDatabase.MONTH.plusMonths(1).atDay(1)));
+                stmt.setArray(3, ids);
+                return stmt.getParameterMetaData().getParameterCount();
+            } finally {
+                ids.free();
+            }
+        }
+    }
+
+    /**
+     * The presence query, including reading the result set into a set of provider IDs.
+     */
+    @Benchmark
+    public Set<String> findActiveProviders() throws SQLException {
+        return repository.findActiveProviders(providerIds, BenchmarkDatabase.MONTH, null);
+    }
+
+    /**
+     * The per-source counts query used when the eligibility rules need counts.
+     */
+    @Benchmark
+    public Map<String, ActivityCounts> findActivityCounts() throws SQLException {
+        return repository.findActivityCounts(providerIds, BenchmarkDatabase.MONTH, null);
+    }
+}
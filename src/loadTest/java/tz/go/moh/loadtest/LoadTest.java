@@ -0,0 +1,81 @@
+package tz.go.moh.loadtest;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tz.go.moh.util.CustomJacksonObjectMapper;
+import tz.go.moh.util.DatabaseConnectionFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Load test of a running service: seeds the synthetic HPS dataset, replays open-model traffic against
+ * {@code /chw/monthly-status} and writes throughput, latency percentiles and error rates to a JSON report.
+ * <p>
+ * Settings come from {@code load-test.conf}; each {@code --path=value} argument overrides the setting at
+ * {@code load-test.path}, e.g. {@code --traffic.rate=50 --seed.chws=50000 --label=abc123}. The service has to be
+ * running already, against the same database the dataset is seeded into.
+ * </p>
+ */
+public class LoadTest {
+    private final static Logger log = LoggerFactory.getLogger(LoadTest.class);
+
+    /**
+     * Runs the load test.
+     *
+     * @param args {@code --path=value} overrides of the {@code load-test} settings.
+     * @throws Exception If seeding, the traffic or writing the report fails.
+     */
+    public static void main(String[] args) throws Exception {
+        Config config = ConfigFactory.parseMap(overrides(args))
+                .withFallback(ConfigFactory.load("load-test"))
+                .getConfig("load-test");
+        String monthSetting = config.getString("month");
+        YearMonth month = monthSetting.isBlank() ? YearMonth.now() : YearMonth.parse(monthSetting);
+        Random random = new Random(config.getLong("random-seed"));
+
+        SyntheticHpsData data;
+        if (config.getBoolean("seed.enabled")) {
+            try (DatabaseConnectionFactory connectionFactory = new DatabaseConnectionFactory(
+                    ConfigFactory.load("load-test").getConfig("chw-status-check-service.database"))) {
+                data = new SyntheticHpsData(config.getConfig("seed"), connectionFactory);
+                data.seed(month, config.getLong("random-seed"));
+            }
+        } else {
+            data = new SyntheticHpsData(config.getConfig("seed"), null);
+        }
+
+        OpenModelLoadGenerator generator = new OpenModelLoadGenerator(config.getConfig("traffic"), config.getString("url"), data, month, random);
+        LoadTestReport report = generator.run(config.getString("label"));
+
+        Path reportFile = Path.of(config.getString("report"));
+        if (reportFile.getParent() != null) {
+            Files.createDirectories(reportFile.getParent());
+        }
+        CustomJacksonObjectMapper.mapper.writerWithDefaultPrettyPrinter().writeValue(reportFile.toFile(), report);
+        log.info("{} requests sent, {} succeeded ({} requests/s, {} CHWs/s), error rate {}", report.requests().sent(),
+                report.requests().succeeded(), String.format("%.1f", report.throughput().requestsPerSecond()),
+                String.format("%.0f", report.throughput().chwsPerSecond()), String.format("%.4f", report.errorRate()));
+        log.info("Latency ms: p50 {} p95 {} p99 {} max {}", report.latency().p50(), report.latency().p95(),
+                report.latency().p99(), report.latency().max());
+        log.info("Report written to {}", reportFile.toAbsolutePath());
+    }
+
+    private static Map<String, String> overrides(String[] args) {
+        Map<String, String> overrides = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --path=value, got " + arg);
+            }
+            overrides.put("load-test." + arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        return overrides;
+    }
+}
@@ -0,0 +1,85 @@
+package tz.go.moh.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The machine-readable outcome of a load test run, written as JSON so runs of different builds can be compared.
+ *
+ * @param label             Free text identifying the build under test.
+ * @param startedAt         When the measured phase started.
+ * @param target            The base URL of the service.
+ * @param month             The month the requests checked, yyyy-MM.
+ * @param offeredRate       The configured mean request rate, per second.
+ * @param warmUpSeconds     How long requests were sent before measuring.
+ * @param durationSeconds   How long requests were measured.
+ * @param requests          The counts of measured requests by outcome.
+ * @param throughput        The rates actually achieved over the measured phase.
+ * @param errorRate         The share of measured requests that failed, timed out or were dropped.
+ * @param latency           The latency of all successful measured requests.
+ * @param sizes             The same figures per request size.
+ * @param outcomes          The measured requests per HTTP status, or per failure kind for requests without one.
+ */
+public record LoadTestReport(String label, String startedAt, String target, String month, double offeredRate,
+                             double warmUpSeconds, double durationSeconds, RequestCounts requests,
+                             Throughput throughput, double errorRate, Latency latency, List<SizeResults> sizes,
+                             Map<String, Long> outcomes) {
+
+    /**
+     * @param sent      Requests sent during the measured phase.
+     * @param succeeded Requests answered with a 2xx status.
+     * @param failed    Requests answered with another status, or that failed or timed out.
+     * @param dropped   Arrivals not sent because max-in-flight requests were outstanding.
+     */
+    public record RequestCounts(long sent, long succeeded, long failed, long dropped) {
+    }
+
+    /**
+     * @param requestsPerSecond Successful requests per second.
+     * @param chwsPerSecond     CHWs checked per second by the successful requests.
+     */
+    public record Throughput(double requestsPerSecond, double chwsPerSecond) {
+    }
+
+    /**
+     * Latency in milliseconds, measured from when each request was due rather than when it was sent, so a client
+     * falling behind does not hide server stalls.
+     *
+     * @param count The number of recorded requests.
+     * @param mean  The mean latency.
+     * @param p50   The median latency.
+     * @param p95   The 95th percentile.
+     * @param p99   The 99th percentile.
+     * @param p999  The 99.9th percentile.
+     * @param max   The highest latency.
+     */
+    public record Latency(long count, double mean, double p50, double p95, double p99, double p999, double max) {
+        private static final double MICROS_PER_MILLI = 1000.0;
+
+        /**
+         * @param histogram Latencies recorded in microseconds.
+         * @return The percentiles of the histogram in milliseconds.
+         */
+        public static Latency of(Histogram histogram) {
+            return new Latency(histogram.getTotalCount(),
+                    histogram.getMean() / MICROS_PER_MILLI,
+                    histogram.getValueAtPercentile(50) / MICROS_PER_MILLI,
+                    histogram.getValueAtPercentile(95) / MICROS_PER_MILLI,
+                    histogram.getValueAtPercentile(99) / MICROS_PER_MILLI,
+                    histogram.getValueAtPercentile(99.9) / MICROS_PER_MILLI,
+                    histogram.getMaxValue() / MICROS_PER_MILLI);
+        }
+    }
+
+    /**
+     * @param chws      The CHWs per request.
+     * @param weight    The relative weight of the size in the traffic mix.
+     * @param requests  The counts of measured requests of this size by outcome.
+     * @param errorRate The share of measured requests of this size that failed, timed out or were dropped.
+     * @param latency   The latency of the successful measured requests of this size.
+     */
+    public record SizeResults(int chws, int weight, RequestCounts requests, double errorRate, Latency latency) {
+    }
+}
@@ -0,0 +1,252 @@
+package tz.go.moh.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.typesafe.config.Config;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.SynchronizedHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tz.go.moh.domain.ChwDetails;
+import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.domain.Period;
+import tz.go.moh.util.CustomJacksonObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays open-model traffic against {@code /chw/monthly-status}: requests arrive at a configured mean rate with
+ * exponentially distributed gaps (Poisson arrivals) and are sent whether or not earlier ones have completed, the
+ * way independent downstream systems hit the service at month-end. A closed model, where each virtual user waits
+ * for its previous response, would slow down with the server and hide its saturation point.
+ * <p>
+ * Request sizes are drawn from a weighted mix, and bodies are encoded up front from random samples of the seeded
+ * providers, so the generator itself stays cheap. Latency is measured from when a request was due, not from when
+ * it was actually sent, which avoids coordinated omission. Arrivals while {@code max-in-flight} requests are
+ * outstanding are counted as dropped rather than queued in the client.
+ * </p>
+ */
+public class OpenModelLoadGenerator {
+    private final static Logger log = LoggerFactory.getLogger(OpenModelLoadGenerator.class);
+
+    private static final String ENDPOINT = "/chw/monthly-status";
+    // One hour, in microseconds; slower responses are recorded as one hour.
+    private static final long HIGHEST_TRACKABLE_MICROS = 3_600_000_000L;
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final HttpClient client;
+    private final URI endpoint;
+    private final YearMonth month;
+    private final double rate;
+    private final Duration warmUp;
+    private final Duration duration;
+    private final Duration requestTimeout;
+    private final int maxInFlight;
+    private final Random random;
+    private final List<SizeClass> sizes = new ArrayList<>();
+    private final int totalWeight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private final Histogram latency = new SynchronizedHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+
+    /**
+     * Constructor for OpenModelLoadGenerator. Encodes the request bodies of every size.
+     *
+     * @param trafficConfig The {@code load-test.traffic} config block.
+     * @param url           The base URL of the service.
+     * @param data          The seeded dataset the requests sample providers from.
+     * @param month         The month the requests check.
+     * @param random        The source of every random choice of the run.
+     * @throws JsonProcessingException If a request body could not be encoded.
+     */
+    public OpenModelLoadGenerator(Config trafficConfig, String url, SyntheticHpsData data, YearMonth month, Random random)
+            throws JsonProcessingException {
+        this.endpoint = URI.create(url.replaceAll("/+$", "") + ENDPOINT);
+        this.month = month;
+        this.rate = trafficConfig.getDouble("rate");
+        this.warmUp = trafficConfig.getDuration("warm-up");
+        this.duration = trafficConfig.getDuration("duration");
+        this.requestTimeout = trafficConfig.getDuration("request-timeout");
+        this.maxInFlight = trafficConfig.getInt("max-in-flight");
+        this.random = random;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(requestTimeout)
+                .build();
+
+        double missingProviderShare = trafficConfig.getDouble("missing-provider-share");
+        int bodiesPerSize = trafficConfig.getInt("bodies-per-size");
+        Period period = new Period(String.format("%02d", month.getMonthValue()), String.valueOf(month.getYear()));
+        int weights = 0;
+        for (Config size : trafficConfig.getConfigList("sizes")) {
+            int chws = size.getInt("chws");
+            List<byte[]> bodies = new ArrayList<>(bodiesPerSize);
+            for (int b = 0; b < bodiesPerSize; b++) {
+                List<ChwDetails> cohort = new ArrayList<>(chws);
+                for (int c = 0; c < chws; c++) {
+                    int index = 1 + random.nextInt(data.chws());
+                    cohort.add(new ChwDetails(String.format("LT%018d", index),
+                            random.nextDouble() < missingProviderShare ? null : data.providerId(index)));
+                }
+                bodies.add(CustomJacksonObjectMapper.mapper.writeValueAsBytes(new EligibleChwCheckRequest(period, cohort)));
+            }
+            sizes.add(new SizeClass(chws, size.getInt("weight"), bodies));
+            weights += size.getInt("weight");
+        }
+        this.totalWeight = weights;
+    }
+
+    /**
+     * Sends the warm-up traffic, then the measured traffic, and waits for the outstanding requests.
+     *
+     * @param label Free text identifying the build under test, copied into the report.
+     * @return The report of the measured phase.
+     * @throws InterruptedException If interrupted while waiting for the outstanding requests.
+     */
+    public LoadTestReport run(String label) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureStart = start + warmUp.toNanos();
+        long end = measureStart + duration.toNanos();
+        Instant startedAt = Instant.now().plus(warmUp);
+        log.info("Sending {} requests/s to {} for {} of warm-up and {} measured", rate, endpoint, warmUp, duration);
+
+        long due = start;
+        while (due < end) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            send(pick(), due, due >= measureStart);
+            due += (long) (-Math.log(1 - random.nextDouble()) / rate * NANOS_PER_SECOND);
+        }
+
+        long drainDeadline = System.nanoTime() + requestTimeout.toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        return report(label, startedAt);
+    }
+
+    private SizeClass pick() {
+        int draw = random.nextInt(totalWeight);
+        for (SizeClass size : sizes) {
+            draw -= size.weight;
+            if (draw < 0) {
+                return size;
+            }
+        }
+        return sizes.get(sizes.size() - 1);
+    }
+
+    private void send(SizeClass size, long due, boolean measured) {
+        if (inFlight.get() >= maxInFlight) {
+            if (measured) {
+                size.dropped.increment();
+                outcome("dropped");
+            }
+            return;
+        }
+        if (measured) {
+            size.sent.increment();
+        }
+        inFlight.incrementAndGet();
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(size.bodies.get(random.nextInt(size.bodies.size()))))
+                .build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+            inFlight.decrementAndGet();
+            if (!measured) {
+                return;
+            }
+            long micros = Math.min((System.nanoTime() - due) / 1000, HIGHEST_TRACKABLE_MICROS);
+            if (failure == null && response.statusCode() / 100 == 2) {
+                size.succeeded.increment();
+                size.latency.recordValue(micros);
+                latency.recordValue(micros);
+                outcome(String.valueOf(response.statusCode()));
+            } else if (failure == null) {
+                size.failed.increment();
+                outcome(String.valueOf(response.statusCode()));
+            } else {
+                size.failed.increment();
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                outcome(cause instanceof HttpTimeoutException ? "timeout" : "connection-error");
+            }
+        });
+    }
+
+    private void outcome(String outcome) {
+        outcomes.computeIfAbsent(outcome, o -> new LongAdder()).increment();
+    }
+
+    private LoadTestReport report(String label, Instant startedAt) {
+        double seconds = duration.toNanos() / NANOS_PER_SECOND;
+        long sent = 0;
+        long succeeded = 0;
+        long failed = 0;
+        long dropped = 0;
+        long chwsChecked = 0;
+        List<LoadTestReport.SizeResults> sizeResults = new ArrayList<>(sizes.size());
+        for (SizeClass size : sizes) {
+            LoadTestReport.RequestCounts counts = new LoadTestReport.RequestCounts(
+                    size.sent.sum(), size.succeeded.sum(), size.failed.sum(), size.dropped.sum());
+            sizeResults.add(new LoadTestReport.SizeResults(size.chws, size.weight, counts, errorRate(counts),
+                    LoadTestReport.Latency.of(size.latency)));
+            sent += counts.sent();
+            succeeded += counts.succeeded();
+            failed += counts.failed();
+            dropped += counts.dropped();
+            chwsChecked += counts.succeeded() * size.chws;
+        }
+        LoadTestReport.RequestCounts counts = new LoadTestReport.RequestCounts(sent, succeeded, failed, dropped);
+        Map<String, Long> outcomeCounts = new TreeMap<>();
+        outcomes.forEach((outcome, count) -> outcomeCounts.put(outcome, count.sum()));
+        return new LoadTestReport(label, startedAt.toString(), endpoint.toString(), month.toString(), rate,
+                warmUp.toNanos() / NANOS_PER_SECOND, seconds, counts,
+                new LoadTestReport.Throughput(succeeded / seconds, chwsChecked / seconds),
+                errorRate(counts), LoadTestReport.Latency.of(latency), sizeResults, outcomeCounts);
+    }
+
+    private static double errorRate(LoadTestReport.RequestCounts counts) {
+        long attempted = counts.sent() + counts.dropped();
+        return attempted == 0 ? 0 : (double) (counts.failed() + counts.dropped()) / attempted;
+    }
+
+    /**
+     * The requests of one size in the traffic mix, with their pre-encoded bodies and measurements.
+     */
+    private static final class SizeClass {
+        private final int chws;
+        private final int weight;
+        private final List<byte[]> bodies;
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final Histogram latency = new SynchronizedHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+
+        private SizeClass(int chws, int weight, List<byte[]> bodies) {
+            this.chws = chws;
+            this.weight = weight;
+            this.bodies = bodies;
+        }
+    }
+}
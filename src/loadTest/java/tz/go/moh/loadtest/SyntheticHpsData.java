@@ -0,0 +1,136 @@
+package tz.go.moh.loadtest;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tz.go.moh.util.DatabaseConnectionFactory;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * Seeds a synthetic HPS dataset for the load test into the database the service reads.
+ * <p>
+ * Providers are named {@code <provider-prefix><n>} for n from 1 to {@code chws}. A fixed share of them has no
+ * activity at all; the others get, per service table, an exponentially distributed number of rows whose mean is
+ * their share of {@code rows-per-provider}, so a few providers are much busier than most, as in production. Rows
+ * are dated over the checked month and the month before it, so the queries also have to skip rows of another
+ * month. Rows of earlier runs are deleted first; other rows are left alone.
+ * </p>
+ */
+public class SyntheticHpsData {
+    private final static Logger log = LoggerFactory.getLogger(SyntheticHpsData.class);
+
+    static final String[] TABLES = {
+            "hps_client_services", "hps_household_services", "hps_death_registrations", "hps_mobilization_services"
+    };
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS %s (provider_id VARCHAR(255), event_date DATE)";
+
+    private static final String CREATE_INDEX_SQL = "CREATE INDEX IF NOT EXISTS %s_provider_date ON %s (provider_id, event_date)";
+
+    private static final String DELETE_SQL = "DELETE FROM %s WHERE provider_id LIKE ? || '%%'";
+
+    // Providers whose scrambled number falls below the inactive share stay inactive. The LATERAL row count refers
+    // to p so it is drawn again for every provider.
+    private static final String INSERT_SQL =
+            "INSERT INTO %s (provider_id, event_date) " +
+            "SELECT ? || p, ?::date + floor(random() * ?)::int " +
+            "FROM generate_series(1, ?) p " +
+            "CROSS JOIN LATERAL generate_series(1, floor(-ln(1 - random()) * ? + 0 * p)::int) r " +
+            "WHERE (p::bigint * 7919) % 1000 >= ?";
+
+    private final DatabaseConnectionFactory connectionFactory;
+    private final String providerPrefix;
+    private final int chws;
+    private final double inactiveShare;
+    private final double rowsPerProvider;
+    private final List<Double> tableShares;
+
+    /**
+     * Constructor for SyntheticHpsData.
+     *
+     * @param seedConfig        The {@code load-test.seed} config block.
+     * @param connectionFactory The pooled connections to the database the service reads.
+     */
+    public SyntheticHpsData(Config seedConfig, DatabaseConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+        this.providerPrefix = seedConfig.getString("provider-prefix");
+        this.chws = seedConfig.getInt("chws");
+        this.inactiveShare = seedConfig.getDouble("inactive-share");
+        this.rowsPerProvider = seedConfig.getDouble("rows-per-provider");
+        this.tableShares = seedConfig.getDoubleList("table-shares");
+        if (tableShares.size() != TABLES.length) {
+            throw new IllegalArgumentException("table-shares needs one share per service table, " + TABLES.length + " in all");
+        }
+    }
+
+    /**
+     * @param index The 1-based number of a seeded provider.
+     * @return The provider ID seeded for it.
+     */
+    public String providerId(int index) {
+        return providerPrefix + index;
+    }
+
+    /**
+     * @return The number of seeded providers, active or not.
+     */
+    public int chws() {
+        return chws;
+    }
+
+    /**
+     * Replaces the rows of earlier runs with a fresh dataset for the given month.
+     *
+     * @param month      The month the load test checks.
+     * @param randomSeed The seed of PostgreSQL's random(), so the same settings seed the same data.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void seed(YearMonth month, long randomSeed) throws SQLException {
+        long start = System.nanoTime();
+        YearMonth firstMonth = month.minusMonths(1);
+        int days = firstMonth.lengthOfMonth() + month.lengthOfMonth();
+        try (Connection conn = connectionFactory.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                for (String table : TABLES) {
+                    stmt.execute(String.format(CREATE_TABLE_SQL, table));
+                }
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT setseed(?)")) {
+                // setseed takes a value in [-1, 1]
+                stmt.setDouble(1, (randomSeed % 1000) / 1000.0);
+                stmt.execute();
+            }
+            long rows = 0;
+            for (int table = 0; table < TABLES.length; table++) {
+                try (PreparedStatement stmt = conn.prepareStatement(String.format(DELETE_SQL, TABLES[table]))) {
+                    stmt.setString(1, providerPrefix);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(String.format(INSERT_SQL, TABLES[table]))) {
+                    stmt.setString(1, providerPrefix);
+                    stmt.setDate(2, Date.valueOf(firstMonth.atDay(1)));
+                    stmt.setInt(3, days);
+                    stmt.setInt(4, chws);
+                    stmt.setDouble(5, rowsPerProvider * tableShares.get(table));
+                    stmt.setInt(6, (int) Math.round(inactiveShare * 1000));
+                    rows += stmt.executeUpdate();
+                }
+            }
+            try (Statement stmt = conn.createStatement()) {
+                for (String table : TABLES) {
+                    stmt.execute(String.format(CREATE_INDEX_SQL, table, table));
+                    stmt.execute("ANALYZE " + table);
+                }
+            }
+            log.info("Seeded {} service rows for {} providers over {} and {} in {} ms",
+                    rows, chws, firstMonth, month, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package tz.go.moh;
+
+/**
+ * Marker for the messages sent between cluster nodes. They are bound to Akka's Jackson CBOR serializer in
+ * {@code cluster.conf}, so they travel as compact CBOR using the same Jackson annotations as the HTTP API.
+ */
+public interface CborSerializable {
+}
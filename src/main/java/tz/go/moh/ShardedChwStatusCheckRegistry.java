@@ -0,0 +1,80 @@
+package tz.go.moh;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.ShardingEnvelope;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import akka.pattern.StatusReply;
+import tz.go.moh.actors.CheckChwEligibilityStatusProcessor;
+import tz.go.moh.metrics.ServiceMetrics;
+
+import java.time.YearMonth;
+
+/**
+ * Front of the registry when the service runs as an Akka Cluster.
+ * <p>
+ * Monthly eligibility checks are routed by period to a {@link UcsChwStatusCheckRegistry} entity sharded across
+ * the cluster, so every check of a month lands on the same node: that node coalesces them and keeps the month
+ * hot in its eligibility cache, while other months are spread over the other nodes. Shards are rebalanced when
+ * nodes join or leave, which lets nodes be added for the month-end peak and removed afterwards. Multi-period
+ * checks span several months and have no single owner, so they are served by a registry local to the node that
+ * received them.
+ * </p>
+ * <p>
+ * The routes talk to this actor exactly as they talk to the local registry. It counts the checks out of
+ * {@link ServiceMetrics#REGISTRY_MAILBOX_DEPTH} itself, on the node the routes counted them in, so the gauge of a
+ * node only reflects the checks waiting on that node's front actor.
+ * </p>
+ */
+public final class ShardedChwStatusCheckRegistry {
+    /**
+     * Type key of the sharded registry entities, one entity per period.
+     */
+    static final EntityTypeKey<UcsChwStatusCheckRegistry.Command> ENTITY_TYPE_KEY =
+            EntityTypeKey.create(UcsChwStatusCheckRegistry.Command.class, "ChwStatusCheck");
+
+    private ShardedChwStatusCheckRegistry() {
+    }
+
+    /**
+     * Starts sharding of the registry on this node and creates the actor routing checks to the entities.
+     *
+     * @param processor The processor performing the eligibility checks of the entities hosted by this node.
+     * @return A Behavior accepting the same commands as the {@link UcsChwStatusCheckRegistry}.
+     */
+    public static Behavior<UcsChwStatusCheckRegistry.Command> create(CheckChwEligibilityStatusProcessor processor) {
+        return Behaviors.setup(context -> {
+            ActorRef<ShardingEnvelope<UcsChwStatusCheckRegistry.Command>> shards = ClusterSharding.get(context.getSystem())
+                    .init(Entity.of(ENTITY_TYPE_KEY, entityContext -> UcsChwStatusCheckRegistry.create(processor, false)));
+            ActorRef<UcsChwStatusCheckRegistry.Command> localRegistry =
+                    context.spawn(UcsChwStatusCheckRegistry.create(processor, false), "LocalChwStatusCheck");
+
+            return Behaviors.receive(UcsChwStatusCheckRegistry.Command.class)
+                    .onMessage(UcsChwStatusCheckRegistry.CheckChwEligibilityStatus.class, command -> {
+                        ServiceMetrics.REGISTRY_MAILBOX_DEPTH.dec();
+                        YearMonth month;
+                        try {
+                            month = command.eligibleChwCheckRequest().getPeriod().toYearMonth();
+                        } catch (RuntimeException e) {
+                            command.replyTo().tell(StatusReply.error(e));
+                            return Behaviors.same();
+                        }
+                        shards.tell(new ShardingEnvelope<>(month.toString(), command));
+                        return Behaviors.same();
+                    })
+                    .onMessage(UcsChwStatusCheckRegistry.CheckChwMultiPeriodEligibilityStatus.class, command -> {
+                        ServiceMetrics.REGISTRY_MAILBOX_DEPTH.dec();
+                        localRegistry.tell(command);
+                        return Behaviors.same();
+                    })
+                    .onAnyMessage(command -> {
+                        localRegistry.tell(command);
+                        return Behaviors.same();
+                    })
+                    .build();
+        });
+    }
+}
@@ -1,36 +1,122 @@
 package tz.go.moh;
 
 import akka.actor.typed.ActorRef;
-import akka.actor.typed.ActorSystem;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
+import akka.pattern.StatusReply;
 import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
+import com.typesafe.config.Config;
 import tz.go.moh.actors.CheckChwEligibilityStatusProcessor;
+import tz.go.moh.domain.ChwCohort;
 import tz.go.moh.domain.ChwEligibilityResults;
+import tz.go.moh.domain.ChwMultiPeriodEligibilityResults;
+import tz.go.moh.domain.EligibilityOutcome;
+import tz.go.moh.domain.ChwDetails;
 import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.domain.MultiPeriodChwCheckRequest;
+import tz.go.moh.domain.Period;
+import tz.go.moh.metrics.ServiceMetrics;
+import tz.go.moh.tracing.TraceContext;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 /**
  * This class represents the registry actor for checking CHW (Community Health Worker) eligibility status.
  * It handles the reception of commands to check CHW eligibility and returns the results.
+ * <p>
+ * The eligibility checks block on JDBC, so they are run on the dedicated blocking I/O dispatcher and their
+ * results are piped back to this actor. The actor itself never blocks, which lets many checks run in parallel
+ * (bounded by the size of the dispatcher) without starving the threads serving HTTP.
+ * </p>
+ * <p>
+ * When coalescing is enabled, checks for the same period that arrive within a short window are merged into one
+ * batch: their provider IDs are deduplicated and checked together, and each waiting caller gets back the slice of
+ * the results matching its own CHWs. A batch is flushed when the window closes or when it reaches the configured
+ * number of CHWs, whichever comes first.
+ * </p>
+ * <p>
+ * Every check carries the deadline after which its caller stops waiting. Checks whose deadline has passed by the
+ * time they are picked up are answered with an error without touching the database.
+ * </p>
+ * <p>
+ * Checks also carry the {@link TraceContext} of their request, which is handed to the processor; a coalesced batch
+ * is traced under the IDs of all its requests.
+ * </p>
+ * <p>
+ * In cluster mode one instance runs per period as a sharded entity, see {@link ShardedChwStatusCheckRegistry};
+ * the messages exchanged with it across nodes are {@link CborSerializable}.
+ * </p>
  */
 //#UCSLab-registry-actor
 public class UcsChwStatusCheckRegistry extends AbstractBehavior<UcsChwStatusCheckRegistry.Command> {
 
-    private UcsChwStatusCheckRegistry(ActorContext<Command> context) {
+    /**
+     * Config path of the dispatcher the blocking eligibility checks are run on.
+     */
+    public static final String BLOCKING_IO_DISPATCHER = "chw-status-check-service.blocking-io-dispatcher";
+
+    private final CheckChwEligibilityStatusProcessor processor;
+    private final Executor blockingExecutor;
+    private final TimerScheduler<Command> timers;
+    private final boolean coalescingEnabled;
+    private final Duration coalescingWindow;
+    private final int coalescingMaxBatchSize;
+    private final boolean tracksMailboxDepth;
+    private final Map<YearMonth, PendingBatch> pendingBatches = new HashMap<>();
+
+    private UcsChwStatusCheckRegistry(ActorContext<Command> context, TimerScheduler<Command> timers,
+                                      CheckChwEligibilityStatusProcessor processor, boolean tracksMailboxDepth) {
         super(context);
+        this.processor = processor;
+        this.tracksMailboxDepth = tracksMailboxDepth;
+        this.timers = timers;
+        this.blockingExecutor = context.getSystem().dispatchers().lookup(DispatcherSelector.fromConfig(BLOCKING_IO_DISPATCHER));
+        Config coalescingConfig = context.getSystem().settings().config().getConfig("chw-status-check-service.coalescing");
+        this.coalescingEnabled = coalescingConfig.getBoolean("enabled");
+        this.coalescingWindow = coalescingConfig.getDuration("window");
+        this.coalescingMaxBatchSize = coalescingConfig.getInt("max-batch-size");
+    }
+
+    /**
+     * Creates a new instance of the UcsChwStatusCheckRegistry actor.
+     *
+     * @param processor The processor that performs the eligibility checks, shared for the lifetime of the actor.
+     * @return A Behavior for the UcsChwStatusCheckRegistry actor.
+     */
+    public static Behavior<Command> create(CheckChwEligibilityStatusProcessor processor) {
+        return create(processor, true);
     }
 
     /**
      * Creates a new instance of the UcsChwStatusCheckRegistry actor.
+     * <p>
+     * The routes count the checks they send in {@link ServiceMetrics#REGISTRY_MAILBOX_DEPTH} and the actor picking
+     * them up counts them out, which has to happen on the same node. Behind the {@link ShardedChwStatusCheckRegistry}
+     * the checks may be picked up on another node, so the front actor counts them out instead of the registries.
+     * </p>
      *
+     * @param processor          The processor that performs the eligibility checks, shared for the lifetime of the actor.
+     * @param tracksMailboxDepth Whether the actor decrements the mailbox depth gauge when it picks up a check.
      * @return A Behavior for the UcsChwStatusCheckRegistry actor.
      */
-    public static Behavior<Command> create() {
-        return Behaviors.setup(UcsChwStatusCheckRegistry::new);
+    public static Behavior<Command> create(CheckChwEligibilityStatusProcessor processor, boolean tracksMailboxDepth) {
+        return Behaviors.setup(context ->
+                Behaviors.withTimers(timers -> new UcsChwStatusCheckRegistry(context, timers, processor, tracksMailboxDepth)));
     }
 
     /**
@@ -44,21 +130,227 @@ public class UcsChwStatusCheckRegistry extends AbstractBehavior<UcsChwStatusChec
     public Receive<Command> createReceive() {
         return newReceiveBuilder()
                 .onMessage(CheckChwEligibilityStatus.class, this::onCheckChwEligibility)
+                .onMessage(EligibilityChecked.class, this::onEligibilityChecked)
+                .onMessage(FlushBatch.class, this::onFlushBatch)
+                .onMessage(BatchEligibilityChecked.class, this::onBatchEligibilityChecked)
+                .onMessage(CheckChwMultiPeriodEligibilityStatus.class, this::onCheckChwMultiPeriodEligibility)
+                .onMessage(MultiPeriodEligibilityChecked.class, this::onMultiPeriodEligibilityChecked)
                 .build();
     }
 
     private Behavior<Command> onCheckChwEligibility(CheckChwEligibilityStatus command) {
-        List<ChwEligibilityResults> response = new CheckChwEligibilityStatusProcessor().checkEligibility(command.eligibleChwCheckRequest,
-                command.system.settings().config().getString("chw-status-check-service.database.DB_HOST"),
-                command.system.settings().config().getInt("chw-status-check-service.database.DB_PORT"),
-                command.system.settings().config().getString("chw-status-check-service.database.DB_NAME"),
-                command.system.settings().config().getString("chw-status-check-service.database.DB_USER"),
-                command.system.settings().config().getString("chw-status-check-service.database.DB_PASSWORD")
-        );
-        command.replyTo().tell(new ActionPerformed(response));
+        if (tracksMailboxDepth) {
+            ServiceMetrics.REGISTRY_MAILBOX_DEPTH.dec();
+        }
+        List<ChwDetails> chws = command.eligibleChwCheckRequest().getChws();
+        if (chws != null) {
+            ServiceMetrics.CHWS_PER_REQUEST.observe(chws.size());
+        }
+        if (isExpired(command.deadline(), command.replyTo())) {
+            return this;
+        }
+        if (!coalescingEnabled) {
+            ServiceMetrics.CHECKS_IN_PROGRESS.inc();
+            CompletionStage<EligibilityOutcome> futureResponse = CompletableFuture.supplyAsync(
+                    () -> processor.checkEligibility(command.eligibleChwCheckRequest(), command.deadline(), command.trace()), blockingExecutor);
+            getContext().pipeToSelf(futureResponse, (response, failure) -> new EligibilityChecked(response, failure, command.trace(), command.replyTo()));
+            return this;
+        }
+
+        YearMonth month;
+        try {
+            month = command.eligibleChwCheckRequest().getPeriod().toYearMonth();
+        } catch (RuntimeException e) {
+            command.replyTo().tell(StatusReply.error(e));
+            return this;
+        }
+        PendingBatch batch = pendingBatches.get(month);
+        if (batch == null) {
+            batch = new PendingBatch(command.eligibleChwCheckRequest().getPeriod());
+            pendingBatches.put(month, batch);
+            timers.startSingleTimer(month, new FlushBatch(month), coalescingWindow);
+        }
+        batch.add(command);
+        if (batch.chwCount >= coalescingMaxBatchSize) {
+            timers.cancel(month);
+            flush(month);
+        }
         return this;
     }
 
+    private Behavior<Command> onFlushBatch(FlushBatch command) {
+        flush(command.month());
+        return this;
+    }
+
+    /**
+     * Checks every CHW of the pending batch of a period at once on the blocking I/O dispatcher. Requests that
+     * expired while waiting are dropped; the batch runs until the latest deadline of the remaining ones.
+     */
+    private void flush(YearMonth month) {
+        PendingBatch pending = pendingBatches.remove(month);
+        if (pending == null) {
+            return;
+        }
+        List<CheckChwEligibilityStatus> requests = new ArrayList<>(pending.requests.size());
+        Instant deadline = null;
+        boolean unbounded = false;
+        for (CheckChwEligibilityStatus request : pending.requests) {
+            if (isExpired(request.deadline(), request.replyTo())) {
+                continue;
+            }
+            requests.add(request);
+            if (request.deadline() == null) {
+                unbounded = true;
+            } else if (deadline == null || request.deadline().isAfter(deadline)) {
+                deadline = request.deadline();
+            }
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+
+        List<List<ChwDetails>> parts = new ArrayList<>(requests.size());
+        List<TraceContext> traces = new ArrayList<>(requests.size());
+        for (CheckChwEligibilityStatus request : requests) {
+            parts.add(request.eligibleChwCheckRequest().getChws());
+            traces.add(request.trace());
+        }
+        TraceContext batchTrace = TraceContext.merge(traces);
+        ServiceMetrics.COALESCED_BATCHES.inc();
+        ServiceMetrics.REQUESTS_PER_BATCH.observe(requests.size());
+
+        // The cohorts are merged array to array and deduplicated by the processor, both on the blocking I/O
+        // dispatcher, so a large batch does not hold up the mailbox.
+        ServiceMetrics.CHECKS_IN_PROGRESS.inc();
+        Period period = pending.period;
+        Instant batchDeadline = unbounded ? null : deadline;
+        CompletionStage<CoalescedOutcome> futureResponse = CompletableFuture.supplyAsync(() -> {
+            ChwCohort chws = ChwCohort.concat(parts);
+            EligibilityOutcome outcome = processor.checkEligibility(new EligibleChwCheckRequest(period, chws), batchDeadline, batchTrace);
+            return new CoalescedOutcome(outcome, chws.countProviderIds());
+        }, blockingExecutor);
+        getContext().pipeToSelf(futureResponse, (response, failure) -> new BatchEligibilityChecked(response, failure, batchTrace, requests));
+    }
+
+    /**
+     * Hands each caller of a coalesced batch the slice of the results matching its own CHWs. The processor keeps
+     * the request order, so the slices are contiguous.
+     */
+    private Behavior<Command> onBatchEligibilityChecked(BatchEligibilityChecked result) {
+        ServiceMetrics.CHECKS_IN_PROGRESS.dec();
+        if (result.failure() != null) {
+            Throwable cause = unwrap(result.failure());
+            logFailure("Coalesced eligibility check failed", result.trace(), cause);
+            for (CheckChwEligibilityStatus request : result.requests()) {
+                request.replyTo().tell(StatusReply.error(cause));
+            }
+            return this;
+        }
+        EligibilityOutcome outcome = result.response().outcome();
+        ServiceMetrics.COALESCED_PROVIDERS_REQUESTED.inc(result.response().requestedProviders());
+        ServiceMetrics.COALESCED_PROVIDERS_DISTINCT.inc(outcome.distinctProviders());
+        getContext().getLog().debug("Coalesced {} checks: {} provider IDs, {} distinct (traces {})",
+                result.requests().size(), result.response().requestedProviders(), outcome.distinctProviders(),
+                result.trace() != null ? result.trace().traceId() : "-");
+        List<List<ChwDetails>> parts = new ArrayList<>(result.requests().size());
+        for (CheckChwEligibilityStatus request : result.requests()) {
+            parts.add(request.eligibleChwCheckRequest().getChws());
+        }
+        List<List<ChwEligibilityResults>> slices = slice(outcome.results(), parts);
+        for (int i = 0; i < slices.size(); i++) {
+            result.requests().get(i).replyTo().tell(StatusReply.success(new ActionPerformed(slices.get(i), outcome.dataAsOf())));
+        }
+        return this;
+    }
+
+    /**
+     * Cuts the results of a coalesced batch into the slices of the requests it merged.
+     *
+     * @param results The results of the batch, in the order of {@link ChwCohort#concat(List)} over the parts.
+     * @param parts   The CHWs of each merged request, in merge order; null for a request without CHWs.
+     * @return One view of the results per part, of the same size.
+     */
+    static <T> List<List<T>> slice(List<T> results, List<? extends List<?>> parts) {
+        List<List<T>> slices = new ArrayList<>(parts.size());
+        int offset = 0;
+        for (List<?> part : parts) {
+            int size = part != null ? part.size() : 0;
+            slices.add(results.subList(offset, offset + size));
+            offset += size;
+        }
+        return slices;
+    }
+
+    private Behavior<Command> onEligibilityChecked(EligibilityChecked result) {
+        ServiceMetrics.CHECKS_IN_PROGRESS.dec();
+        if (result.failure() != null) {
+            Throwable cause = unwrap(result.failure());
+            logFailure("Eligibility check failed", result.trace(), cause);
+            result.replyTo().tell(StatusReply.error(cause));
+        } else {
+            result.replyTo().tell(StatusReply.success(
+                    new ActionPerformed(result.response().results(), result.response().dataAsOf())));
+        }
+        return this;
+    }
+
+    private Behavior<Command> onCheckChwMultiPeriodEligibility(CheckChwMultiPeriodEligibilityStatus command) {
+        if (tracksMailboxDepth) {
+            ServiceMetrics.REGISTRY_MAILBOX_DEPTH.dec();
+        }
+        if (command.multiPeriodChwCheckRequest().getChws() != null) {
+            ServiceMetrics.CHWS_PER_REQUEST.observe(command.multiPeriodChwCheckRequest().getChws().size());
+        }
+        if (isExpired(command.deadline(), command.replyTo())) {
+            return this;
+        }
+        ServiceMetrics.CHECKS_IN_PROGRESS.inc();
+        CompletionStage<List<ChwMultiPeriodEligibilityResults>> futureResponse = CompletableFuture.supplyAsync(
+                () -> processor.checkMultiPeriodEligibility(command.multiPeriodChwCheckRequest(), command.deadline(), command.trace()), blockingExecutor);
+        getContext().pipeToSelf(futureResponse, (response, failure) -> new MultiPeriodEligibilityChecked(response, failure, command.trace(), command.replyTo()));
+        return this;
+    }
+
+    private Behavior<Command> onMultiPeriodEligibilityChecked(MultiPeriodEligibilityChecked result) {
+        ServiceMetrics.CHECKS_IN_PROGRESS.dec();
+        if (result.failure() != null) {
+            Throwable cause = unwrap(result.failure());
+            logFailure("Multi-period eligibility check failed", result.trace(), cause);
+            result.replyTo().tell(StatusReply.error(cause));
+        } else {
+            result.replyTo().tell(StatusReply.success(new MultiPeriodActionPerformed(result.response())));
+        }
+        return this;
+    }
+
+    /**
+     * Answers a check whose caller has already given up, so no work is spent on it.
+     *
+     * @return True if the deadline has passed and the check was answered.
+     */
+    private static <T> boolean isExpired(Instant deadline, ActorRef<StatusReply<T>> replyTo) {
+        if (deadline == null || !Instant.now().isAfter(deadline)) {
+            return false;
+        }
+        ServiceMetrics.EXPIRED_CHECKS.inc();
+        replyTo.tell(StatusReply.error(new CancellationException("Deadline passed before the check started")));
+        return true;
+    }
+
+    private void logFailure(String message, TraceContext trace, Throwable cause) {
+        String traceId = trace != null ? trace.traceId() : "-";
+        if (cause instanceof CancellationException) {
+            getContext().getLog().warn("{} (trace {}): {}", message, traceId, cause.getMessage());
+        } else {
+            getContext().getLog().error(message + " (trace " + traceId + ")", cause);
+        }
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
     /**
      * This interface represents the protocol for commands that the UcsChwStatusCheckRegistry actor can receive.
      */
@@ -67,16 +359,114 @@ public class UcsChwStatusCheckRegistry extends AbstractBehavior<UcsChwStatusChec
 
     /**
      * This record represents a command to check the eligibility status of a CHW.
-     * It contains the request details, the actor system, and the actor reference to reply to.
+     * It contains the request details and the actor reference to reply to.
      *
      * @param eligibleChwCheckRequest The request containing the details for checking CHW eligibility.
-     * @param system                  The actor system.
-     * @param replyTo                 The actor reference to reply to with the results.
+     * @param deadline                When the caller stops waiting for the results, or null for no deadline.
+     * @param trace                   The trace of the request, or null if it is not traced.
+     * @param replyTo                 The actor reference to reply to with the results, or with the failure.
      */
     public final static record CheckChwEligibilityStatus(
             EligibleChwCheckRequest eligibleChwCheckRequest,
-            ActorSystem<?> system,
-            ActorRef<ActionPerformed> replyTo) implements Command {
+            Instant deadline,
+            TraceContext trace,
+            ActorRef<StatusReply<ActionPerformed>> replyTo) implements Command, CborSerializable {
+    }
+
+    /**
+     * Internal message carrying the outcome of an eligibility check that ran on the blocking I/O dispatcher.
+     *
+     * @param response The eligibility outcome, or null if the check failed.
+     * @param failure  The failure of the check, or null if it succeeded.
+     * @param trace    The trace of the request, or null if it is not traced.
+     * @param replyTo  The actor reference waiting for the results.
+     */
+    private record EligibilityChecked(
+            EligibilityOutcome response,
+            Throwable failure,
+            TraceContext trace,
+            ActorRef<StatusReply<ActionPerformed>> replyTo) implements Command {
+    }
+
+    /**
+     * Internal message closing the coalescing window of a period.
+     *
+     * @param month The period whose pending batch is flushed.
+     */
+    private record FlushBatch(YearMonth month) implements Command {
+    }
+
+    /**
+     * Internal message carrying the outcome of a coalesced batch of eligibility checks.
+     *
+     * @param response The eligibility outcome of every CHW of the batch in request order, or null if the check failed.
+     * @param failure  The failure of the check, or null if it succeeded.
+     * @param trace    The merged trace of the coalesced requests, or null if none is traced.
+     * @param requests The coalesced requests, in the order their CHWs were merged.
+     */
+    private record BatchEligibilityChecked(
+            CoalescedOutcome response,
+            Throwable failure,
+            TraceContext trace,
+            List<CheckChwEligibilityStatus> requests) implements Command {
+    }
+
+    /**
+     * The outcome of a coalesced batch with the number of provider IDs it received, duplicates included.
+     *
+     * @param outcome            The eligibility outcome of every CHW of the batch in request order.
+     * @param requestedProviders The number of CHWs of the batch with a provider ID.
+     */
+    private record CoalescedOutcome(EligibilityOutcome outcome, int requestedProviders) {
+    }
+
+    /**
+     * The checks of one period waiting for their coalescing window to close.
+     */
+    private static final class PendingBatch {
+        private final Period period;
+        private final List<CheckChwEligibilityStatus> requests = new ArrayList<>();
+        private int chwCount;
+
+        private PendingBatch(Period period) {
+            this.period = period;
+        }
+
+        private void add(CheckChwEligibilityStatus request) {
+            requests.add(request);
+            List<ChwDetails> chws = request.eligibleChwCheckRequest().getChws();
+            chwCount += chws != null ? chws.size() : 0;
+        }
+    }
+
+    /**
+     * This record represents a command to check the eligibility status of CHWs in several months.
+     *
+     * @param multiPeriodChwCheckRequest The request containing the periods and the CHWs to check.
+     * @param deadline                   When the caller stops waiting for the results, or null for no deadline.
+     * @param trace                      The trace of the request, or null if it is not traced.
+     * @param replyTo                    The actor reference to reply to with the results, or with the failure.
+     */
+    public final static record CheckChwMultiPeriodEligibilityStatus(
+            MultiPeriodChwCheckRequest multiPeriodChwCheckRequest,
+            Instant deadline,
+            TraceContext trace,
+            ActorRef<StatusReply<MultiPeriodActionPerformed>> replyTo) implements Command {
+    }
+
+    /**
+     * Internal message carrying the outcome of a multi-period eligibility check.
+     *
+     * @param response The eligibility results, or null if the check failed.
+     * @param failure  The failure of the check, or null if it succeeded.
+     * @param trace    The trace of the request, or null if it is not traced.
+     * @param replyTo  The actor reference waiting for the results.
+     */
+    private record MultiPeriodEligibilityChecked(
+            List<ChwMultiPeriodEligibilityResults> response,
+            Throwable failure,
+            TraceContext trace,
+            ActorRef<StatusReply<MultiPeriodActionPerformed>> replyTo) implements Command {
     }
 
     /**
@@ -84,8 +474,17 @@ public class UcsChwStatusCheckRegistry extends AbstractBehavior<UcsChwStatusChec
      * It contains the list of CHW eligibility results.
      *
      * @param response The list of CHW eligibility results.
+     * @param dataAsOf When the activity data used to compute the results was last refreshed.
+     */
+    public final static record ActionPerformed(List<ChwEligibilityResults> response, Instant dataAsOf) implements Command, CborSerializable {
+    }
+
+    /**
+     * This record represents the result of a multi-period check.
+     *
+     * @param response The eligibility of each CHW per requested month.
      */
-    public final static record ActionPerformed(List<ChwEligibilityResults> response) implements Command {
+    public final static record MultiPeriodActionPerformed(List<ChwMultiPeriodEligibilityResults> response) implements Command {
     }
 
 }
@@ -1,21 +1,87 @@
 package tz.go.moh;
 
+import akka.NotUsed;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
+import akka.actor.typed.DispatcherSelector;
 import akka.actor.typed.Scheduler;
 import akka.actor.typed.javadsl.AskPattern;
-import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.common.EntityStreamingSupport;
+import akka.http.javadsl.marshalling.Marshaller;
+import akka.http.javadsl.marshalling.sse.EventStreamMarshalling;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpCharsets;
+import akka.http.javadsl.model.HttpEntity;
+import akka.http.javadsl.model.HttpHeader;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.MediaTypes;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.Accept;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.sse.ServerSentEvent;
+import akka.http.javadsl.server.Complete;
 import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.StringUnmarshallers;
+import akka.japi.pf.PFBuilder;
+import akka.stream.Materializer;
+import akka.stream.javadsl.FileIO;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import tz.go.moh.admission.AdmissionController;
+import tz.go.moh.admission.AdmissionRejectedException;
+import tz.go.moh.cache.EligibilityCache;
+import tz.go.moh.cache.CacheInvalidation;
+import tz.go.moh.cache.ResponseCache;
+import tz.go.moh.codec.EligibilityCodec;
+import tz.go.moh.domain.ChwCohort;
 import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.domain.MultiPeriodChwCheckRequest;
+import tz.go.moh.domain.Period;
+import tz.go.moh.index.ActiveProviderIndex;
+import tz.go.moh.jobs.EligibilityJobRunner;
+import tz.go.moh.jobs.JobStatus;
+import tz.go.moh.jobs.JobStore;
+import tz.go.moh.jobs.ResultsPage;
+import tz.go.moh.metrics.ServiceMetrics;
+import tz.go.moh.subscriptions.EligibilitySubscriptions;
+import tz.go.moh.tracing.RequestTrace;
+import tz.go.moh.tracing.Stage;
+import tz.go.moh.tracing.TraceContext;
+import tz.go.moh.util.CustomJacksonObjectMapper;
 import tz.go.moh.util.CustomJacksonSupport;
+import tz.go.moh.util.DatabaseConnectionFactory;
+import tz.go.moh.warmup.Readiness;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.time.DateTimeException;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 import static akka.http.javadsl.server.Directives.*;
+import static akka.http.javadsl.server.PathMatchers.segment;
 
 /**
  * Defines the routes for checking the monthly status of Community Health Workers (CHWs).
@@ -23,10 +89,40 @@ import static akka.http.javadsl.server.Directives.*;
  */
 public class UcsChwStatusCheckRoutes {
     //#routes-class
+    /**
+     * Response header reporting when the activity data behind the eligibility results was last refreshed.
+     */
+    public static final String DATA_AS_OF_HEADER = "X-Data-As-Of";
+    /**
+     * Request and response header carrying the trace ID of a request.
+     */
+    public static final String REQUEST_ID_HEADER = "X-Request-ID";
+    private static final Pattern REQUEST_ID_PATTERN = Pattern.compile("[A-Za-z0-9._:-]{1,128}");
     private final static Logger log = LoggerFactory.getLogger(UcsChwStatusCheckRoutes.class);
     private final ActorRef<UcsChwStatusCheckRegistry.Command> labIntegrationActor;
     private final Duration askTimeout;
     private final Scheduler scheduler;
+    private final DatabaseConnectionFactory connectionFactory;
+    private final EligibilityCache eligibilityCache;
+    private final ResponseCache responseCache;
+    private final Duration strictEntityTimeout;
+    private final ActiveProviderIndex activeProviderIndex;
+    private final CacheInvalidation cacheInvalidation;
+    private final EntityStreamingSupport jsonStreamingSupport = EntityStreamingSupport.json();
+    private final int streamBatchSize;
+    private final int streamParallelism;
+    private final long maxStreamBytes;
+    private final int maxMultiPeriodMonths;
+    private final AdmissionController admissionController;
+    private final long retryAfterSeconds;
+    private final ActorRef<EligibilityJobRunner.Command> jobRunner;
+    private final JobStore jobStore;
+    private final long maxJobSubmissionBytes;
+    private final int maxJobPageSize;
+    private final Executor blockingExecutor;
+    private final EligibilitySubscriptions subscriptions;
+    private final Duration subscriptionKeepAlive;
+    private final Readiness readiness;
     private ActorSystem<?> system;
 
     /**
@@ -34,46 +130,846 @@ public class UcsChwStatusCheckRoutes {
      *
      * @param system              The Akka actor system.
      * @param labIntegrationActor The actor responsible for handling CHW status check requests.
+     * @param connectionFactory   The shared database connection pool, used to report pool statistics.
+     * @param eligibilityCache    The cache of eligibility verdicts, or null if caching is disabled.
+     * @param responseCache       The cache of encoded monthly status responses, or null if it is disabled.
+     * @param activeProviderIndex The in-memory index of active providers per month, or null if it is disabled.
+     * @param cacheInvalidation   Drops the cached verdicts, responses and index months on every node.
+     * @param admissionController The admission controller bounding in-flight work, or null if admission control is disabled.
+     * @param jobRunner           The actor running bulk eligibility jobs, or null if jobs are disabled.
+     * @param jobStore            The store persisting bulk eligibility jobs, or null if jobs are disabled.
+     * @param subscriptions       The cohort subscriptions, or null if subscriptions are disabled.
+     * @param readiness           Whether the service has warmed up and should receive traffic.
      */
-    public UcsChwStatusCheckRoutes(ActorSystem<?> system, ActorRef<UcsChwStatusCheckRegistry.Command> labIntegrationActor) {
+    public UcsChwStatusCheckRoutes(ActorSystem<?> system, ActorRef<UcsChwStatusCheckRegistry.Command> labIntegrationActor,
+                                   DatabaseConnectionFactory connectionFactory, EligibilityCache eligibilityCache,
+                                   ResponseCache responseCache, ActiveProviderIndex activeProviderIndex,
+                                   CacheInvalidation cacheInvalidation, AdmissionController admissionController,
+                                   ActorRef<EligibilityJobRunner.Command> jobRunner, JobStore jobStore,
+                                   EligibilitySubscriptions subscriptions, Readiness readiness) {
         this.labIntegrationActor = labIntegrationActor;
+        this.readiness = readiness;
+        this.connectionFactory = connectionFactory;
+        this.eligibilityCache = eligibilityCache;
+        this.responseCache = responseCache;
+        this.activeProviderIndex = activeProviderIndex;
+        this.cacheInvalidation = cacheInvalidation;
+        this.admissionController = admissionController;
+        this.jobRunner = jobRunner;
+        this.jobStore = jobStore;
+        this.subscriptions = subscriptions;
         this.system = system;
         scheduler = system.scheduler();
         askTimeout = system.settings().config().getDuration("chw-status-check-service.routes.ask-timeout");
+        streamBatchSize = system.settings().config().getInt("chw-status-check-service.routes.stream-batch-size");
+        streamParallelism = system.settings().config().getInt("chw-status-check-service.routes.stream-parallelism");
+        maxStreamBytes = system.settings().config().getBytes("chw-status-check-service.routes.stream-max-size");
+        maxMultiPeriodMonths = system.settings().config().getInt("chw-status-check-service.routes.max-multi-period-months");
+        retryAfterSeconds = system.settings().config().getDuration("chw-status-check-service.admission.retry-after").toSeconds();
+        maxJobSubmissionBytes = system.settings().config().getBytes("chw-status-check-service.jobs.max-submission-size");
+        maxJobPageSize = system.settings().config().getInt("chw-status-check-service.jobs.max-page-size");
+        blockingExecutor = system.dispatchers().lookup(DispatcherSelector.fromConfig(UcsChwStatusCheckRegistry.BLOCKING_IO_DISPATCHER));
+        strictEntityTimeout = system.settings().config().getDuration("chw-status-check-service.response-cache.read-timeout");
+        subscriptionKeepAlive = system.settings().config().getDuration("chw-status-check-service.subscriptions.keep-alive");
 
     }
 
     /**
-     * Checks the eligibility status of a CHW.
+     * Checks the eligibility status of a CHW. The registry is given the ask deadline, so the work is dropped once
+     * nobody is waiting for it anymore, and the trace ID of the request.
      *
      * @param eligibleChwCheckRequest The request containing the CHW's information.
+     * @param traceId                 The trace ID of the request.
      * @return A CompletionStage that will eventually contain the result of the status check.
      */
-    private CompletionStage<UcsChwStatusCheckRegistry.ActionPerformed> checkChwStatus(EligibleChwCheckRequest eligibleChwCheckRequest) {
-        return AskPattern.ask(labIntegrationActor, ref -> new UcsChwStatusCheckRegistry.CheckChwEligibilityStatus(eligibleChwCheckRequest, system, ref), askTimeout, scheduler);
+    private CompletionStage<UcsChwStatusCheckRegistry.ActionPerformed> checkChwStatus(EligibleChwCheckRequest eligibleChwCheckRequest, String traceId) {
+        ServiceMetrics.REGISTRY_MAILBOX_DEPTH.inc();
+        return recordAskTimeouts(AskPattern.askWithStatus(labIntegrationActor, ref -> new UcsChwStatusCheckRegistry.CheckChwEligibilityStatus(eligibleChwCheckRequest, Instant.now().plus(askTimeout), TraceContext.of(traceId), ref), askTimeout, scheduler));
+    }
+
+    /**
+     * Checks the eligibility status of CHWs in several months.
+     *
+     * @param multiPeriodChwCheckRequest The request containing the periods and the CHWs' information.
+     * @param traceId                    The trace ID of the request.
+     * @return A CompletionStage that will eventually contain the result of the status check.
+     */
+    private CompletionStage<UcsChwStatusCheckRegistry.MultiPeriodActionPerformed> checkChwMultiPeriodStatus(MultiPeriodChwCheckRequest multiPeriodChwCheckRequest, String traceId) {
+        ServiceMetrics.REGISTRY_MAILBOX_DEPTH.inc();
+        return recordAskTimeouts(AskPattern.askWithStatus(labIntegrationActor, ref -> new UcsChwStatusCheckRegistry.CheckChwMultiPeriodEligibilityStatus(multiPeriodChwCheckRequest, Instant.now().plus(askTimeout), TraceContext.of(traceId), ref), askTimeout, scheduler));
+    }
+
+    /**
+     * Submits a bulk eligibility job to the job runner.
+     *
+     * @param request The period and the CHWs to check.
+     * @return A CompletionStage that will eventually contain the status of the queued job.
+     */
+    private CompletionStage<JobStatus> submitJob(EligibleChwCheckRequest request) {
+        return AskPattern.askWithStatus(jobRunner, ref -> new EligibilityJobRunner.SubmitJob(request, ref), askTimeout, scheduler);
+    }
+
+    /**
+     * Reads from the job store on the blocking I/O dispatcher.
+     */
+    private <T> CompletionStage<T> readJobStore(JobStoreRead<T> read) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return read.apply();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, blockingExecutor);
+    }
+
+    @FunctionalInterface
+    private interface JobStoreRead<T> {
+        T apply() throws IOException;
+    }
+
+    /**
+     * Opens a cohort subscription on the blocking I/O dispatcher, since it checks the cohort once.
+     *
+     * @param request The period and the CHWs to watch.
+     * @return A CompletionStage that will eventually contain the new subscription with the current results.
+     */
+    private CompletionStage<EligibilitySubscriptions.SubscriptionCreated> subscribe(EligibleChwCheckRequest request) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return subscriptions.subscribe(request);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, blockingExecutor);
+    }
+
+    /**
+     * Renders an eligibility event as a Server-Sent Event of type "eligible", with the event ID clients resume from.
+     */
+    private static ServerSentEvent toServerSentEvent(EligibilitySubscriptions.EligibilityEvent event) {
+        try {
+            return ServerSentEvent.create(CustomJacksonObjectMapper.mapper.writeValueAsString(event), "eligible", String.valueOf(event.id()));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Counts the asks to the registry that time out before a reply arrives.
+     */
+    private static <T> CompletionStage<T> recordAskTimeouts(CompletionStage<T> reply) {
+        return reply.whenComplete((result, failure) -> {
+            if (failure instanceof TimeoutException
+                    || (failure instanceof CompletionException && failure.getCause() instanceof TimeoutException)) {
+                ServiceMetrics.ASK_TIMEOUTS.inc();
+            }
+        });
+    }
+
+    /**
+     * Runs the inner route once the admission controller has admitted the given number of CHWs, and hands the
+     * capacity back when the response is ready. Requests the controller rejects are answered straight away with
+     * 503 Service Unavailable and a Retry-After header.
+     *
+     * @param chws  The number of CHWs the request checks.
+     * @param inner The route doing the work.
+     * @return The admission-controlled route.
+     */
+    private Route admitted(int chws, Supplier<Route> inner) {
+        if (admissionController == null) {
+            return inner.get();
+        }
+        return onComplete(admissionController.admit(chws), permit -> {
+            if (permit.isFailure()) {
+                return respondWithHeader(RawHeader.create("Retry-After", String.valueOf(retryAfterSeconds)), () ->
+                        complete(StatusCodes.SERVICE_UNAVAILABLE, "The service is at capacity, retry later")
+                );
+            }
+            return mapRouteResultFuture(result -> result.whenComplete((routeResult, failure) -> permit.get().close()), inner);
+        });
+    }
+
+    /**
+     * Starts a check once the admission controller has admitted the given number of CHWs, and hands the capacity
+     * back when the check completes. Used by the streaming endpoint, whose batches are admitted one at a time after
+     * the response has started; a rejected batch fails the stream, which then ends with an error element.
+     *
+     * @param chws  The number of CHWs the check covers.
+     * @param check Starts the check.
+     * @return The result of the check, or a stage failed with an {@link AdmissionRejectedException}.
+     */
+    private <T> CompletionStage<T> whenAdmitted(int chws, Supplier<CompletionStage<T>> check) {
+        if (admissionController == null) {
+            return check.get();
+        }
+        return admissionController.admit(chws).thenCompose(permit ->
+                check.get().whenComplete((result, failure) -> permit.close()));
+    }
+
+    private static int sizeOf(List<?> chws) {
+        return chws != null ? chws.size() : 0;
+    }
+
+    /**
+     * Wraps an endpoint so its latency, outcome and the number of requests in flight are recorded.
+     * For the streaming endpoint the latency covers the time until the response starts.
+     *
+     * @param latency   The histogram receiving the latency of the endpoint.
+     * @param succeeded The counter of requests answered with a success status.
+     * @param failed    The counter of requests that were rejected, failed or answered with an error status.
+     * @param inner     The endpoint route.
+     * @return The instrumented route.
+     */
+    private static Route instrumented(Histogram.Child latency, Counter.Child succeeded, Counter.Child failed, Supplier<Route> inner) {
+        return extractRequestContext(ctx -> {
+            long start = System.nanoTime();
+            ServiceMetrics.IN_FLIGHT_REQUESTS.inc();
+            return mapRouteResultFuture(result -> result.whenComplete((routeResult, failure) -> {
+                ServiceMetrics.IN_FLIGHT_REQUESTS.dec();
+                ServiceMetrics.observeSince(latency, start);
+                if (failure == null && routeResult instanceof Complete complete && complete.getResponse().status().isSuccess()) {
+                    succeeded.inc();
+                } else {
+                    failed.inc();
+                }
+            }), inner);
+        });
+    }
+
+    /**
+     * Gives every request a trace ID: the {@value #REQUEST_ID_HEADER} header sent by the client when it is a
+     * plausible ID, otherwise a random UUID. The ID replaces the header of the request, so inner routes read it from
+     * there, and is echoed in the same header of the response.
+     *
+     * @param inner The routes to trace.
+     * @return The traced route.
+     */
+    private static Route withRequestId(Supplier<Route> inner) {
+        return optionalHeaderValueByName(REQUEST_ID_HEADER, requestId -> {
+            String traceId = requestId.filter(id -> REQUEST_ID_PATTERN.matcher(id).matches())
+                    .orElseGet(() -> UUID.randomUUID().toString());
+            return mapRequest(request -> request.removeHeader(REQUEST_ID_HEADER).addHeader(RawHeader.create(REQUEST_ID_HEADER, traceId)), () ->
+                    respondWithHeader(RawHeader.create(REQUEST_ID_HEADER, traceId), inner)
+            );
+        });
+    }
+
+    /**
+     * Runs the inner route with the trace ID assigned by {@link #withRequestId(Supplier)}.
+     */
+    private static Route traced(Function<String, Route> inner) {
+        return headerValueByName(REQUEST_ID_HEADER, inner);
+    }
+
+    /**
+     * Decodes a monthly status request, adding the time spent reading and decoding it to the trace.
+     *
+     * @param trace          The trace of the request.
+     * @param unmarshalStart The {@link System#nanoTime()} reading taken before the body was read.
+     * @param inner          The route handling the decoded request.
+     * @return The decoding route.
+     */
+    private static Route decoded(RequestTrace trace, long unmarshalStart, Function<EligibleChwCheckRequest, Route> inner) {
+        return entity(EligibilityCodec.REQUEST_UNMARSHALLER, eligibleChwCheckRequest -> {
+            trace.addSince(Stage.UNMARSHAL, unmarshalStart);
+            return inner.apply(eligibleChwCheckRequest);
+        });
+    }
+
+    /**
+     * Combines all the routes exposed by the service.
+     *
+     * @return The combined route.
+     */
+    public Route createRoutes() {
+        return withRequestId(() -> concat(
+                checkChwMonthlyStatusRoutes(),
+                streamChwMonthlyStatusRoutes(),
+                checkChwMultiPeriodStatusRoutes(),
+                statsRoutes(),
+                cacheRoutes(),
+                jobsRoutes(),
+                subscriptionRoutes(),
+                indexRoutes(),
+                metricsRoutes(),
+                healthRoutes()
+        ));
     }
 
     /**
      * Defines the route for checking the monthly status of CHWs.
      * <p>
      * This route handles POST requests to the "/chw/monthly-status" endpoint.
-     * It expects a JSON payload representing an EligibleChwCheckRequest.
+     * It expects a JSON payload representing an EligibleChwCheckRequest. The freshness of the activity data is
+     * reported in the {@value #DATA_AS_OF_HEADER} response header. Besides JSON, the request and the response may
+     * be CBOR or Smile, chosen with the Content-Type and Accept headers, and either may be gzip or deflate
+     * encoded as negotiated with the Content-Encoding and Accept-Encoding headers. Both are (de)serialized by the
+     * streaming {@link EligibilityCodec} rather than by Jackson databinding. When the {@link ResponseCache} is
+     * enabled, repeated requests are answered with the cached encoded response, and conditional requests are
+     * supported through the ETag and If-None-Match headers.
      * </p>
      * @return The defined route.
      */
     public Route checkChwMonthlyStatusRoutes() {
         return pathPrefix("chw", () ->
                 path("monthly-status", () ->
-                        post(() ->
+                        post(() -> instrumented(ServiceMetrics.MONTHLY_STATUS_LATENCY, ServiceMetrics.MONTHLY_STATUS_SUCCEEDED, ServiceMetrics.MONTHLY_STATUS_FAILED, () ->
+                                decodeRequest(() ->
+                                        encodeResponse(() -> traced(traceId -> {
+                                            RequestTrace trace = new RequestTrace(traceId);
+                                            long unmarshalStart = System.nanoTime();
+                                            return responseCache != null
+                                                    ? cachedMonthlyStatus(trace, unmarshalStart)
+                                                    : decoded(trace, unmarshalStart, eligibleChwCheckRequest -> checkMonthlyStatus(eligibleChwCheckRequest, trace));
+                                        }))
+                                )
+                        ))
+                )
+        );
+    }
+
+    /**
+     * Checks a monthly status request and completes with the results in the negotiated format. Once they are
+     * encoded, the unmarshal and marshal times are logged under the trace ID; the stages of the check itself are
+     * logged by the processor under the same ID.
+     */
+    private Route checkMonthlyStatus(EligibleChwCheckRequest eligibleChwCheckRequest, RequestTrace trace) {
+        return admitted(sizeOf(eligibleChwCheckRequest.getChws()), () ->
+                onSuccess(checkChwStatus(eligibleChwCheckRequest, trace.traceId()), performed ->
+                        respondWithHeader(RawHeader.create(DATA_AS_OF_HEADER, performed.dataAsOf().toString()), () ->
+                                complete(StatusCodes.OK, performed.response(), EligibilityCodec.resultsMarshaller(encodeNanos -> {
+                                    trace.add(Stage.MARSHAL, encodeNanos);
+                                    log.info("Answered monthly status of {} CHWs [{}]", performed.response().size(), trace);
+                                }))
+                        )
+                )
+        );
+    }
+
+    /**
+     * Serves a monthly status request from the {@link ResponseCache} when it can. A body seen before is looked up
+     * by its digest without being parsed; otherwise the request is parsed and looked up by its normalized key.
+     * Misses are checked as usual and their encoded response cached. Responses carry an ETag, and a request whose
+     * If-None-Match matches it is answered with 304 Not Modified and no body. Requests that cannot be normalized,
+     * or that accept none of the formats, take the uncached path and fail there as before.
+     */
+    private Route cachedMonthlyStatus(RequestTrace trace, long unmarshalStart) {
+        return toStrictEntity(strictEntityTimeout, () ->
+                extractRequest(request -> {
+                    Optional<EligibilityCodec.Format> format = EligibilityCodec.Format.negotiate(request.getHeader(Accept.class));
+                    if (format.isEmpty()) {
+                        return decoded(trace, unmarshalStart, eligibleChwCheckRequest -> checkMonthlyStatus(eligibleChwCheckRequest, trace));
+                    }
+                    HttpEntity.Strict body = (HttpEntity.Strict) request.entity();
+                    String bodyDigest = ResponseCache.bodyDigest(body.getContentType(), body.getData());
+                    Optional<ResponseCache.CachedResponse> cached = responseCache.findRequestKey(bodyDigest)
+                            .flatMap(requestKey -> responseCache.find(requestKey, format.get()));
+                    if (cached.isPresent()) {
+                        ServiceMetrics.RESPONSE_CACHE_BODY_HITS.inc();
+                        return cachedResponse(request, cached.get(), format.get());
+                    }
+                    return decoded(trace, unmarshalStart, eligibleChwCheckRequest -> {
+                        YearMonth month;
+                        String requestKey;
+                        try {
+                            month = eligibleChwCheckRequest.getPeriod().toYearMonth();
+                            requestKey = ResponseCache.requestKey(month, ChwCohort.of(eligibleChwCheckRequest.getChws()));
+                        } catch (RuntimeException e) {
+                            // Missing or malformed period or CHWs: let the check report them as it always has
+                            return checkMonthlyStatus(eligibleChwCheckRequest, trace);
+                        }
+                        responseCache.putRequestKey(bodyDigest, requestKey);
+                        Optional<ResponseCache.CachedResponse> hit = responseCache.find(requestKey, format.get());
+                        if (hit.isPresent()) {
+                            ServiceMetrics.RESPONSE_CACHE_REQUEST_HITS.inc();
+                            return cachedResponse(request, hit.get(), format.get());
+                        }
+                        ServiceMetrics.RESPONSE_CACHE_MISSES.inc();
+                        return admitted(sizeOf(eligibleChwCheckRequest.getChws()), () ->
+                                onSuccess(checkChwStatus(eligibleChwCheckRequest, trace.traceId()), performed -> {
+                                    long marshalStart = System.nanoTime();
+                                    ByteString encoded = EligibilityCodec.encodeResults(format.get().factory(), performed.response());
+                                    trace.addSince(Stage.MARSHAL, marshalStart);
+                                    log.info("Answered monthly status of {} CHWs [{}]", performed.response().size(), trace);
+                                    return cachedResponse(request,
+                                            responseCache.put(requestKey, month, format.get(), encoded, performed.dataAsOf()),
+                                            format.get());
+                                })
+                        );
+                    });
+                })
+        );
+    }
+
+    /**
+     * Completes with an encoded response, or with 304 Not Modified if the client already has it.
+     */
+    private static Route cachedResponse(HttpRequest request, ResponseCache.CachedResponse response, EligibilityCodec.Format format) {
+        List<HttpHeader> headers = List.of(
+                RawHeader.create("ETag", response.etag()),
+                RawHeader.create(DATA_AS_OF_HEADER, response.dataAsOf().toString()));
+        if (matchesIfNoneMatch(request, response.etag())) {
+            ServiceMetrics.NOT_MODIFIED_RESPONSES.inc();
+            return complete(HttpResponse.create().withStatus(StatusCodes.NOT_MODIFIED).addHeaders(headers));
+        }
+        return complete(HttpResponse.create()
+                .withStatus(StatusCodes.OK)
+                .addHeaders(headers)
+                .withEntity(HttpEntities.create(format.contentType(), response.body())));
+    }
+
+    private static boolean matchesIfNoneMatch(HttpRequest request, String etag) {
+        return request.getHeader("If-None-Match")
+                .map(header -> Arrays.stream(header.value().split(","))
+                        .map(String::trim)
+                        .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                        .anyMatch(tag -> tag.equals("*") || tag.equals(etag)))
+                .orElse(false);
+    }
+
+    /**
+     * Defines the streaming route for checking the monthly status of very large lists of CHWs.
+     * <p>
+     * This route handles POST requests to the "/chw/monthly-status/stream" endpoint, with the period given in the
+     * "month" and "year" query parameters and validated before the response starts. The body may be up to
+     * {@code stream-max-size} bytes, well above the default request size limit. The body is a JSON array (or newline-delimited JSON objects) of CHW
+     * details, parsed incrementally and checked in bounded batches; results are written back as a chunked JSON
+     * array in request order as soon as each batch completes. Both are (de)serialized by the streaming
+     * {@link EligibilityCodec}. Backpressure keeps memory constant regardless of
+     * the size of the list. Each batch goes through the admission controller like a request of its size. A batch
+     * that is rejected or fails ends the array with a last element {@code {"Error": ..., "Retryable": ...}}, so
+     * the client can tell a stream ended by the service from a cut connection, whose array is not terminated.
+     * </p>
+     * @return The defined route.
+     */
+    public Route streamChwMonthlyStatusRoutes() {
+        return pathPrefix("chw", () ->
+                path(segment("monthly-status").slash("stream"), () ->
+                        post(() -> instrumented(ServiceMetrics.STREAM_LATENCY, ServiceMetrics.STREAM_SUCCEEDED, ServiceMetrics.STREAM_FAILED, () ->
+                                parameter("month", month ->
+                                        parameter("year", year -> {
+                                            Period period = new Period(month, year);
+                                            try {
+                                                period.toYearMonth();
+                                            } catch (RuntimeException e) {
+                                                return complete(StatusCodes.BAD_REQUEST, "Invalid period: " + e.getMessage());
+                                            }
+                                            return withSizeLimit(maxStreamBytes, () ->
+                                                    entityAsSourceOf(
+                                                            EligibilityCodec.CHW_UNMARSHALLER,
+                                                            jsonStreamingSupport,
+                                                            chws -> traced(traceId -> {
+                                                                // One element per batch, holding its results as comma-separated array elements.
+                                                                Source<ByteString, NotUsed> results = chws
+                                                                        .grouped(streamBatchSize)
+                                                                        .mapAsync(streamParallelism, batch -> whenAdmitted(batch.size(), () ->
+                                                                                checkChwStatus(new EligibleChwCheckRequest(period, batch), traceId)))
+                                                                        .map(performed -> EligibilityCodec.encodeResultElements(performed.response()))
+                                                                        .recover(new PFBuilder<Throwable, ByteString>()
+                                                                                .match(Throwable.class, e -> streamError(e, traceId))
+                                                                                .build());
+                                                                return completeOKWithSource(results, Marshaller.byteStringMarshaller(ContentTypes.APPLICATION_JSON), jsonStreamingSupport);
+                                                            })
+                                                    )
+                                            );
+                                        })
+                                )
+                        ))
+                )
+        );
+    }
+
+    /**
+     * Builds the element ending a streamed results array after a batch failed. The results already sent are valid;
+     * the CHWs after them were not checked.
+     */
+    private static ByteString streamError(Throwable failure, String traceId) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (cause instanceof AdmissionRejectedException) {
+            log.warn("Ended eligibility stream early: the service is at capacity [{}]", traceId);
+            return EligibilityCodec.encodeStreamError("The service is at capacity, retry the remaining CHWs later", true);
+        }
+        log.error("Ended eligibility stream early [{}]", traceId, cause);
+        return EligibilityCodec.encodeStreamError("Eligibility check failed: " + cause.getMessage(), false);
+    }
+
+    /**
+     * Defines the route for checking the status of CHWs in several months at once.
+     * <p>
+     * This route handles POST requests to the "/chw/multi-period-status" endpoint. It expects a JSON payload
+     * representing a MultiPeriodChwCheckRequest, with either a list of periods or a from/to range, and answers
+     * with the eligibility of each CHW per month, computed in a single pass over the service tables.
+     * </p>
+     * @return The defined route.
+     */
+    public Route checkChwMultiPeriodStatusRoutes() {
+        return pathPrefix("chw", () ->
+                path("multi-period-status", () ->
+                        post(() -> instrumented(ServiceMetrics.MULTI_PERIOD_LATENCY, ServiceMetrics.MULTI_PERIOD_SUCCEEDED, ServiceMetrics.MULTI_PERIOD_FAILED, () ->
                                 entity(
-                                        CustomJacksonSupport.customJacksonUnmarshaller(EligibleChwCheckRequest.class),
-                                        eligibleChwCheckRequest ->
-                                                onSuccess(checkChwStatus(eligibleChwCheckRequest), performed -> {
-                                                    return complete(StatusCodes.OK, performed.response(), Jackson.marshaller());
+                                        CustomJacksonSupport.customJacksonUnmarshaller(MultiPeriodChwCheckRequest.class),
+                                        multiPeriodChwCheckRequest -> {
+                                            int months;
+                                            try {
+                                                months = multiPeriodChwCheckRequest.resolveMonths(maxMultiPeriodMonths).size();
+                                            } catch (IllegalArgumentException | DateTimeException e) {
+                                                return complete(StatusCodes.BAD_REQUEST, e.getMessage());
+                                            }
+                                            return admitted(sizeOf(multiPeriodChwCheckRequest.getChws()) * months, () ->
+                                                    traced(traceId ->
+                                                            onSuccess(checkChwMultiPeriodStatus(multiPeriodChwCheckRequest, traceId), performed ->
+                                                                    complete(StatusCodes.OK, performed.response(), CustomJacksonSupport.customJacksonMarshaller())
+                                                            )
+                                                    )
+                                            );
+                                        }
+                                )
+                        ))
+                )
+        );
+    }
+
+    /**
+     * Defines the routes reporting internal statistics of the service.
+     * <p>
+     * GET "/stats/pool" returns the current usage of the database connection pool, so saturation can be
+     * spotted before callers start timing out. GET "/stats/cache" returns the hit, miss and eviction counters of
+     * the eligibility cache.
+     * </p>
+     * @return The defined route.
+     */
+    public Route statsRoutes() {
+        return pathPrefix("stats", () -> concat(
+                path("pool", () ->
+                        get(() ->
+                                complete(StatusCodes.OK, connectionFactory.getPoolStats(), CustomJacksonSupport.customJacksonMarshaller())
+                        )
+                ),
+                path("cache", () ->
+                        get(() -> eligibilityCache == null
+                                ? complete(StatusCodes.NOT_FOUND, "Eligibility cache is disabled")
+                                : complete(StatusCodes.OK, eligibilityCache.getStats(), CustomJacksonSupport.customJacksonMarshaller())
+                        )
+                )
+        ));
+    }
+
+    /**
+     * Defines the route invalidating the eligibility cache.
+     * <p>
+     * DELETE "/cache" drops every cached verdict and response and every month of the active provider index, or only
+     * those of one period when the "month" and "year" query parameters are given, e.g. after late data was loaded
+     * for a closed month. An invalid period, or only one of the two parameters, is answered with 400. In cluster
+     * mode the invalidation is applied on this node before answering and on the other nodes shortly after.
+     * </p>
+     * @return The defined route.
+     */
+    public Route cacheRoutes() {
+        return path("cache", () ->
+                delete(() ->
+                        parameterOptional("month", month ->
+                                parameterOptional("year", year -> {
+                                    if (!cacheInvalidation.hasCaches()) {
+                                        return complete(StatusCodes.NOT_FOUND, "Eligibility cache is disabled");
+                                    }
+                                    if (month.isPresent() != year.isPresent()) {
+                                        return complete(StatusCodes.BAD_REQUEST, "Give both month and year, or neither to invalidate everything");
+                                    }
+                                    if (month.isPresent()) {
+                                        YearMonth invalidated;
+                                        try {
+                                            invalidated = new Period(month.get(), year.get()).toYearMonth();
+                                        } catch (RuntimeException e) {
+                                            return complete(StatusCodes.BAD_REQUEST, "Invalid period: " + e.getMessage());
+                                        }
+                                        cacheInvalidation.invalidateMonth(invalidated);
+                                    } else {
+                                        cacheInvalidation.invalidateAll();
+                                    }
+                                    return complete(StatusCodes.NO_CONTENT);
+                                })
+                        )
+                )
+        );
+    }
+
+    /**
+     * Defines the routes of the cohort subscriptions, which replace re-polling "/chw/monthly-status" for CHWs that
+     * become eligible late in the month.
+     * <p>
+     * POST "/chw/subscriptions" takes the same JSON payload as "/chw/monthly-status", and answers 201 Created with
+     * the ID of the subscription and the current eligibility of every CHW. GET "/chw/subscriptions/{id}/events" is
+     * a Server-Sent Events stream with an "eligible" event per CHW that becomes eligible afterwards; a client
+     * reconnecting with the Last-Event-ID header receives the events it missed. DELETE "/chw/subscriptions/{id}"
+     * closes the subscription, and GET "/chw/subscriptions/stats" counts the open subscriptions.
+     * </p>
+     * @return The defined route.
+     */
+    public Route subscriptionRoutes() {
+        if (subscriptions == null) {
+            return reject();
+        }
+        return pathPrefix("chw", () ->
+                pathPrefix("subscriptions", () -> concat(
+                        pathEnd(() ->
+                                post(() ->
+                                        entity(
+                                                CustomJacksonSupport.customJacksonUnmarshaller(EligibleChwCheckRequest.class),
+                                                request -> {
+                                                    if (request.getPeriod() == null || request.getChws() == null || request.getChws().isEmpty()) {
+                                                        return complete(StatusCodes.BAD_REQUEST, "A period and at least one CHW are required");
+                                                    }
+                                                    try {
+                                                        request.getPeriod().toYearMonth();
+                                                    } catch (RuntimeException e) {
+                                                        return complete(StatusCodes.BAD_REQUEST, "Invalid period: " + e.getMessage());
+                                                    }
+                                                    return onComplete(subscribe(request), created -> {
+                                                        if (created.isSuccess()) {
+                                                            return complete(StatusCodes.CREATED, created.get(), CustomJacksonSupport.customJacksonMarshaller());
+                                                        }
+                                                        Throwable failure = created.failed().get();
+                                                        if (failure instanceof CompletionException && failure.getCause() != null) {
+                                                            failure = failure.getCause();
+                                                        }
+                                                        if (failure instanceof IllegalStateException) {
+                                                            return complete(StatusCodes.SERVICE_UNAVAILABLE, failure.getMessage());
+                                                        }
+                                                        return failWith(failure);
+                                                    });
+                                                }
+                                        )
+                                )
+                        ),
+                        path("stats", () ->
+                                get(() -> complete(StatusCodes.OK, subscriptions.getStats(), CustomJacksonSupport.customJacksonMarshaller()))
+                        ),
+                        path(segment(), subscriptionId ->
+                                delete(() -> subscriptions.unsubscribe(subscriptionId)
+                                        ? complete(StatusCodes.NO_CONTENT)
+                                        : complete(StatusCodes.NOT_FOUND, "Unknown subscription " + subscriptionId)
+                                )
+                        ),
+                        path(segment().slash("events"), subscriptionId ->
+                                get(() ->
+                                        optionalHeaderValueByName("Last-Event-ID", lastEventId -> {
+                                            Optional<EligibilitySubscriptions.Subscription> subscription = subscriptions.find(subscriptionId);
+                                            if (subscription.isEmpty()) {
+                                                return complete(StatusCodes.NOT_FOUND, "Unknown subscription " + subscriptionId);
+                                            }
+                                            long after;
+                                            try {
+                                                after = Long.parseLong(lastEventId.orElse("0").trim());
+                                            } catch (NumberFormatException e) {
+                                                return complete(StatusCodes.BAD_REQUEST, "Last-Event-ID must be the ID of an event");
+                                            }
+                                            Source<ServerSentEvent, NotUsed> events = subscription.get()
+                                                    .events(after, Materializer.matFromSystem(system))
+                                                    .map(UcsChwStatusCheckRoutes::toServerSentEvent)
+                                                    .keepAlive(subscriptionKeepAlive, ServerSentEvent::heartbeat);
+                                            return completeOK(events, EventStreamMarshalling.toEventStream());
+                                        })
+                                )
+                        )
+                ))
+        );
+    }
+
+    /**
+     * Defines the routes of the in-memory active provider index.
+     * <p>
+     * GET "/index/stats" returns the months held in memory and the memory the index uses. GET
+     * "/index/active-providers?from=yyyy-MM&amp;to=yyyy-MM&amp;match=any|all" returns the providers active in any
+     * month of the range (union) or in every month of it (intersection), answered from the month bitmaps.
+     * </p>
+     * @return The defined route.
+     */
+    public Route indexRoutes() {
+        return pathPrefix("index", () -> concat(
+                path("stats", () ->
+                        get(() -> activeProviderIndex == null
+                                ? complete(StatusCodes.NOT_FOUND, "Active provider index is disabled")
+                                : complete(StatusCodes.OK, activeProviderIndex.getStats(), CustomJacksonSupport.customJacksonMarshaller())
+                        )
+                ),
+                path("active-providers", () ->
+                        get(() ->
+                                parameter("from", from ->
+                                        parameterOptional("to", to ->
+                                                parameterOptional("match", match -> {
+                                                    if (activeProviderIndex == null) {
+                                                        return complete(StatusCodes.NOT_FOUND, "Active provider index is disabled");
+                                                    }
+                                                    YearMonth first;
+                                                    YearMonth last;
+                                                    try {
+                                                        first = YearMonth.parse(from);
+                                                        last = YearMonth.parse(to.orElse(from));
+                                                    } catch (DateTimeException e) {
+                                                        return complete(StatusCodes.BAD_REQUEST, "from and to must be yyyy-MM");
+                                                    }
+                                                    long span = ChronoUnit.MONTHS.between(first, last);
+                                                    if (span < 0 || span >= maxMultiPeriodMonths) {
+                                                        return complete(StatusCodes.BAD_REQUEST,
+                                                                "The range must span 1 to " + maxMultiPeriodMonths + " months");
+                                                    }
+                                                    boolean all = "all".equals(match.orElse("any"));
+                                                    return onSuccess(CompletableFuture.supplyAsync(
+                                                            () -> activeProviderIndex.findActiveProviders(first, last, all), blockingExecutor),
+                                                            providerIds -> providerIds.isPresent()
+                                                                    ? complete(StatusCodes.OK,
+                                                                            new ActiveProviders(first.toString(), last.toString(), all ? "all" : "any",
+                                                                                    providerIds.get().size(), providerIds.get()),
+                                                                            CustomJacksonSupport.customJacksonMarshaller())
+                                                                    : complete(StatusCodes.SERVICE_UNAVAILABLE, "A month of the range is not indexed yet")
+                                                    );
                                                 })
+                                        )
                                 )
                         )
                 )
+        ));
+    }
+
+    /**
+     * The providers active over a range of months.
+     *
+     * @param from        The first month of the range.
+     * @param to          The last month of the range.
+     * @param match       "any" for activity in any month of the range, "all" for activity in every month.
+     * @param count       The number of matching providers.
+     * @param providerIds The OpenMRS provider IDs of the matching providers.
+     */
+    public record ActiveProviders(String from, String to, String match, int count, List<String> providerIds) {
+    }
+
+    /**
+     * Defines the health probes of the service.
+     * <p>
+     * GET "/health/live" answers 200 as long as the server is up. GET "/health/ready" answers 200 once the
+     * warm-up has finished and 503 while the service is warming up or shutting down, so the load balancer only
+     * routes traffic to warm instances.
+     * </p>
+     * @return The defined route.
+     */
+    public Route healthRoutes() {
+        return pathPrefix("health", () -> concat(
+                path("live", () ->
+                        get(() -> complete(StatusCodes.OK, "live"))
+                ),
+                path("ready", () ->
+                        get(() -> readiness.isReady()
+                                ? complete(StatusCodes.OK, readiness.state())
+                                : complete(StatusCodes.SERVICE_UNAVAILABLE, readiness.state())
+                        )
+                )
+        ));
+    }
+
+    /**
+     * Defines the route exposing the service metrics.
+     * <p>
+     * GET "/metrics" returns request latencies, CHWs per request, JDBC timings, rows fetched, in-flight requests,
+     * registry mailbox depth, ask timeouts, connection pool, cache and JVM metrics in the Prometheus text format.
+     * </p>
+     * @return The defined route.
+     */
+    public Route metricsRoutes() {
+        return path("metrics", () ->
+                get(() ->
+                        complete(HttpResponse.create().withEntity(HttpEntities.create(ContentTypes.TEXT_PLAIN_UTF8, ServiceMetrics.scrape())))
+                )
+        );
+    }
+
+    /**
+     * Defines the routes of the bulk eligibility jobs, meant for national payroll runs too large for a synchronous
+     * request.
+     * <p>
+     * POST "/chw/monthly-status/jobs" accepts the same payload as "/chw/monthly-status" and answers 202 Accepted
+     * with the job status straight away; the job runs in the background. GET "/chw/monthly-status/jobs/{id}"
+     * returns its progress, GET "/chw/monthly-status/jobs/{id}/results?offset=&amp;limit=" a page of the results
+     * stored so far, and GET "/chw/monthly-status/jobs/{id}/results.ndjson" streams every result of a completed
+     * job as newline-delimited JSON.
+     * </p>
+     * @return The defined route.
+     */
+    public Route jobsRoutes() {
+        if (jobRunner == null) {
+            return reject();
+        }
+        return pathPrefix("chw", () ->
+                pathPrefix(segment("monthly-status").slash("jobs"), () -> concat(
+                        pathEnd(() ->
+                                post(() ->
+                                        withSizeLimit(maxJobSubmissionBytes, () ->
+                                                entity(
+                                                        CustomJacksonSupport.customJacksonUnmarshaller(EligibleChwCheckRequest.class),
+                                                        request -> {
+                                                            if (request.getPeriod() == null || request.getChws() == null || request.getChws().isEmpty()) {
+                                                                return complete(StatusCodes.BAD_REQUEST, "A period and at least one CHW are required");
+                                                            }
+                                                            try {
+                                                                request.getPeriod().toYearMonth();
+                                                            } catch (RuntimeException e) {
+                                                                return complete(StatusCodes.BAD_REQUEST, "Invalid period: " + e.getMessage());
+                                                            }
+                                                            return onSuccess(submitJob(request), status ->
+                                                                    complete(StatusCodes.ACCEPTED, status, CustomJacksonSupport.customJacksonMarshaller())
+                                                            );
+                                                        }
+                                                )
+                                        )
+                                )
+                        ),
+                        path(segment(), jobId ->
+                                get(() ->
+                                        onSuccess(readJobStore(() -> jobStore.find(jobId)), status -> status.isPresent()
+                                                ? complete(StatusCodes.OK, status.get(), CustomJacksonSupport.customJacksonMarshaller())
+                                                : complete(StatusCodes.NOT_FOUND, "Unknown job " + jobId)
+                                        )
+                                )
+                        ),
+                        path(segment().slash("results"), jobId ->
+                                get(() ->
+                                        parameterOptional(StringUnmarshallers.INTEGER, "offset", offset ->
+                                                parameterOptional(StringUnmarshallers.INTEGER, "limit", limit -> {
+                                                    int from = Math.max(0, offset.orElse(0));
+                                                    int size = Math.max(1, Math.min(limit.orElse(maxJobPageSize), maxJobPageSize));
+                                                    return onSuccess(readJobStore(() -> {
+                                                        Optional<JobStatus> status = jobStore.find(jobId);
+                                                        return status.map(found -> {
+                                                            try {
+                                                                return new ResultsPage(jobId, found.state(), from, size, found.processedChws(),
+                                                                        jobStore.readResults(found, from, size));
+                                                            } catch (IOException e) {
+                                                                throw new UncheckedIOException(e);
+                                                            }
+                                                        });
+                                                    }), page -> page.isPresent()
+                                                            ? complete(StatusCodes.OK, page.get(), CustomJacksonSupport.customJacksonMarshaller())
+                                                            : complete(StatusCodes.NOT_FOUND, "Unknown job " + jobId)
+                                                    );
+                                                })
+                                        )
+                                )
+                        ),
+                        path(segment().slash("results.ndjson"), jobId ->
+                                get(() ->
+                                        onSuccess(readJobStore(() -> jobStore.find(jobId)), status -> {
+                                            if (status.isEmpty()) {
+                                                return complete(StatusCodes.NOT_FOUND, "Unknown job " + jobId);
+                                            }
+                                            if (status.get().state() != JobStatus.State.COMPLETED) {
+                                                return complete(StatusCodes.CONFLICT, "Job " + jobId + " is " + status.get().state());
+                                            }
+                                            return complete(HttpResponse.create().withEntity(HttpEntities.create(
+                                                    MediaTypes.applicationWithFixedCharset("x-ndjson", HttpCharsets.UTF_8).toContentType(),
+                                                    FileIO.fromPath(jobStore.resultsFile(jobId)))));
+                                        })
+                                )
+                        )
+                ))
         );
     }
 
@@ -1,15 +1,48 @@
 package tz.go.moh;
 
+import akka.Done;
 import akka.NotUsed;
+import akka.actor.CoordinatedShutdown;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
 import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.pubsub.Topic;
+import akka.cluster.typed.ClusterSingleton;
+import akka.cluster.typed.SingletonActor;
 import akka.http.javadsl.Http;
 import akka.http.javadsl.ServerBinding;
 import akka.http.javadsl.server.Route;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import scala.concurrent.ExecutionContextExecutor;
+import tz.go.moh.actors.CheckChwEligibilityStatusProcessor;
+import tz.go.moh.admission.AdmissionController;
+import tz.go.moh.cache.CacheInvalidation;
+import tz.go.moh.cache.EligibilityCache;
+import tz.go.moh.cache.ResponseCache;
+import tz.go.moh.db.MonthlyActivityRollup;
+import tz.go.moh.db.ProviderActivityRepository;
+import tz.go.moh.index.ActiveProviderIndex;
+import tz.go.moh.jobs.EligibilityJobRunner;
+import tz.go.moh.jobs.JobStore;
+import tz.go.moh.metrics.EligibilityCacheCollector;
+import tz.go.moh.rules.EligibilityRules;
+import tz.go.moh.subscriptions.ActivityNotificationListener;
+import tz.go.moh.subscriptions.EligibilitySubscriptions;
+import tz.go.moh.util.CustomJacksonSupport;
+import tz.go.moh.util.DatabaseConnectionFactory;
+import tz.go.moh.warmup.Readiness;
+import tz.go.moh.warmup.ServiceWarmUp;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 
@@ -17,6 +50,11 @@ import java.util.concurrent.CompletionStage;
  * Main class for the UCS CHW Status Check Service application.
  */
 public class UcsChwStatusCheckServiceApp {
+    /**
+     * Config path of the dispatcher the chunk queries of large requests are run on.
+     */
+    static final String CHUNK_QUERY_DISPATCHER = "chw-status-check-service.chunk-query-dispatcher";
+
     /**
      * Starts the HTTP server.
      *
@@ -25,7 +63,11 @@ public class UcsChwStatusCheckServiceApp {
      */
     static void startHttpServer(Route route, ActorSystem<?> system) {
         CompletionStage<ServerBinding> futureBinding =
-            Http.get(system).newServerAt(system.settings().config().getString("chw-status-check-service.service-host"), system.settings().config().getInt("chw-status-check-service.service-port")).bind(route);
+            Http.get(system).newServerAt(system.settings().config().getString("chw-status-check-service.service-host"), system.settings().config().getInt("chw-status-check-service.service-port"))
+                // Register the binary formats so their Content-Type and Accept headers are parsed as binary media types
+                .adaptSettings(settings -> settings.withParserSettings(settings.getParserSettings()
+                    .withCustomMediaTypes(CustomJacksonSupport.APPLICATION_CBOR, CustomJacksonSupport.APPLICATION_SMILE)))
+                .bind(route);
 
         futureBinding.whenComplete((binding, exception) -> {
             if (binding != null) {
@@ -40,20 +82,297 @@ public class UcsChwStatusCheckServiceApp {
         });
     }
 
+    /**
+     * Creates the monthly activity rollup and schedules its background refresh, if the rollup is enabled.
+     *
+     * @param system            The actor system.
+     * @param connectionFactory The shared database connection pool.
+     * @return The rollup, or null if it is disabled.
+     * @throws SQLException If the rollup tables could not be created.
+     */
+    static MonthlyActivityRollup startActivityRollup(ActorSystem<?> system, DatabaseConnectionFactory connectionFactory) throws SQLException {
+        Config rollupConfig = system.settings().config().getConfig("chw-status-check-service.rollup");
+        if (!rollupConfig.getBoolean("enabled")) {
+            return null;
+        }
+
+        MonthlyActivityRollup activityRollup = new MonthlyActivityRollup(connectionFactory, rollupConfig.getInt("reopen-months"));
+        activityRollup.createSchema();
+        if ("cluster".equals(system.settings().config().getString("akka.actor.provider"))) {
+            // Every node reads the rollup, but a single node of the cluster refreshes it.
+            ClusterSingleton.get(system).init(
+                SingletonActor.of(rollupRefresher(activityRollup, rollupConfig.getDuration("initial-delay"),
+                        rollupConfig.getDuration("refresh-interval")), "ActivityRollupRefresh")
+                    .withProps(DispatcherSelector.fromConfig(UcsChwStatusCheckRegistry.BLOCKING_IO_DISPATCHER)));
+            return activityRollup;
+        }
+        system.scheduler().scheduleWithFixedDelay(
+            rollupConfig.getDuration("initial-delay"),
+            rollupConfig.getDuration("refresh-interval"),
+            () -> refreshRollup(system, activityRollup),
+            system.dispatchers().lookup(DispatcherSelector.fromConfig(UcsChwStatusCheckRegistry.BLOCKING_IO_DISPATCHER)));
+        return activityRollup;
+    }
+
+    /**
+     * Creates the cluster singleton refreshing the rollup, meant to run on the blocking I/O dispatcher. The next
+     * refresh is only scheduled once the previous one has finished.
+     */
+    private static Behavior<RefreshRollup> rollupRefresher(MonthlyActivityRollup activityRollup, Duration initialDelay, Duration interval) {
+        return Behaviors.setup(context -> Behaviors.withTimers(timers -> {
+            timers.startSingleTimer(RefreshRollup.INSTANCE, initialDelay);
+            return Behaviors.receiveMessage(refresh -> {
+                refreshRollup(context.getSystem(), activityRollup);
+                timers.startSingleTimer(RefreshRollup.INSTANCE, interval);
+                return Behaviors.same();
+            });
+        }));
+    }
+
+    private static void refreshRollup(ActorSystem<?> system, MonthlyActivityRollup activityRollup) {
+        try {
+            activityRollup.refresh();
+        } catch (SQLException e) {
+            system.log().error("Failed to refresh the monthly activity rollup", e);
+        }
+    }
+
+    private enum RefreshRollup {
+        INSTANCE
+    }
+
+    /**
+     * Creates the in-memory active provider index and schedules its background refresh, if the index is enabled.
+     * The intern table is loaded from the last snapshot straight away; the resident months are loaded or built by
+     * the first refresh.
+     *
+     * @param system            The actor system.
+     * @param connectionFactory The shared database connection pool.
+     * @return The index, or null if it is disabled.
+     * @throws IOException If the snapshot directory could not be created or read.
+     */
+    static ActiveProviderIndex startActiveProviderIndex(ActorSystem<?> system, DatabaseConnectionFactory connectionFactory) throws IOException {
+        Config indexConfig = system.settings().config().getConfig("chw-status-check-service.index");
+        if (!indexConfig.getBoolean("enabled")) {
+            return null;
+        }
+
+        ActiveProviderIndex activeProviderIndex = new ActiveProviderIndex(indexConfig, new ProviderActivityRepository(connectionFactory));
+        activeProviderIndex.loadSnapshot();
+        system.scheduler().scheduleWithFixedDelay(
+            Duration.ZERO,
+            indexConfig.getDuration("refresh-interval"),
+            activeProviderIndex::refresh,
+            system.dispatchers().lookup(DispatcherSelector.fromConfig(UcsChwStatusCheckRegistry.BLOCKING_IO_DISPATCHER)));
+        return activeProviderIndex;
+    }
+
+    /**
+     * Warns when the threads that may each hold a primary connection at once outnumber the connections of the pool.
+     * Checks then wait for a connection until the pool's connection-timeout and fail.
+     *
+     * @param system The actor system.
+     */
+    static void checkPoolBudget(ActorSystem<?> system) {
+        Config config = system.settings().config().getConfig("chw-status-check-service");
+        int blockingThreads = config.getInt("blocking-io-dispatcher.thread-pool-executor.fixed-pool-size");
+        int chunkThreads = config.getInt("chunk-query-dispatcher.thread-pool-executor.fixed-pool-size");
+        int jobThreads = config.getBoolean("jobs.enabled") ? config.getInt("jobs-dispatcher.thread-pool-executor.fixed-pool-size") : 0;
+        int poolSize = config.getInt("database.pool.maximum-pool-size");
+        // One more for the thread capturing slow query plans
+        int connectionUsers = blockingThreads + chunkThreads + jobThreads + 1;
+        if (connectionUsers > poolSize) {
+            system.log().warn("{} blocking I/O, {} chunk query and {} job threads and the slow query thread may hold {} connections "
+                    + "at once, but the pool has {}; raise DB_POOL_MAX_SIZE or lower BLOCKING_IO_THREADS and CHUNK_QUERY_THREADS",
+                blockingThreads, chunkThreads, jobThreads, connectionUsers, poolSize);
+        }
+    }
+
+    /**
+     * Creates the cohort subscriptions and schedules their re-checks, if subscriptions are enabled. When activity
+     * notifications are enabled, the listener is started too, after installing the triggers if configured to.
+     *
+     * @param system            The actor system.
+     * @param connectionFactory The shared database connection pool.
+     * @param eligibilityRules  The rules deciding eligibility from the activity of a CHW.
+     * @param eligibilityCache  The cache of eligibility verdicts, or null if caching is disabled.
+     * @return The subscriptions, or null if they are disabled.
+     * @throws SQLException If the notification triggers could not be installed.
+     */
+    static EligibilitySubscriptions startSubscriptions(ActorSystem<?> system, DatabaseConnectionFactory connectionFactory,
+                                                       EligibilityRules eligibilityRules, EligibilityCache eligibilityCache) throws SQLException {
+        Config subscriptionsConfig = system.settings().config().getConfig("chw-status-check-service.subscriptions");
+        if (!subscriptionsConfig.getBoolean("enabled")) {
+            return null;
+        }
+
+        EligibilitySubscriptions subscriptions = new EligibilitySubscriptions(subscriptionsConfig,
+            new ProviderActivityRepository(connectionFactory, true), eligibilityRules, eligibilityCache);
+        ExecutionContextExecutor blockingDispatcher =
+            system.dispatchers().lookup(DispatcherSelector.fromConfig(UcsChwStatusCheckRegistry.BLOCKING_IO_DISPATCHER));
+        if (subscriptionsConfig.getBoolean("notifications.enabled")) {
+            ActivityNotificationListener listener = new ActivityNotificationListener(connectionFactory, subscriptions);
+            if (subscriptionsConfig.getBoolean("notifications.install-triggers")) {
+                listener.installTriggers();
+            }
+            system.scheduler().scheduleWithFixedDelay(Duration.ZERO, subscriptionsConfig.getDuration("notifications.poll-interval"),
+                listener::poll, blockingDispatcher);
+            system.getWhenTerminated().thenRun(listener::close);
+        }
+        system.scheduler().scheduleWithFixedDelay(subscriptionsConfig.getDuration("batch-interval"), subscriptionsConfig.getDuration("batch-interval"),
+            subscriptions::evaluateChanges, blockingDispatcher);
+        Duration resyncInterval = subscriptionsConfig.getDuration("resync-interval");
+        system.scheduler().scheduleWithFixedDelay(resyncInterval, resyncInterval, subscriptions::requestResync, blockingDispatcher);
+        return subscriptions;
+    }
+
+    /**
+     * Schedules the periodic health checks of the read replicas, if any are configured. The first check runs
+     * straight away; until a replica passes one, its queries go to the primary.
+     *
+     * @param system            The actor system.
+     * @param connectionFactory The shared database connection pools.
+     */
+    static void startReplicaHealthChecks(ActorSystem<?> system, DatabaseConnectionFactory connectionFactory) {
+        if (!connectionFactory.hasReplicas()) {
+            return;
+        }
+        system.scheduler().scheduleWithFixedDelay(
+            Duration.ZERO,
+            system.settings().config().getDuration("chw-status-check-service.database.replicas.health-check-interval"),
+            connectionFactory::checkReplicas,
+            system.dispatchers().lookup(DispatcherSelector.fromConfig(UcsChwStatusCheckRegistry.BLOCKING_IO_DISPATCHER)));
+    }
+
+    /**
+     * Runs the warm-up in the background and reports the service ready once it is done, or straight away if the
+     * warm-up is disabled. The service reports not ready again as soon as it starts shutting down.
+     *
+     * @param system    The actor system.
+     * @param warmUp    The warm-up to run.
+     * @param readiness The readiness reported on /health/ready.
+     */
+    static void startWarmUp(ActorSystem<?> system, ServiceWarmUp warmUp, Readiness readiness) {
+        CoordinatedShutdown.get(system).addTask(CoordinatedShutdown.PhaseBeforeServiceUnbind(), "mark-not-ready", () -> {
+            readiness.markDraining();
+            return CompletableFuture.completedFuture(Done.getInstance());
+        });
+        if (!system.settings().config().getBoolean("chw-status-check-service.warm-up.enabled")) {
+            readiness.markReady();
+            return;
+        }
+        CompletableFuture.runAsync(warmUp::run,
+                system.dispatchers().lookup(DispatcherSelector.fromConfig(UcsChwStatusCheckRegistry.BLOCKING_IO_DISPATCHER)))
+            .whenComplete((done, failure) -> {
+                if (failure != null) {
+                    system.log().warn("Warm-up failed, serving cold", failure);
+                }
+                readiness.markReady();
+            });
+    }
+
+    /**
+     * Materializes the monthly activity rollup for a range of historical months, then exits.
+     *
+     * @param args The command line arguments: {@code backfill <from yyyy-MM> <to yyyy-MM>}.
+     * @throws SQLException If a database access error occurs.
+     */
+    static void backfillActivityRollup(String[] args) throws SQLException {
+        if (args.length != 3) {
+            throw new IllegalArgumentException("Usage: backfill <from yyyy-MM> <to yyyy-MM>");
+        }
+
+        Config config = ConfigFactory.load();
+        try (DatabaseConnectionFactory connectionFactory =
+                 new DatabaseConnectionFactory(config.getConfig("chw-status-check-service.database"))) {
+            MonthlyActivityRollup activityRollup =
+                new MonthlyActivityRollup(connectionFactory, config.getInt("chw-status-check-service.rollup.reopen-months"));
+            activityRollup.createSchema();
+            activityRollup.backfill(YearMonth.parse(args[1]), YearMonth.parse(args[2]));
+        }
+    }
+
     /**
      * Main method to start the application.
+     * <p>
+     * Passing {@code backfill <from yyyy-MM> <to yyyy-MM>} materializes the monthly activity rollup for those
+     * months instead of starting the server.
+     * </p>
      *
      * @param args Command line arguments.
      * @throws Exception If an error occurs during startup.
      */
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "backfill".equals(args[0])) {
+            backfillActivityRollup(args);
+            return;
+        }
+
         //#server-bootstrapping
         Behavior<NotUsed> rootBehavior = Behaviors.setup(context -> {
-            ActorRef<UcsChwStatusCheckRegistry.Command> userRegistryActor =
-                context.spawn(UcsChwStatusCheckRegistry.create(), "UcsChwStatusCheck");
+            // The pool is created once and shared by every request; it is closed when the system terminates.
+            DatabaseConnectionFactory connectionFactory =
+                new DatabaseConnectionFactory(context.getSystem().settings().config().getConfig("chw-status-check-service.database"));
+            context.getSystem().getWhenTerminated().thenRun(connectionFactory::close);
+            checkPoolBudget(context.getSystem());
+            startReplicaHealthChecks(context.getSystem(), connectionFactory);
+            MonthlyActivityRollup activityRollup = startActivityRollup(context.getSystem(), connectionFactory);
+            Config cacheConfig = context.getSystem().settings().config().getConfig("chw-status-check-service.cache");
+            EligibilityCache eligibilityCache = cacheConfig.getBoolean("enabled") ? new EligibilityCache(cacheConfig) : null;
+            if (eligibilityCache != null) {
+                new EligibilityCacheCollector(eligibilityCache).register();
+            }
+            Config responseCacheConfig = context.getSystem().settings().config().getConfig("chw-status-check-service.response-cache");
+            ResponseCache responseCache = responseCacheConfig.getBoolean("enabled") ? new ResponseCache(responseCacheConfig) : null;
+            Config chunkingConfig = context.getSystem().settings().config().getConfig("chw-status-check-service.chunking");
+            ActiveProviderIndex activeProviderIndex = startActiveProviderIndex(context.getSystem(), connectionFactory);
+            EligibilityRules eligibilityRules =
+                new EligibilityRules(context.getSystem().settings().config().getConfig("chw-status-check-service.eligibility"));
+            CheckChwEligibilityStatusProcessor processor = new CheckChwEligibilityStatusProcessor(
+                connectionFactory, activityRollup, eligibilityCache, activeProviderIndex, eligibilityRules,
+                context.getSystem().dispatchers().lookup(DispatcherSelector.fromConfig(CHUNK_QUERY_DISPATCHER)),
+                chunkingConfig.getInt("chunk-size"),
+                chunkingConfig.getInt("parallelism"));
+
+            // Run with -Dconfig.resource=cluster.conf to shard the registry by period across several nodes.
+            boolean clustered = "cluster".equals(context.getSystem().settings().config().getString("akka.actor.provider"));
+            ActorRef<UcsChwStatusCheckRegistry.Command> userRegistryActor = clustered
+                ? context.spawn(ShardedChwStatusCheckRegistry.create(processor), "UcsChwStatusCheck")
+                : context.spawn(UcsChwStatusCheckRegistry.create(processor), "UcsChwStatusCheck");
+
+            Config admissionConfig = context.getSystem().settings().config().getConfig("chw-status-check-service.admission");
+            AdmissionController admissionController = admissionConfig.getBoolean("enabled") ? new AdmissionController(admissionConfig) : null;
+
+            Config jobsConfig = context.getSystem().settings().config().getConfig("chw-status-check-service.jobs");
+            JobStore jobStore = null;
+            ActorRef<EligibilityJobRunner.Command> jobRunner = null;
+            if (jobsConfig.getBoolean("enabled")) {
+                jobStore = new JobStore(Path.of(jobsConfig.getString("directory")));
+                jobRunner = context.spawn(EligibilityJobRunner.create(processor, jobStore), "EligibilityJobRunner");
+            }
+
+            EligibilitySubscriptions subscriptions =
+                startSubscriptions(context.getSystem(), connectionFactory, eligibilityRules, eligibilityCache);
+
+            // In cluster mode invalidations are broadcast, since every node caches every month it has served.
+            ActorRef<Topic.Command<CacheInvalidation.Invalidate>> invalidationTopic = clustered
+                ? context.spawn(Topic.create(CacheInvalidation.Invalidate.class, CacheInvalidation.TOPIC_NAME), "CacheInvalidationTopic")
+                : null;
+            CacheInvalidation cacheInvalidation =
+                new CacheInvalidation(context.getSystem(), eligibilityCache, responseCache, activeProviderIndex, invalidationTopic);
+            if (invalidationTopic != null) {
+                invalidationTopic.tell(Topic.subscribe(context.spawn(CacheInvalidation.subscriber(cacheInvalidation), "CacheInvalidation")));
+            }
 
-            UcsChwStatusCheckRoutes ucsChwStatusCheckRoutes = new UcsChwStatusCheckRoutes(context.getSystem(), userRegistryActor);
-            startHttpServer(ucsChwStatusCheckRoutes.checkChwMonthlyStatusRoutes(), context.getSystem());
+            Readiness readiness = new Readiness();
+            UcsChwStatusCheckRoutes ucsChwStatusCheckRoutes =
+                new UcsChwStatusCheckRoutes(context.getSystem(), userRegistryActor, connectionFactory, eligibilityCache,
+                    responseCache, activeProviderIndex, cacheInvalidation, admissionController, jobRunner, jobStore,
+                    subscriptions, readiness);
+            startHttpServer(ucsChwStatusCheckRoutes.createRoutes(), context.getSystem());
+            startWarmUp(context.getSystem(), new ServiceWarmUp(
+                context.getSystem().settings().config().getConfig("chw-status-check-service.warm-up"),
+                connectionFactory, activityRollup, eligibilityCache, processor, readiness), readiness);
 
             return Behaviors.empty();
         });
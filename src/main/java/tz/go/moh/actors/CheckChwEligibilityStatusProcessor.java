@@ -1,16 +1,49 @@
 package tz.go.moh.actors;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tz.go.moh.cache.EligibilityCache;
+import tz.go.moh.db.MonthlyActivityRollup;
+import tz.go.moh.db.ProviderActivity;
+import tz.go.moh.db.ProviderActivityRepository;
+import tz.go.moh.domain.ActivityCounts;
+import tz.go.moh.domain.ChwCohort;
 import tz.go.moh.domain.ChwDetails;
 import tz.go.moh.domain.ChwEligibilityResults;
+import tz.go.moh.domain.ChwMultiPeriodEligibilityResults;
+import tz.go.moh.domain.EligibilityOutcome;
+import tz.go.moh.domain.EligibilityResultList;
 import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.domain.MonthlyEligibility;
+import tz.go.moh.domain.MultiPeriodChwCheckRequest;
+import tz.go.moh.domain.ProviderIndex;
+import tz.go.moh.index.ActiveProviderIndex;
+import tz.go.moh.metrics.ServiceMetrics;
+import tz.go.moh.rules.EligibilityRules;
+import tz.go.moh.tracing.RequestTrace;
+import tz.go.moh.tracing.Stage;
+import tz.go.moh.tracing.TraceContext;
 import tz.go.moh.util.DatabaseConnectionFactory;
 
-import java.sql.*;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.YearMonth;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
 
 /**
  * The {@code CheckChwEligibilityStatusProcessor} class is responsible for determining the eligibility status of
@@ -25,94 +58,416 @@ import java.util.stream.Collectors;
  *     <li>{@code hps_mobilization_services}</li>
  * </ul>
  * <p>
- * The class provides a method {@link #checkEligibility(EligibleChwCheckRequest, String, int, String, String, String)}
- * to perform the eligibility check.
+ * The class provides a method {@link #checkEligibility(EligibleChwCheckRequest)} to perform the eligibility check.
+ * Connections are borrowed from the shared {@link DatabaseConnectionFactory} pool. When the
+ * {@link MonthlyActivityRollup} is enabled, months it has materialized are answered from the rollup and the raw
+ * service tables are only queried for months it does not cover yet. Verdicts found in the {@link EligibilityCache}
+ * are not queried again. With presence-only rules, months held in the {@link ActiveProviderIndex} are answered
+ * from memory without any query. Whether a CHW is eligible is decided in memory by the {@link EligibilityRules}
+ * over the CHW's activity in the month.
+ * <p>
+ * Large lists of provider IDs are split into chunks of a configurable size which are queried concurrently on
+ * separate pooled connections, at most {@code parallelism} at a time per request.
+ * </p>
+ * <p>
+ * Checks may carry a deadline, after which the caller has given up waiting. Work that has not started by then is
+ * skipped, and statements still running are cancelled by the driver through their query timeout.
+ * </p>
+ * <p>
+ * Checks may also carry the {@link TraceContext} of their request. Its trace ID is put in the logging MDC of the
+ * threads working on the check, and the time spent queueing, acquiring connections, executing, fetching and
+ * assembling the results is appended to the log line of the check as {@code key=value} fields.
+ * </p>
  */
 public class CheckChwEligibilityStatusProcessor {
+    private final static Logger log = LoggerFactory.getLogger(CheckChwEligibilityStatusProcessor.class);
+    private final ProviderActivityRepository activityRepository;
+    private final MonthlyActivityRollup activityRollup;
+    private final EligibilityCache eligibilityCache;
+    private final ActiveProviderIndex activeProviderIndex;
+    private final EligibilityRules eligibilityRules;
+    private final Executor chunkExecutor;
+    private final int chunkSize;
+    private final int parallelism;
+
+    /**
+     * Constructor for CheckChwEligibilityStatusProcessor.
+     *
+     * @param connectionFactory The pooled connection factory used to query the HPS database.
+     * @param activityRollup    The monthly activity rollup, or null if the rollup is disabled.
+     * @param eligibilityCache  The cache of eligibility verdicts, or null if caching is disabled.
+     * @param activeProviderIndex The in-memory index of active providers per month, or null if it is disabled.
+     * @param eligibilityRules  The rules deciding eligibility from the activity of a CHW.
+     * @param chunkExecutor     The executor running the chunk queries of large requests.
+     * @param chunkSize         The maximum number of provider IDs queried in one statement.
+     * @param parallelism       The maximum number of chunks of one request queried concurrently.
+     */
+    public CheckChwEligibilityStatusProcessor(DatabaseConnectionFactory connectionFactory, MonthlyActivityRollup activityRollup,
+                                              EligibilityCache eligibilityCache, ActiveProviderIndex activeProviderIndex,
+                                              EligibilityRules eligibilityRules,
+                                              Executor chunkExecutor, int chunkSize, int parallelism) {
+        this.activityRepository = new ProviderActivityRepository(connectionFactory);
+        this.activityRollup = activityRollup;
+        this.eligibilityCache = eligibilityCache;
+        this.activeProviderIndex = activeProviderIndex;
+        this.eligibilityRules = eligibilityRules;
+        this.chunkExecutor = chunkExecutor;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
     /**
      * Checks the eligibility of a list of CHWs based on their service activity within a specified period.
      *
      * @param eligibleChwCheckRequest The request object containing the period and the list of CHWs to check.
-     * @param serverName              The name of the database server.
-     * @param port                    The port number of the database server.
-     * @param databaseName            The name of the database.
-     * @param username                The username for database authentication.
-     * @param password                The password for database authentication.
-     * @return A list of {@link ChwEligibilityResults} indicating the eligibility status of each CHW.
+     * @return The {@link ChwEligibilityResults} indicating the eligibility status of each CHW, with the freshness
+     * of the data they were computed from.
      */
-    public List<ChwEligibilityResults> checkEligibility(EligibleChwCheckRequest eligibleChwCheckRequest, String serverName, int port, String databaseName, String username, String password) {
+    public EligibilityOutcome checkEligibility(EligibleChwCheckRequest eligibleChwCheckRequest) {
+        return checkEligibility(eligibleChwCheckRequest, null);
+    }
+
+    /**
+     * Checks the eligibility of a list of CHWs, giving up once the deadline has passed.
+     *
+     * @param eligibleChwCheckRequest The request object containing the period and the list of CHWs to check.
+     * @param deadline                When the caller stops waiting for the results, or null for no deadline.
+     * @return The {@link ChwEligibilityResults} indicating the eligibility status of each CHW, with the freshness
+     * of the data they were computed from.
+     * @throws CancellationException If the deadline passed before the check could complete.
+     */
+    public EligibilityOutcome checkEligibility(EligibleChwCheckRequest eligibleChwCheckRequest, Instant deadline) {
+        return checkEligibility(eligibleChwCheckRequest, deadline, null);
+    }
+
+    /**
+     * Checks the eligibility of a list of CHWs, giving up once the deadline has passed. The time spent in each
+     * stage of the check is recorded under the trace of the request and logged with the check.
+     *
+     * @param eligibleChwCheckRequest The request object containing the period and the list of CHWs to check.
+     * @param deadline                When the caller stops waiting for the results, or null for no deadline.
+     * @param trace                   The trace of the request, or null if the check is not traced.
+     * @return The {@link ChwEligibilityResults} indicating the eligibility status of each CHW, with the freshness
+     * of the data they were computed from.
+     * @throws CancellationException If the deadline passed before the check could complete.
+     */
+    public EligibilityOutcome checkEligibility(EligibleChwCheckRequest eligibleChwCheckRequest, Instant deadline, TraceContext trace) {
+        RequestTrace requestTrace = RequestTrace.start(trace);
+        try (RequestTrace.Scope ignored = requestTrace.bind()) {
+            return check(eligibleChwCheckRequest, deadline, requestTrace);
+        }
+    }
+
+    private EligibilityOutcome check(EligibleChwCheckRequest eligibleChwCheckRequest, Instant deadline, RequestTrace requestTrace) {
+        checkDeadline(deadline);
+        long start = System.nanoTime();
         // 1) Extract period and CHWs list from the request
-        String month = eligibleChwCheckRequest.getPeriod().getMonth();
-        String year = eligibleChwCheckRequest.getPeriod().getYear();
-        List<ChwDetails> chws = eligibleChwCheckRequest.getChws();
+        YearMonth month = eligibleChwCheckRequest.getPeriod().toYearMonth();
+        ChwCohort chws = ChwCohort.of(eligibleChwCheckRequest.getChws());
+
+        // 2) Intern the distinct provider IDs of the CHWs into dense indices; CHWs without an OpenmrsProviderId
+        //    share the extra index past the last provider.
+        int[] providerIndexes = new int[chws.size()];
+        ProviderIndex providers = ProviderIndex.of(chws, providerIndexes);
+        List<String> queryIds = providers.providerIds();
+
+        // 3) With presence-only rules, a month held in the active provider index answers the whole request.
+        //    Otherwise answer what we can from the cache; only the misses go to the database.
+        ActivityCounts[] activity = new ActivityCounts[providers.size() + 1];
+        Instant dataAsOf = null;
+        List<String> misses = new ArrayList<>(queryIds.size());
+        Optional<ActiveProviderIndex.MonthIndex> monthIndex = activeProviderIndex != null && !eligibilityRules.requiresCounts()
+                ? activeProviderIndex.find(month)
+                : Optional.empty();
+        Map<String, EligibilityCache.CachedEligibility> cached = eligibilityCache != null && monthIndex.isEmpty()
+                ? eligibilityCache.getAllPresent(queryIds, month)
+                : Map.of();
+        if (monthIndex.isPresent()) {
+            for (int i = 0; i < providers.size(); i++) {
+                if (monthIndex.get().contains(activeProviderIndex.indexOf(providers.providerId(i)))) {
+                    activity[i] = ActivityCounts.PRESENT;
+                }
+            }
+            dataAsOf = monthIndex.get().builtAt();
+        } else {
+            for (int i = 0; i < providers.size(); i++) {
+                EligibilityCache.CachedEligibility hit = cached.get(providers.providerId(i));
+                if (hit != null) {
+                    activity[i] = hit.activity();
+                    dataAsOf = oldest(dataAsOf, hit.dataAsOf());
+                } else {
+                    misses.add(providers.providerId(i));
+                }
+            }
+        }
+
+        // 4) Query the database for the misses, in chunks if there are many of them.
+        int chunks = (misses.size() + chunkSize - 1) / chunkSize;
+        if (!misses.isEmpty()) {
+            ProviderActivity found = findActivityInChunks(misses, month, deadline);
+            for (Map.Entry<String, ActivityCounts> entry : found.activity().entrySet()) {
+                int index = providers.indexOf(entry.getKey());
+                if (index >= 0) {
+                    activity[index] = entry.getValue();
+                }
+            }
+            if (eligibilityCache != null) {
+                for (String providerId : misses) {
+                    eligibilityCache.put(providerId, month, found.activity().get(providerId), found.dataAsOf());
+                }
+            }
+            dataAsOf = oldest(dataAsOf, found.dataAsOf());
+        }
+
+        long assemblyStart = System.nanoTime();
+        // 5) Evaluate the eligibility rules once per distinct provider into a bitset; the per-CHW results, keyed
+        //    by the NationalIdentificationNumber from the request, are only materialized when they are written.
+        BitSet eligible = new BitSet(activity.length);
+        boolean breakdown = eligibilityRules.includeBreakdown();
+        @SuppressWarnings("unchecked")
+        List<String>[] failedRules = breakdown ? new List[activity.length] : null;
+        for (int i = 0; i < activity.length; i++) {
+            List<String> failed = eligibilityRules.evaluate(activity[i]);
+            eligible.set(i, failed.isEmpty());
+            if (breakdown) {
+                failedRules[i] = failed;
+                if (activity[i] == null) {
+                    activity[i] = ActivityCounts.NONE;
+                }
+            }
+        }
+        List<ChwEligibilityResults> chwEligibilityResults = new EligibilityResultList(
+                chws, providerIndexes, eligible, breakdown ? activity : null, failedRules);
+        requestTrace.addSince(Stage.ASSEMBLY, assemblyStart);
+
+        log.info("Checked {} CHWs for {}: {} distinct providers, {} cache misses in {} chunks (chunk size {}, parallelism {}) in {} ms [{}]",
+                chws.size(), month, queryIds.size(), misses.size(), chunks, chunkSize, parallelism,
+                (System.nanoTime() - start) / 1_000_000, requestTrace);
+        return new EligibilityOutcome(chwEligibilityResults, dataAsOf != null ? dataAsOf : Instant.now(), providers.size());
+    }
+
+    /**
+     * Checks the eligibility of a list of CHWs in several months, with a single grouped query over the requested
+     * range per chunk of provider IDs.
+     *
+     * @param request The request containing the periods and the CHWs to check.
+     * @return The eligibility of each CHW per requested month, in request order.
+     * @throws IllegalArgumentException If the request does not define any month.
+     */
+    public List<ChwMultiPeriodEligibilityResults> checkMultiPeriodEligibility(MultiPeriodChwCheckRequest request) {
+        return checkMultiPeriodEligibility(request, null);
+    }
+
+    /**
+     * Checks the eligibility of a list of CHWs in several months, giving up once the deadline has passed.
+     *
+     * @param request  The request containing the periods and the CHWs to check.
+     * @param deadline When the caller stops waiting for the results, or null for no deadline.
+     * @return The eligibility of each CHW per requested month, in request order.
+     * @throws IllegalArgumentException If the request does not define any month.
+     * @throws CancellationException    If the deadline passed before the check could complete.
+     */
+    public List<ChwMultiPeriodEligibilityResults> checkMultiPeriodEligibility(MultiPeriodChwCheckRequest request, Instant deadline) {
+        return checkMultiPeriodEligibility(request, deadline, null);
+    }
 
-        // 2) Build the list of queryIds from the CHWs (using OpenmrsProviderId)
-        List<String> queryIds = new ArrayList<>();
+    /**
+     * Checks the eligibility of a list of CHWs in several months, giving up once the deadline has passed. The time
+     * spent in each stage of the check is recorded under the trace of the request and logged with the check.
+     *
+     * @param request  The request containing the periods and the CHWs to check.
+     * @param deadline When the caller stops waiting for the results, or null for no deadline.
+     * @param trace    The trace of the request, or null if the check is not traced.
+     * @return The eligibility of each CHW per requested month, in request order.
+     * @throws IllegalArgumentException If the request does not define any month.
+     * @throws CancellationException    If the deadline passed before the check could complete.
+     */
+    public List<ChwMultiPeriodEligibilityResults> checkMultiPeriodEligibility(MultiPeriodChwCheckRequest request, Instant deadline, TraceContext trace) {
+        RequestTrace requestTrace = RequestTrace.start(trace);
+        try (RequestTrace.Scope ignored = requestTrace.bind()) {
+            return checkMultiPeriod(request, deadline, requestTrace);
+        }
+    }
+
+    private List<ChwMultiPeriodEligibilityResults> checkMultiPeriod(MultiPeriodChwCheckRequest request, Instant deadline, RequestTrace requestTrace) {
+        checkDeadline(deadline);
+        long start = System.nanoTime();
+        List<YearMonth> months = request.resolveMonths();
+        YearMonth first = months.get(0);
+        YearMonth last = months.get(months.size() - 1);
+        List<ChwDetails> chws = request.getChws();
+
+        Set<String> queryIds = new LinkedHashSet<>();
+        for (ChwDetails chw : chws) {
+            if (chw.getOpenmrsProviderId() != null) {
+                queryIds.add(chw.getOpenmrsProviderId());
+            }
+        }
+
+        Map<String, Map<YearMonth, ActivityCounts>> monthlyActivity = new HashMap<>();
+        for (Map<String, Map<YearMonth, ActivityCounts>> chunkResult : queryInChunks(new ArrayList<>(queryIds), deadline, chunk -> {
+            try {
+                return activityRepository.findMonthlyActivityCounts(chunk, first, last, deadline);
+            } catch (SQLException e) {
+                throw new RuntimeException("Database error during multi-period eligibility check", e);
+            }
+        })) {
+            monthlyActivity.putAll(chunkResult);
+        }
+
+        Instant dataAsOf = Instant.now();
+        if (eligibilityCache != null) {
+            for (String providerId : queryIds) {
+                Map<YearMonth, ActivityCounts> active = monthlyActivity.getOrDefault(providerId, Map.of());
+                for (YearMonth month : months) {
+                    eligibilityCache.put(providerId, month, active.get(month), dataAsOf);
+                }
+            }
+        }
+
+        long assemblyStart = System.nanoTime();
+        List<ChwMultiPeriodEligibilityResults> results = new ArrayList<>(chws.size());
         for (ChwDetails chw : chws) {
-            queryIds.add(chw.getOpenmrsProviderId());
-        }
-
-        // 3) Compute date boundaries:
-        //    startDate: first day of the given month,
-        //    endDate: first day of the next month.
-        String startDateStr = String.format("%s-%02d-01", year, Integer.parseInt(month));
-        int monthInt = Integer.parseInt(month);
-        int yearInt = Integer.parseInt(year);
-        monthInt++; // move to next month
-        if (monthInt > 12) {
-            monthInt = 1;
-            yearInt++;
-        }
-        String endDateStr = String.format("%d-%02d-01", yearInt, monthInt);
-
-        Date startDate = Date.valueOf(startDateStr);
-        Date endDate = Date.valueOf(endDateStr);
-
-        // 4) Build the SQL query string.
-        //    Create the IN clause dynamically from the queryIds list.
-        String inClause = queryIds.stream()
-                .map(id -> "'" + id + "'")
-                .collect(Collectors.joining(","));
-
-        String sql = "SELECT provider_id FROM (" +
-                "   SELECT provider_id, event_date FROM hps_client_services " +
-                "   UNION ALL " +
-                "   SELECT provider_id, event_date FROM hps_household_services " +
-                "   UNION ALL " +
-                "   SELECT provider_id, event_date FROM hps_death_registrations " +
-                "   UNION ALL " +
-                "   SELECT provider_id, event_date FROM hps_mobilization_services " +
-                ") t " +
-                "WHERE provider_id IN (" + inClause + ") " +
-                "AND event_date >= ? " +
-                "AND event_date < ?;";
-
-        // 5) Query the database to collect eligible provider IDs.
-        Set<String> eligibleProviders = new HashSet<>();
-        try (Connection conn = DatabaseConnectionFactory.getConnection(serverName, port, databaseName, username, password);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            // Set parameters and execute your query
-            stmt.setDate(1, startDate);
-            stmt.setDate(2, endDate);
-            try (ResultSet rs = stmt.executeQuery()) {
-                // Process the results
-                while (rs.next()) {
-                    eligibleProviders.add(rs.getString("provider_id"));
+            Map<YearMonth, ActivityCounts> active = chw.getOpenmrsProviderId() != null
+                    ? monthlyActivity.getOrDefault(chw.getOpenmrsProviderId(), Map.of())
+                    : Map.of();
+            List<MonthlyEligibility> monthlyEligibility = new ArrayList<>(months.size());
+            for (YearMonth month : months) {
+                ActivityCounts counts = active.getOrDefault(month, ActivityCounts.NONE);
+                List<String> failedRules = eligibilityRules.evaluate(counts);
+                monthlyEligibility.add(new MonthlyEligibility(
+                        String.format("%02d", month.getMonthValue()), String.valueOf(month.getYear()), failedRules.isEmpty(),
+                        eligibilityRules.includeBreakdown() ? counts : null,
+                        eligibilityRules.includeBreakdown() ? failedRules : null));
+            }
+            results.add(new ChwMultiPeriodEligibilityResults(chw.getNationalIdentificationNumber(), monthlyEligibility));
+        }
+
+        requestTrace.addSince(Stage.ASSEMBLY, assemblyStart);
+
+        log.info("Checked {} CHWs for {} months from {} to {}: {} distinct providers in {} ms [{}]",
+                chws.size(), months.size(), first, last, queryIds.size(), (System.nanoTime() - start) / 1_000_000, requestTrace);
+        return results;
+    }
+
+    /**
+     * Splits the provider IDs into chunks and queries their activity in a month, merging the chunk results.
+     *
+     * @param providerIds The OpenMRS provider IDs to check.
+     * @param month       The month to check.
+     * @param deadline    When the caller stops waiting for the results, or null for no deadline.
+     * @return The merged activity of all chunks, with the freshness of the oldest chunk.
+     */
+    private ProviderActivity findActivityInChunks(List<String> providerIds, YearMonth month, Instant deadline) {
+        Map<String, ActivityCounts> activity = new HashMap<>();
+        Instant dataAsOf = null;
+        for (ProviderActivity chunkResult : queryInChunks(providerIds, deadline, chunk -> findActivity(chunk, month, deadline))) {
+            activity.putAll(chunkResult.activity());
+            dataAsOf = oldest(dataAsOf, chunkResult.dataAsOf());
+        }
+        return new ProviderActivity(activity, dataAsOf);
+    }
+
+    /**
+     * Splits the provider IDs into chunks and runs the query on each chunk concurrently, with at most
+     * {@code parallelism} chunks in flight. The calling thread works through chunks too, so a request never waits
+     * on an idle executor. Chunks not started by the deadline are skipped. Once a chunk fails, no further chunk is
+     * started and helpers not running yet are cancelled, so the request gives its connections back promptly.
+     *
+     * @param providerIds The OpenMRS provider IDs to query.
+     * @param deadline    When the caller stops waiting for the results, or null for no deadline.
+     * @param chunkQuery  The query to run on each chunk.
+     * @param <R>         The type of the result of one chunk.
+     * @return The results of every chunk.
+     */
+    private <R> List<R> queryInChunks(List<String> providerIds, Instant deadline, Function<List<String>, R> chunkQuery) {
+        if (providerIds.size() <= chunkSize) {
+            return List.of(chunkQuery.apply(providerIds));
+        }
+
+        List<List<String>> chunks = new ArrayList<>();
+        for (int from = 0; from < providerIds.size(); from += chunkSize) {
+            chunks.add(providerIds.subList(from, Math.min(from + chunkSize, providerIds.size())));
+        }
+        AtomicReferenceArray<R> chunkResults = new AtomicReferenceArray<>(chunks.size());
+        AtomicInteger nextChunk = new AtomicInteger();
+        Runnable worker = RequestTrace.propagate(() -> {
+            int index;
+            while ((index = nextChunk.getAndIncrement()) < chunks.size()) {
+                try {
+                    checkDeadline(deadline);
+                    chunkResults.set(index, chunkQuery.apply(chunks.get(index)));
+                } catch (RuntimeException e) {
+                    // Stop the sibling workers from starting further chunks
+                    nextChunk.set(chunks.size());
+                    throw e;
                 }
             }
+        });
+
+        int workers = Math.min(parallelism, chunks.size());
+        List<CompletableFuture<Void>> helpers = new ArrayList<>(workers - 1);
+        for (int i = 1; i < workers; i++) {
+            helpers.add(CompletableFuture.runAsync(worker, chunkExecutor));
+        }
+        try {
+            worker.run();
+            CompletableFuture.allOf(helpers.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            helpers.forEach(helper -> helper.cancel(false));
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        } catch (RuntimeException e) {
+            helpers.forEach(helper -> helper.cancel(false));
+            throw e;
+        }
+
+        List<R> results = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            results.add(chunkResults.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Finds the activity of the given providers in a month, preferring the rollup and falling back to the raw
+     * service tables for months not materialized yet. Per-source counts are only fetched from the raw tables when
+     * the eligibility rules need them; otherwise the cheaper presence-only query is used.
+     *
+     * @param providerIds The OpenMRS provider IDs to check.
+     * @param month       The month to check.
+     * @param deadline    When the caller stops waiting for the results, or null for no deadline.
+     * @return The activity of the providers with the freshness of the data.
+     */
+    private ProviderActivity findActivity(Collection<String> providerIds, YearMonth month, Instant deadline) {
+        try {
+            Optional<ProviderActivity> materialized = activityRollup != null
+                    ? activityRollup.findActivity(providerIds, month, deadline)
+                    : Optional.empty();
+            if (materialized.isPresent()) {
+                return materialized.get();
+            }
+            if (eligibilityRules.requiresCounts()) {
+                return new ProviderActivity(activityRepository.findActivityCounts(providerIds, month, deadline), Instant.now());
+            }
+            Map<String, ActivityCounts> activity = new HashMap<>();
+            for (String providerId : activityRepository.findActiveProviders(providerIds, month, deadline)) {
+                activity.put(providerId, ActivityCounts.PRESENT);
+            }
+            return new ProviderActivity(activity, Instant.now());
         } catch (SQLException e) {
             // Handle exceptions appropriately
             throw new RuntimeException("Database error during eligibility check", e);
         }
+    }
 
-        // 6) Build the output JSON array.
-        //    Each element uses the NationalIdentificationNumber from the request and indicates eligibility.
-        List<ChwEligibilityResults> chwEligibilityResults = new ArrayList<>();
-        for (ChwDetails chw : chws) {
-            chwEligibilityResults.add(new ChwEligibilityResults(chw.getNationalIdentificationNumber(), eligibleProviders.contains(chw.getOpenmrsProviderId())));
-            ;
+    private static void checkDeadline(Instant deadline) {
+        if (deadline != null && Instant.now().isAfter(deadline)) {
+            ServiceMetrics.EXPIRED_CHECKS.inc();
+            throw new CancellationException("Deadline passed, the caller is no longer waiting");
         }
+    }
 
-        return chwEligibilityResults;
+    private static Instant oldest(Instant current, Instant candidate) {
+        return current == null || candidate.isBefore(current) ? candidate : current;
     }
 }
@@ -0,0 +1,159 @@
+package tz.go.moh.admission;
+
+import com.typesafe.config.Config;
+import tz.go.moh.metrics.ServiceMetrics;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounds the eligibility work the service accepts at once, so an overload is answered with fast rejections
+ * instead of asks piling up until they time out.
+ * <p>
+ * Requests are weighted by the number of CHWs they carry. A request is admitted straight away while the admitted
+ * weight stays under {@code max-in-flight-chws}; otherwise it waits in a FIFO queue bounded by
+ * {@code max-queued-chws} for at most {@code max-queue-wait}. Requests that do not fit in the queue, or that wait
+ * too long, are rejected. A single request heavier than the in-flight limit is admitted alone.
+ * </p>
+ */
+public class AdmissionController {
+    private final long maxInFlightChws;
+    private final long maxQueuedChws;
+    private final Duration maxQueueWait;
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+    private long inFlightChws;
+    private long queuedChws;
+
+    /**
+     * Creates the controller from the {@code chw-status-check-service.admission} config block.
+     *
+     * @param admissionConfig The admission config block.
+     */
+    public AdmissionController(Config admissionConfig) {
+        this.maxInFlightChws = admissionConfig.getLong("max-in-flight-chws");
+        this.maxQueuedChws = admissionConfig.getLong("max-queued-chws");
+        this.maxQueueWait = admissionConfig.getDuration("max-queue-wait");
+    }
+
+    /**
+     * Asks for capacity to check the given number of CHWs.
+     *
+     * @param chws The number of CHWs in the request.
+     * @return A stage completed with a {@link Permit} once the request is admitted, or failed with an
+     * {@link AdmissionRejectedException} if it was rejected. The permit must be closed when the work is done.
+     */
+    public CompletionStage<Permit> admit(int chws) {
+        long weight = Math.max(1, Math.min(chws, maxInFlightChws));
+        Waiter waiter;
+        synchronized (this) {
+            if (queue.isEmpty() && inFlightChws + weight <= maxInFlightChws) {
+                return CompletableFuture.completedFuture(grant(weight));
+            }
+            if (queuedChws + weight > maxQueuedChws) {
+                ServiceMetrics.ADMISSION_REJECTIONS.inc();
+                return CompletableFuture.failedFuture(new AdmissionRejectedException("Admission queue is full"));
+            }
+            waiter = new Waiter(weight);
+            queue.add(waiter);
+            queuedChws += weight;
+            ServiceMetrics.QUEUED_CHWS.set(queuedChws);
+        }
+        waiter.future.completeOnTimeout(null, maxQueueWait.toMillis(), TimeUnit.MILLISECONDS);
+        return waiter.future.thenCompose(permit -> {
+            if (permit == null) {
+                expire(waiter);
+                ServiceMetrics.ADMISSION_REJECTIONS.inc();
+                return CompletableFuture.failedFuture(new AdmissionRejectedException("Timed out waiting for admission"));
+            }
+            return CompletableFuture.completedFuture(permit);
+        });
+    }
+
+    private Permit grant(long weight) {
+        inFlightChws += weight;
+        ServiceMetrics.ADMITTED_CHWS.set(inFlightChws);
+        return new Permit(weight);
+    }
+
+    private void expire(Waiter waiter) {
+        List<Waiter> admitted;
+        synchronized (this) {
+            if (queue.remove(waiter)) {
+                queuedChws -= waiter.weight;
+                ServiceMetrics.QUEUED_CHWS.set(queuedChws);
+            }
+            admitted = drain();
+        }
+        complete(admitted);
+    }
+
+    private void release(long weight) {
+        List<Waiter> admitted;
+        synchronized (this) {
+            inFlightChws -= weight;
+            ServiceMetrics.ADMITTED_CHWS.set(inFlightChws);
+            admitted = drain();
+        }
+        complete(admitted);
+    }
+
+    /**
+     * Admits waiters from the head of the queue while they fit. Must hold the lock; the returned waiters are
+     * completed after it is released so no caller code runs under the lock.
+     */
+    private List<Waiter> drain() {
+        List<Waiter> admitted = new ArrayList<>();
+        while (!queue.isEmpty() && inFlightChws + queue.peek().weight <= maxInFlightChws) {
+            Waiter waiter = queue.poll();
+            queuedChws -= waiter.weight;
+            waiter.permit = grant(waiter.weight);
+            admitted.add(waiter);
+        }
+        ServiceMetrics.QUEUED_CHWS.set(queuedChws);
+        return admitted;
+    }
+
+    private static void complete(List<Waiter> admitted) {
+        for (Waiter waiter : admitted) {
+            if (!waiter.future.complete(waiter.permit)) {
+                // The waiter timed out meanwhile; hand its capacity back.
+                waiter.permit.close();
+            }
+        }
+    }
+
+    /**
+     * Capacity granted to one request. Closing it hands the capacity back; further closes are ignored.
+     */
+    public final class Permit implements AutoCloseable {
+        private final long weight;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(long weight) {
+            this.weight = weight;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(weight);
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final long weight;
+        private final CompletableFuture<Permit> future = new CompletableFuture<>();
+        private Permit permit;
+
+        private Waiter(long weight) {
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package tz.go.moh.admission;
+
+/**
+ * Thrown when the {@link AdmissionController} turns a request away because the service is at capacity.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+    /**
+     * Constructor for AdmissionRejectedException.
+     *
+     * @param message Why the request was rejected.
+     */
+    public AdmissionRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,138 @@
+package tz.go.moh.cache;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.pubsub.Topic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tz.go.moh.CborSerializable;
+import tz.go.moh.index.ActiveProviderIndex;
+
+import java.time.YearMonth;
+
+/**
+ * Drops cached verdicts, cached responses and months of the active provider index, on this node and, in cluster
+ * mode, on every other node.
+ * <p>
+ * Each node keeps its own caches, so an invalidation received by one node is applied locally straight away and
+ * published on the {@value #TOPIC_NAME} distributed pub-sub topic, which every node subscribes to with
+ * {@link #subscriber(CacheInvalidation)}. Nodes ignore their own invalidations when they come back from the topic.
+ * Delivery to the other nodes is asynchronous and, like any Akka message, at most once; a node that misses one
+ * still drops open months after their TTL.
+ * </p>
+ */
+public class CacheInvalidation {
+    private final static Logger log = LoggerFactory.getLogger(CacheInvalidation.class);
+
+    /**
+     * Name of the topic invalidations are published on.
+     */
+    public static final String TOPIC_NAME = "cache-invalidation";
+
+    private final EligibilityCache eligibilityCache;
+    private final ResponseCache responseCache;
+    private final ActiveProviderIndex activeProviderIndex;
+    private final ActorRef<Topic.Command<Invalidate>> topic;
+    private final String origin;
+
+    /**
+     * Constructor for CacheInvalidation.
+     *
+     * @param system              The actor system, identifying this node.
+     * @param eligibilityCache    The cache of eligibility verdicts, or null if caching is disabled.
+     * @param responseCache       The cache of encoded monthly status responses, or null if it is disabled.
+     * @param activeProviderIndex The in-memory index of active providers per month, or null if it is disabled.
+     * @param topic               The topic shared with the other nodes, or null when not running as a cluster.
+     */
+    public CacheInvalidation(ActorSystem<?> system, EligibilityCache eligibilityCache, ResponseCache responseCache,
+                             ActiveProviderIndex activeProviderIndex, ActorRef<Topic.Command<Invalidate>> topic) {
+        this.eligibilityCache = eligibilityCache;
+        this.responseCache = responseCache;
+        this.activeProviderIndex = activeProviderIndex;
+        this.topic = topic;
+        this.origin = system.address().toString();
+    }
+
+    /**
+     * @return True if any of the caches is enabled.
+     */
+    public boolean hasCaches() {
+        return eligibilityCache != null || responseCache != null || activeProviderIndex != null;
+    }
+
+    /**
+     * Drops everything cached for one month, on every node.
+     *
+     * @param month The month to invalidate.
+     */
+    public void invalidateMonth(YearMonth month) {
+        apply(month);
+        publish(new Invalidate(month.toString(), origin));
+    }
+
+    /**
+     * Drops everything cached, on every node.
+     */
+    public void invalidateAll() {
+        apply(null);
+        publish(new Invalidate(null, origin));
+    }
+
+    private void publish(Invalidate invalidate) {
+        if (topic != null) {
+            topic.tell(Topic.publish(invalidate));
+        }
+    }
+
+    private void apply(YearMonth month) {
+        if (month != null) {
+            if (eligibilityCache != null) {
+                eligibilityCache.invalidateMonth(month);
+            }
+            if (responseCache != null) {
+                responseCache.invalidateMonth(month);
+            }
+            if (activeProviderIndex != null) {
+                activeProviderIndex.invalidateMonth(month);
+            }
+        } else {
+            if (eligibilityCache != null) {
+                eligibilityCache.invalidateAll();
+            }
+            if (responseCache != null) {
+                responseCache.invalidateAll();
+            }
+            if (activeProviderIndex != null) {
+                activeProviderIndex.invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Creates the actor applying the invalidations published by the other nodes. It has to be subscribed to the
+     * topic by the caller.
+     *
+     * @param invalidation The caches of this node.
+     * @return The Behavior of the subscriber.
+     */
+    public static Behavior<Invalidate> subscriber(CacheInvalidation invalidation) {
+        return Behaviors.receiveMessage(invalidate -> {
+            if (!invalidation.origin.equals(invalidate.origin())) {
+                log.info("Invalidating {} as requested by {}", invalidate.month() != null ? invalidate.month() : "every month", invalidate.origin());
+                invalidation.apply(invalidate.month() != null ? YearMonth.parse(invalidate.month()) : null);
+            }
+            return Behaviors.same();
+        });
+    }
+
+    /**
+     * An invalidation published to the other nodes.
+     *
+     * @param month  The month to invalidate as yyyy-MM, or null for every month.
+     * @param origin The address of the node that received the invalidation.
+     */
+    public record Invalidate(String month, String origin) implements CborSerializable {
+    }
+}
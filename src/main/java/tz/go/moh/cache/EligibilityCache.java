@@ -0,0 +1,158 @@
+package tz.go.moh.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.typesafe.config.Config;
+import tz.go.moh.domain.ActivityCounts;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory cache of the activity behind eligibility verdicts, keyed by OpenMRS provider ID and month.
+ * <p>
+ * Activity in a closed month never changes, so verdicts for closed months are kept until they are evicted or
+ * explicitly invalidated. Verdicts for open months (the current month and, depending on configuration, a few
+ * months before it) and for the months the activity rollup reopens after them expire after a short time to pick
+ * up new activity and late entries. The cache is bounded by an estimate of
+ * the memory its entries use.
+ * </p>
+ */
+public class EligibilityCache {
+    /**
+     * Rough per-entry overhead of the cache node, key, value and boxed fields, in bytes.
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 192;
+
+    private final Cache<Key, CachedEligibility> cache;
+    private final int openMonths;
+    private final int reopenMonths;
+
+    /**
+     * Creates the cache from the {@code chw-status-check-service.cache} config block.
+     *
+     * @param cacheConfig The cache config block.
+     */
+    public EligibilityCache(Config cacheConfig) {
+        this.openMonths = cacheConfig.getInt("open-months");
+        this.reopenMonths = cacheConfig.getInt("reopen-months");
+        long openMonthTtlNanos = cacheConfig.getDuration("open-month-ttl").toNanos();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(cacheConfig.getBytes("max-memory"))
+                .weigher((Key key, CachedEligibility value) -> ENTRY_OVERHEAD_BYTES + 2 * key.providerId().length())
+                .expireAfter(new Expiry<Key, CachedEligibility>() {
+                    @Override
+                    public long expireAfterCreate(Key key, CachedEligibility value, long currentTime) {
+                        return isClosed(key.month()) ? Long.MAX_VALUE : openMonthTtlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Key key, CachedEligibility value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Key key, CachedEligibility value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Tells whether activity in the given month can no longer change.
+     *
+     * @param month The month to check.
+     * @return True if the month is older than the open months and the reopened months after them.
+     */
+    public boolean isClosed(YearMonth month) {
+        return month.isBefore(YearMonth.now().minusMonths(openMonths + reopenMonths - 1L));
+    }
+
+    /**
+     * Looks up the cached verdicts of the given providers for a month.
+     *
+     * @param providerIds The OpenMRS provider IDs to look up.
+     * @param month       The month to look up.
+     * @return The cached verdicts keyed by provider ID; providers missing from the map were not cached.
+     */
+    public Map<String, CachedEligibility> getAllPresent(Collection<String> providerIds, YearMonth month) {
+        List<Key> keys = new ArrayList<>(providerIds.size());
+        for (String providerId : providerIds) {
+            keys.add(new Key(providerId, month));
+        }
+        Map<String, CachedEligibility> present = new HashMap<>();
+        cache.getAllPresent(keys).forEach((key, value) -> present.put(key.providerId(), value));
+        return present;
+    }
+
+    /**
+     * Caches the activity of a provider in a month.
+     *
+     * @param providerId The OpenMRS provider ID.
+     * @param month      The month the activity applies to.
+     * @param activity   The activity counts of the provider, or null if the provider had no activity.
+     * @param dataAsOf   When the data the activity was computed from was last refreshed.
+     */
+    public void put(String providerId, YearMonth month, ActivityCounts activity, Instant dataAsOf) {
+        cache.put(new Key(providerId, month), new CachedEligibility(activity, dataAsOf));
+    }
+
+    /**
+     * Drops every cached verdict for a month, e.g. after late data was loaded for a closed month.
+     *
+     * @param month The month to invalidate.
+     */
+    public void invalidateMonth(YearMonth month) {
+        cache.asMap().keySet().removeIf(key -> key.month().equals(month));
+    }
+
+    /**
+     * Drops every cached verdict.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Takes a snapshot of the cache counters.
+     *
+     * @return The current cache statistics.
+     */
+    public CacheStatistics getStats() {
+        CacheStats stats = cache.stats();
+        return new CacheStatistics(stats.hitCount(), stats.missCount(), stats.evictionCount(), cache.estimatedSize(), stats.hitRate());
+    }
+
+    private record Key(String providerId, YearMonth month) {
+    }
+
+    /**
+     * The cached activity of a provider in a month, from which the eligibility rules derive the verdict.
+     *
+     * @param activity The activity counts of the provider, or null if the provider had no activity.
+     * @param dataAsOf When the data the activity was computed from was last refreshed.
+     */
+    public record CachedEligibility(ActivityCounts activity, Instant dataAsOf) {
+    }
+
+    /**
+     * Point-in-time counters of the cache.
+     *
+     * @param hitCount      Lookups answered from the cache.
+     * @param missCount     Lookups that had to go to the database.
+     * @param evictionCount Entries evicted because of the memory bound or expiry.
+     * @param size          Approximate number of cached verdicts.
+     * @param hitRate       Ratio of hits to lookups.
+     */
+    public record CacheStatistics(long hitCount, long missCount, long evictionCount, long size, double hitRate) {
+    }
+}
@@ -0,0 +1,243 @@
+package tz.go.moh.cache;
+
+import akka.http.javadsl.model.ContentType;
+import akka.util.ByteString;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.typesafe.config.Config;
+import tz.go.moh.codec.EligibilityCodec;
+import tz.go.moh.domain.ChwCohort;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * In-memory cache of whole encoded {@code /chw/monthly-status} responses, keyed by a hash of the normalized
+ * request and the response format.
+ * <p>
+ * The request key is a SHA-256 over the month and the (NationalIdentificationNumber, OpenmrsProviderId) pairs in
+ * request order, so the same check sent as JSON, CBOR or Smile, or with different whitespace, shares one key.
+ * Results follow request order and are keyed by NIN, which is why neither the order nor the NINs can be
+ * normalized away. A second, smaller map remembers the request key of each raw body, so a byte-identical body is
+ * answered without even being parsed. The entity tag of a response is a hash of its encoded body, so a response
+ * recomputed after expiry or invalidation only keeps its tag if its verdicts did not change.
+ * </p>
+ * <p>
+ * Like the {@link EligibilityCache}, responses for closed months are kept until evicted or invalidated, and those
+ * for open and reopened months expire after a short time, so their entity tags change once late entries arrive.
+ * The cache is bounded by the bytes of the cached bodies.
+ * </p>
+ */
+public class ResponseCache {
+    /**
+     * Rough per-entry overhead of the cache node, key and value, in bytes.
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private final Cache<Key, CachedResponse> responses;
+    private final Cache<String, String> requestKeysByBody;
+    private final int openMonths;
+    private final int reopenMonths;
+
+    /**
+     * Creates the cache from the {@code chw-status-check-service.response-cache} config block.
+     *
+     * @param cacheConfig The response cache config block.
+     */
+    public ResponseCache(Config cacheConfig) {
+        this.openMonths = cacheConfig.getInt("open-months");
+        this.reopenMonths = cacheConfig.getInt("reopen-months");
+        long openMonthTtlNanos = cacheConfig.getDuration("open-month-ttl").toNanos();
+        this.responses = Caffeine.newBuilder()
+                .maximumWeight(cacheConfig.getBytes("max-memory"))
+                .weigher((Key key, CachedResponse value) -> ENTRY_OVERHEAD_BYTES + value.body().size())
+                .expireAfter(new Expiry<Key, CachedResponse>() {
+                    @Override
+                    public long expireAfterCreate(Key key, CachedResponse value, long currentTime) {
+                        return isClosed(value.month()) ? Long.MAX_VALUE : openMonthTtlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Key key, CachedResponse value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Key key, CachedResponse value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        // A body always normalizes to the same request key, so these never go stale; they are only bounded.
+        this.requestKeysByBody = Caffeine.newBuilder()
+                .maximumSize(cacheConfig.getLong("max-body-keys"))
+                .build();
+    }
+
+    /**
+     * Tells whether activity in the given month can no longer change.
+     *
+     * @param month The month to check.
+     * @return True if the month is older than the open months and the reopened months after them.
+     */
+    public boolean isClosed(YearMonth month) {
+        return month.isBefore(YearMonth.now().minusMonths(openMonths + reopenMonths - 1L));
+    }
+
+    /**
+     * Hashes a normalized eligibility request.
+     *
+     * @param month The month checked.
+     * @param chws  The CHWs checked, in request order.
+     * @return The request key, as lowercase hex.
+     */
+    public static String requestKey(YearMonth month, ChwCohort chws) {
+        MessageDigest digest = sha256();
+        digest.update(month.toString().getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < chws.size(); i++) {
+            update(digest, chws.nationalIdentificationNumber(i));
+            update(digest, chws.providerId(i));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Hashes a raw request body.
+     *
+     * @param contentType The Content-Type of the body.
+     * @param body        The body, after content decoding.
+     * @return The body digest, as lowercase hex.
+     */
+    public static String bodyDigest(ContentType contentType, ByteString body) {
+        MessageDigest digest = sha256();
+        update(digest, contentType.mediaType().toString());
+        for (ByteBuffer buffer : body.getByteBuffers()) {
+            digest.update(buffer);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @param bodyDigest The digest of a raw request body.
+     * @return The request key the body normalized to when it was last seen, if remembered.
+     */
+    public Optional<String> findRequestKey(String bodyDigest) {
+        return Optional.ofNullable(requestKeysByBody.getIfPresent(bodyDigest));
+    }
+
+    /**
+     * Remembers the request key a raw body normalizes to.
+     *
+     * @param bodyDigest The digest of the raw request body.
+     * @param requestKey The key of the normalized request.
+     */
+    public void putRequestKey(String bodyDigest, String requestKey) {
+        requestKeysByBody.put(bodyDigest, requestKey);
+    }
+
+    /**
+     * Looks up an encoded response.
+     *
+     * @param requestKey The key of the normalized request.
+     * @param format     The format of the response.
+     * @return The cached response, if present and not expired.
+     */
+    public Optional<CachedResponse> find(String requestKey, EligibilityCodec.Format format) {
+        return Optional.ofNullable(responses.getIfPresent(new Key(requestKey, format)));
+    }
+
+    /**
+     * Caches an encoded response.
+     *
+     * @param requestKey The key of the normalized request.
+     * @param month      The month checked.
+     * @param format     The format of the response.
+     * @param body       The encoded response body.
+     * @param dataAsOf   When the activity data behind the response was last refreshed.
+     * @return The cached response, with its entity tag.
+     */
+    public CachedResponse put(String requestKey, YearMonth month, EligibilityCodec.Format format, ByteString body, Instant dataAsOf) {
+        CachedResponse response = new CachedResponse(etag(format, body), month, body, dataAsOf);
+        responses.put(new Key(requestKey, format), response);
+        return response;
+    }
+
+    /**
+     * Computes the entity tag of a response from its content, quoted as sent in the ETag header.
+     *
+     * @param format The format of the response.
+     * @param body   The encoded response body.
+     * @return The strong entity tag.
+     */
+    public static String etag(EligibilityCodec.Format format, ByteString body) {
+        MessageDigest digest = sha256();
+        for (ByteBuffer buffer : body.getByteBuffers()) {
+            digest.update(buffer);
+        }
+        return "\"" + HexFormat.of().formatHex(digest.digest()) + "-" + format.name().toLowerCase() + "\"";
+    }
+
+    /**
+     * Drops every cached response for the given month.
+     *
+     * @param month The month to invalidate.
+     */
+    public void invalidateMonth(YearMonth month) {
+        responses.asMap().values().removeIf(response -> response.month().equals(month));
+    }
+
+    /**
+     * Drops every cached response.
+     */
+    public void invalidateAll() {
+        responses.invalidateAll();
+    }
+
+    /**
+     * @return The estimated number of cached responses.
+     */
+    public long size() {
+        return responses.estimatedSize();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        // A length prefix keeps ("ab", "c") and ("a", "bc") apart; -1 marks a missing value.
+        if (value == null) {
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(-1).flip());
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).flip());
+        digest.update(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Key(String requestKey, EligibilityCodec.Format format) {
+    }
+
+    /**
+     * An encoded response.
+     *
+     * @param etag     The entity tag of the response, quoted.
+     * @param month    The month checked.
+     * @param body     The encoded results.
+     * @param dataAsOf When the activity data behind the results was last refreshed.
+     */
+    public record CachedResponse(String etag, YearMonth month, ByteString body, Instant dataAsOf) {
+    }
+}
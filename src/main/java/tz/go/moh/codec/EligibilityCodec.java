@@ -0,0 +1,414 @@
+package tz.go.moh.codec;
+
+import akka.http.javadsl.marshalling.Marshaller;
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpEntity;
+import akka.http.javadsl.model.MediaType;
+import akka.http.javadsl.model.MediaRange;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.RequestEntity;
+import akka.http.javadsl.model.headers.Accept;
+import akka.http.javadsl.unmarshalling.Unmarshaller;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import tz.go.moh.domain.ActivityCounts;
+import tz.go.moh.domain.ChwCohort;
+import tz.go.moh.domain.ChwDetails;
+import tz.go.moh.domain.ChwEligibilityResults;
+import tz.go.moh.domain.EligibilityResultList;
+import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.domain.Period;
+import tz.go.moh.util.CustomJacksonObjectMapper;
+import tz.go.moh.util.CustomJacksonSupport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.LongConsumer;
+
+/**
+ * Streaming codecs for the eligibility request and response, used on the hot path instead of Jackson databinding.
+ * <p>
+ * Requests are read token by token with a {@link JsonParser} straight into the parallel arrays of a
+ * {@link ChwCohort}, without building a {@link ChwDetails} per CHW. Results are written with a
+ * {@link JsonGenerator} directly into the {@link ByteString} of the response entity. The property names are those
+ * of the databinding classes, so both paths produce and accept the same documents. The same code serves JSON,
+ * CBOR and Smile, which only differ by their {@link JsonFactory}.
+ * </p>
+ */
+public final class EligibilityCodec {
+    private static final JsonFactory JSON = CustomJacksonObjectMapper.mapper.getFactory();
+    private static final JsonFactory CBOR = CustomJacksonObjectMapper.cborMapper.getFactory();
+    private static final JsonFactory SMILE = CustomJacksonObjectMapper.smileMapper.getFactory();
+    private static final int INITIAL_CAPACITY = 256;
+
+    private EligibilityCodec() {
+    }
+
+    /**
+     * Unmarshaller reading an {@link EligibleChwCheckRequest} as JSON, CBOR or Smile depending on the Content-Type.
+     */
+    public static final Unmarshaller<HttpEntity, EligibleChwCheckRequest> REQUEST_UNMARSHALLER = Unmarshaller.firstOf(
+            requestUnmarshaller(MediaTypes.APPLICATION_JSON, JSON),
+            requestUnmarshaller(CustomJacksonSupport.APPLICATION_CBOR, CBOR),
+            requestUnmarshaller(CustomJacksonSupport.APPLICATION_SMILE, SMILE));
+
+    /**
+     * Unmarshaller reading one framed JSON CHW object of the streaming endpoint.
+     */
+    public static final Unmarshaller<ByteString, ChwDetails> CHW_UNMARSHALLER = Unmarshaller.sync(bytes -> decodeChw(JSON, bytes));
+
+    /**
+     * The wire formats of the eligibility endpoints, in order of preference when the client accepts several.
+     */
+    public enum Format {
+        JSON(ContentTypes.APPLICATION_JSON, EligibilityCodec.JSON),
+        CBOR(CustomJacksonSupport.APPLICATION_CBOR.toContentType(), EligibilityCodec.CBOR),
+        SMILE(CustomJacksonSupport.APPLICATION_SMILE.toContentType(), EligibilityCodec.SMILE);
+
+        private final ContentType contentType;
+        private final JsonFactory factory;
+
+        Format(ContentType contentType, JsonFactory factory) {
+            this.contentType = contentType;
+            this.factory = factory;
+        }
+
+        /**
+         * @return The Content-Type of the format.
+         */
+        public ContentType contentType() {
+            return contentType;
+        }
+
+        /**
+         * @return The Jackson factory reading and writing the format.
+         */
+        public JsonFactory factory() {
+            return factory;
+        }
+
+        /**
+         * Picks the response format the same way {@link EligibilityCodec#resultsMarshaller(LongConsumer)} does: the format with the highest
+         * quality in the Accept header, JSON first on ties and when there is no Accept header.
+         *
+         * @param accept The Accept header of the request, if any.
+         * @return The format, or an empty Optional if the client accepts none of them.
+         */
+        public static Optional<Format> negotiate(Optional<Accept> accept) {
+            if (accept.isEmpty()) {
+                return Optional.of(JSON);
+            }
+            Format best = null;
+            float bestQuality = 0;
+            for (Format format : values()) {
+                float quality = 0;
+                for (MediaRange range : accept.get().getMediaRanges()) {
+                    if (range.matches(format.contentType.mediaType())) {
+                        quality = Math.max(quality, range.qValue());
+                    }
+                }
+                if (quality > bestQuality) {
+                    best = format;
+                    bestQuality = quality;
+                }
+            }
+            return Optional.ofNullable(best);
+        }
+    }
+
+    /**
+     * Reads an eligibility request.
+     * <p>
+     * Malformed input is rejected as databinding rejects it: a CHW that is not an object, a month, year or CHW
+     * field that is not a scalar, or input ending before the request object does.
+     * </p>
+     *
+     * @param parser A parser positioned before the request object.
+     * @return The request, with its CHWs held in a {@link ChwCohort}.
+     * @throws IOException If the input is not a valid request.
+     */
+    public static EligibleChwCheckRequest readRequest(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected an eligibility request object");
+        }
+        Period period = null;
+        ChwCohort chws = null;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("period".equals(field) && value != JsonToken.VALUE_NULL) {
+                expect(parser, value, JsonToken.START_OBJECT, "Expected a period object");
+                period = readPeriod(parser);
+            } else if ("chws".equals(field) && value != JsonToken.VALUE_NULL) {
+                expect(parser, value, JsonToken.START_ARRAY, "Expected an array of CHWs");
+                chws = readChws(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        expectEndObject(parser, token);
+        return new EligibleChwCheckRequest(period, chws);
+    }
+
+    private static Period readPeriod(JsonParser parser) throws IOException {
+        Period period = new Period();
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("month".equals(field)) {
+                period.setMonth(scalarValue(parser));
+            } else if ("year".equals(field)) {
+                period.setYear(scalarValue(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        expectEndObject(parser, token);
+        return period;
+    }
+
+    private static ChwCohort readChws(JsonParser parser) throws IOException {
+        String[] nationalIdentificationNumbers = new String[INITIAL_CAPACITY];
+        String[] providerIds = new String[INITIAL_CAPACITY];
+        int size = 0;
+        JsonToken element;
+        while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+            expect(parser, element, JsonToken.START_OBJECT, "Expected a CHW object");
+            if (size == providerIds.length) {
+                nationalIdentificationNumbers = Arrays.copyOf(nationalIdentificationNumbers, size * 2);
+                providerIds = Arrays.copyOf(providerIds, size * 2);
+            }
+            readChw(parser, nationalIdentificationNumbers, providerIds, size);
+            size++;
+        }
+        return new ChwCohort(nationalIdentificationNumbers, providerIds, size);
+    }
+
+    /**
+     * Reads the fields of a CHW object whose start has been read into the given slot of the arrays.
+     */
+    private static void readChw(JsonParser parser, String[] nationalIdentificationNumbers, String[] providerIds, int index) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("NationalIdentificationNumber".equals(field)) {
+                nationalIdentificationNumbers[index] = scalarValue(parser);
+            } else if ("OpenmrsProviderId".equals(field)) {
+                providerIds[index] = scalarValue(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        expectEndObject(parser, token);
+    }
+
+    /**
+     * Decodes one CHW object, as framed by the streaming endpoint.
+     *
+     * @param factory The factory of the wire format.
+     * @param bytes   The encoded CHW.
+     * @return The CHW.
+     */
+    public static ChwDetails decodeChw(JsonFactory factory, ByteString bytes) {
+        try (JsonParser parser = factory.createParser(bytes.toArrayUnsafe())) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT, "Expected a CHW object");
+            String[] nationalIdentificationNumber = new String[1];
+            String[] providerId = new String[1];
+            readChw(parser, nationalIdentificationNumber, providerId, 0);
+            if (parser.nextToken() != null) {
+                throw new JsonParseException(parser, "Unexpected content after the CHW");
+            }
+            return new ChwDetails(nationalIdentificationNumber[0], providerId[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The text of the current scalar value, or null for a null value.
+     * @throws JsonParseException If the current value is an object or an array.
+     */
+    private static String scalarValue(JsonParser parser) throws IOException {
+        if (!parser.currentToken().isScalarValue()) {
+            throw new JsonParseException(parser, "Expected a scalar value for " + parser.currentName());
+        }
+        return parser.getValueAsString();
+    }
+
+    /**
+     * @throws JsonParseException If the token is not the expected one, or the input ended (a null token).
+     */
+    private static void expect(JsonParser parser, JsonToken token, JsonToken expected, String message) throws IOException {
+        if (token == null) {
+            throw new JsonParseException(parser, "Unexpected end of input");
+        }
+        if (token != expected) {
+            throw new JsonParseException(parser, message + ", got " + token);
+        }
+    }
+
+    private static void expectEndObject(JsonParser parser, JsonToken token) throws IOException {
+        expect(parser, token, JsonToken.END_OBJECT, "Expected a field name or the end of the object");
+    }
+
+    /**
+     * Writes eligibility results as an array, in the layout of {@link ChwEligibilityResults}. Results held in an
+     * {@link EligibilityResultList} are written from its per-provider verdicts without materializing them.
+     *
+     * @param generator The generator to write to.
+     * @param results   The results to write.
+     * @throws IOException If the output could not be written.
+     */
+    public static void writeResults(JsonGenerator generator, List<ChwEligibilityResults> results) throws IOException {
+        generator.writeStartArray(results, results.size());
+        if (results instanceof EligibilityResultList verdicts) {
+            for (int i = 0; i < verdicts.size(); i++) {
+                writeResult(generator, verdicts.nationalIdentificationNumber(i), verdicts.isEligible(i),
+                        verdicts.activity(i), verdicts.failedRules(i));
+            }
+        } else {
+            for (ChwEligibilityResults result : results) {
+                writeResult(generator, result.getNationalIdentificationNumber(), result.isEligible(),
+                        result.getActivity(), result.getFailedRules());
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writeResult(JsonGenerator generator, String nationalIdentificationNumber, boolean eligible,
+                                    ActivityCounts activity, List<String> failedRules) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("NationalIdentificationNumber", nationalIdentificationNumber);
+        generator.writeBooleanField("Eligible", eligible);
+        if (activity != null) {
+            generator.writeObjectFieldStart("Activity");
+            generator.writeNumberField("ClientServices", activity.getClientServices());
+            generator.writeNumberField("HouseholdServices", activity.getHouseholdServices());
+            generator.writeNumberField("DeathRegistrations", activity.getDeathRegistrations());
+            generator.writeNumberField("MobilizationServices", activity.getMobilizationServices());
+            generator.writeEndObject();
+        }
+        if (failedRules != null) {
+            generator.writeArrayFieldStart("FailedRules");
+            for (String failedRule : failedRules) {
+                generator.writeString(failedRule);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Encodes eligibility results.
+     *
+     * @param factory The factory of the wire format.
+     * @param results The results to encode.
+     * @return The encoded results.
+     */
+    public static ByteString encodeResults(JsonFactory factory, List<ChwEligibilityResults> results) {
+        ByteStringBuilder builder = ByteString.createBuilder();
+        try (OutputStream out = builder.asOutputStream();
+             JsonGenerator generator = factory.createGenerator(out)) {
+            writeResults(generator, results);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return builder.result();
+    }
+
+    /**
+     * Encodes eligibility results as JSON array elements separated by commas, without the enclosing brackets, so
+     * the results of consecutive batches can be written into one streamed array.
+     *
+     * @param results The results to encode; not empty.
+     * @return The encoded results.
+     */
+    public static ByteString encodeResultElements(List<ChwEligibilityResults> results) {
+        ByteString array = encodeResults(JSON, results);
+        return array.slice(1, array.size() - 1);
+    }
+
+    /**
+     * Encodes the element ending a streamed results array whose remaining CHWs could not be checked, as
+     * {@code {"Error": message, "Retryable": retryable}}. Results never have an "Error" field, so clients can
+     * tell it apart from them.
+     *
+     * @param message   Why the stream ended early.
+     * @param retryable True if the remaining CHWs can be sent again later.
+     * @return The encoded element.
+     */
+    public static ByteString encodeStreamError(String message, boolean retryable) {
+        ByteStringBuilder builder = ByteString.createBuilder();
+        try (OutputStream out = builder.asOutputStream();
+             JsonGenerator generator = JSON.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("Error", message);
+            generator.writeBooleanField("Retryable", retryable);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return builder.result();
+    }
+
+    /**
+     * Decodes an eligibility request.
+     *
+     * @param factory The factory of the wire format.
+     * @param bytes   The encoded request.
+     * @return The request.
+     */
+    public static EligibleChwCheckRequest decodeRequest(JsonFactory factory, ByteString bytes) {
+        try (JsonParser parser = factory.createParser(bytes.toArrayUnsafe())) {
+            EligibleChwCheckRequest request = readRequest(parser);
+            if (parser.nextToken() != null) {
+                throw new JsonParseException(parser, "Unexpected content after the eligibility request");
+            }
+            return request;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Unmarshaller<HttpEntity, EligibleChwCheckRequest> requestUnmarshaller(MediaType mediaType, JsonFactory factory) {
+        return Unmarshaller.forMediaType(mediaType, Unmarshaller.entityToByteString().thenApply(bytes -> decodeRequest(factory, bytes)));
+    }
+
+    /**
+     * Marshaller writing eligibility results as JSON, CBOR or Smile depending on the Accept header; JSON when the
+     * client does not ask for a format. Reports how long encoding took.
+     *
+     * @param encodeNanos Receives the time spent encoding the results, in nanoseconds, once they are encoded.
+     * @return The marshaller.
+     */
+    public static Marshaller<List<ChwEligibilityResults>, RequestEntity> resultsMarshaller(LongConsumer encodeNanos) {
+        return Marshaller.oneOf(
+                resultsMarshaller(ContentTypes.APPLICATION_JSON, JSON, encodeNanos),
+                resultsMarshaller(CustomJacksonSupport.APPLICATION_CBOR.toContentType(), CBOR, encodeNanos),
+                resultsMarshaller(CustomJacksonSupport.APPLICATION_SMILE.toContentType(), SMILE, encodeNanos));
+    }
+
+    private static Marshaller<List<ChwEligibilityResults>, RequestEntity> resultsMarshaller(ContentType contentType, JsonFactory factory,
+                                                                                            LongConsumer encodeNanos) {
+        return Marshaller.withFixedContentType(contentType, results -> {
+            long start = System.nanoTime();
+            ByteString encoded = encodeResults(factory, results);
+            encodeNanos.accept(System.nanoTime() - start);
+            return HttpEntities.create(contentType, encoded);
+        });
+    }
+}
@@ -0,0 +1,325 @@
+package tz.go.moh.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tz.go.moh.domain.ActivityCounts;
+import tz.go.moh.metrics.ServiceMetrics;
+import tz.go.moh.tracing.RequestTrace;
+import tz.go.moh.tracing.Stage;
+import tz.go.moh.util.DatabaseConnectionFactory;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Maintains a compact per-provider, per-month rollup of the activity recorded in the four HPS service tables.
+ * <p>
+ * Each row of {@code chw_monthly_activity} holds the per-source activity counts and the last event date of one
+ * provider in one month, so an eligibility check for a materialized month becomes a primary-key lookup per CHW
+ * instead of a scan of the raw service tables. {@code chw_monthly_activity_months} records which months have
+ * been materialized, the latest event date included (the high-water mark) and when the month was last refreshed.
+ * </p>
+ * <p>
+ * The service tables only carry an event date, so refreshes are incremental by month: every refresh re-aggregates
+ * the months from the high-water mark month (minus a configurable number of reopened months, to catch late
+ * entries) up to the current month. Older months are closed and never rescanned; historical months are loaded
+ * with {@link #backfill(YearMonth, YearMonth)}.
+ * </p>
+ */
+public class MonthlyActivityRollup {
+    private final static Logger log = LoggerFactory.getLogger(MonthlyActivityRollup.class);
+
+    private static final String CREATE_ACTIVITY_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS chw_monthly_activity (" +
+            "   provider_id VARCHAR(255) NOT NULL, " +
+            "   activity_month DATE NOT NULL, " +
+            "   client_services INTEGER NOT NULL DEFAULT 0, " +
+            "   household_services INTEGER NOT NULL DEFAULT 0, " +
+            "   death_registrations INTEGER NOT NULL DEFAULT 0, " +
+            "   mobilization_services INTEGER NOT NULL DEFAULT 0, " +
+            "   last_event_date DATE, " +
+            "   PRIMARY KEY (provider_id, activity_month))";
+
+    private static final String CREATE_MONTHS_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS chw_monthly_activity_months (" +
+            "   activity_month DATE PRIMARY KEY, " +
+            "   high_water_mark DATE, " +
+            "   refreshed_at TIMESTAMPTZ NOT NULL)";
+
+    /**
+     * First key of the transaction-level advisory locks serializing the refreshes of a month, the second being the
+     * month itself; spells "CHWM".
+     */
+    private static final int MONTH_LOCK_CLASS = 0x4348574D;
+
+    private static final String LOCK_MONTH_SQL =
+            "SELECT pg_advisory_xact_lock(?, ?)";
+
+    private static final String DELETE_MONTH_SQL =
+            "DELETE FROM chw_monthly_activity WHERE activity_month = ?";
+
+    private static final String AGGREGATE_MONTH_SQL =
+            "WITH bounds AS (SELECT ?::date AS start_date, ?::date AS end_date) " +
+            "INSERT INTO chw_monthly_activity (provider_id, activity_month, client_services, household_services, " +
+            "                                  death_registrations, mobilization_services, last_event_date) " +
+            "SELECT t.provider_id, (SELECT start_date FROM bounds), " +
+            "       count(*) FILTER (WHERE t.source = 1), " +
+            "       count(*) FILTER (WHERE t.source = 2), " +
+            "       count(*) FILTER (WHERE t.source = 3), " +
+            "       count(*) FILTER (WHERE t.source = 4), " +
+            "       max(t.event_date) " +
+            "FROM (" +
+            "   SELECT s.provider_id, s.event_date, 1 AS source FROM hps_client_services s, bounds b " +
+            "   WHERE s.event_date >= b.start_date AND s.event_date < b.end_date " +
+            "   UNION ALL " +
+            "   SELECT s.provider_id, s.event_date, 2 AS source FROM hps_household_services s, bounds b " +
+            "   WHERE s.event_date >= b.start_date AND s.event_date < b.end_date " +
+            "   UNION ALL " +
+            "   SELECT s.provider_id, s.event_date, 3 AS source FROM hps_death_registrations s, bounds b " +
+            "   WHERE s.event_date >= b.start_date AND s.event_date < b.end_date " +
+            "   UNION ALL " +
+            "   SELECT s.provider_id, s.event_date, 4 AS source FROM hps_mobilization_services s, bounds b " +
+            "   WHERE s.event_date >= b.start_date AND s.event_date < b.end_date " +
+            ") t " +
+            "WHERE t.provider_id IS NOT NULL " +
+            "GROUP BY t.provider_id";
+
+    private static final String UPSERT_MONTH_SQL =
+            "INSERT INTO chw_monthly_activity_months (activity_month, high_water_mark, refreshed_at) " +
+            "SELECT ?::date, max(last_event_date), now() FROM chw_monthly_activity WHERE activity_month = ? " +
+            "ON CONFLICT (activity_month) DO UPDATE " +
+            "SET high_water_mark = EXCLUDED.high_water_mark, refreshed_at = EXCLUDED.refreshed_at";
+
+    private static final String HIGH_WATER_MARK_SQL =
+            "SELECT max(high_water_mark) FROM chw_monthly_activity_months";
+
+    private static final String MONTH_WATERMARK_SQL =
+            "SELECT refreshed_at FROM chw_monthly_activity_months WHERE activity_month = ?";
+
+    private static final String ACTIVITY_SQL =
+            "SELECT provider_id, client_services, household_services, death_registrations, mobilization_services " +
+            "FROM chw_monthly_activity " +
+            "WHERE activity_month = ? AND provider_id = ANY(?)";
+
+    private static final String ALL_ACTIVITY_SQL =
+            "SELECT provider_id, client_services, household_services, death_registrations, mobilization_services " +
+            "FROM chw_monthly_activity " +
+            "WHERE activity_month = ?";
+
+    private final DatabaseConnectionFactory connectionFactory;
+    private final int reopenMonths;
+
+    /**
+     * Constructor for MonthlyActivityRollup.
+     *
+     * @param connectionFactory The pooled connection factory used to query the HPS database.
+     * @param reopenMonths      How many months before the high-water mark month are re-aggregated on every refresh.
+     */
+    public MonthlyActivityRollup(DatabaseConnectionFactory connectionFactory, int reopenMonths) {
+        this.connectionFactory = connectionFactory;
+        this.reopenMonths = reopenMonths;
+    }
+
+    /**
+     * Creates the rollup tables if they do not exist yet.
+     *
+     * @throws SQLException If a database access error occurs.
+     */
+    public void createSchema() throws SQLException {
+        try (Connection conn = connectionFactory.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_ACTIVITY_TABLE_SQL);
+            stmt.execute(CREATE_MONTHS_TABLE_SQL);
+        }
+    }
+
+    /**
+     * Re-aggregates the months from the current high-water mark up to the current month.
+     * If nothing has been materialized yet, only the current month is aggregated.
+     *
+     * @throws SQLException If a database access error occurs.
+     */
+    public void refresh() throws SQLException {
+        YearMonth currentMonth = YearMonth.now();
+        YearMonth from = currentMonth;
+        try (Connection conn = connectionFactory.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(HIGH_WATER_MARK_SQL)) {
+            if (rs.next() && rs.getDate(1) != null) {
+                from = YearMonth.from(rs.getDate(1).toLocalDate()).minusMonths(reopenMonths);
+            }
+        }
+        if (from.isAfter(currentMonth)) {
+            from = currentMonth;
+        }
+        backfill(from, currentMonth);
+    }
+
+    /**
+     * Aggregates every month in the given range, both ends inclusive.
+     *
+     * @param from The first month to aggregate.
+     * @param to   The last month to aggregate.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void backfill(YearMonth from, YearMonth to) throws SQLException {
+        for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            materializeMonth(month);
+        }
+    }
+
+    /**
+     * Rebuilds the rollup rows of one month from the raw service tables in a single transaction, so readers
+     * always see either the previous or the new state of the month.
+     * <p>
+     * The transaction first takes an advisory lock on the month, so concurrent refreshes of the same month, from
+     * several nodes or from the backfill command while the service runs, are applied one after the other instead
+     * of failing on duplicate keys or interleaving their deletes and inserts.
+     * </p>
+     *
+     * @param month The month to aggregate.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void materializeMonth(YearMonth month) throws SQLException {
+        long start = System.nanoTime();
+        Date monthStart = Date.valueOf(month.atDay(1));
+        try (Connection conn = connectionFactory.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement lock = conn.prepareStatement(LOCK_MONTH_SQL);
+                 PreparedStatement delete = conn.prepareStatement(DELETE_MONTH_SQL);
+                 PreparedStatement aggregate = conn.prepareStatement(AGGREGATE_MONTH_SQL);
+                 PreparedStatement upsertMonth = conn.prepareStatement(UPSERT_MONTH_SQL)) {
+                lock.setInt(1, MONTH_LOCK_CLASS);
+                lock.setInt(2, month.getYear() * 12 + month.getMonthValue() - 1);
+                lock.executeQuery().close();
+
+                delete.setDate(1, monthStart);
+                delete.executeUpdate();
+
+                aggregate.setDate(1, monthStart);
+                aggregate.setDate(2, Date.valueOf(month.plusMonths(1).atDay(1)));
+                int providers = aggregate.executeUpdate();
+
+                upsertMonth.setDate(1, monthStart);
+                upsertMonth.setDate(2, monthStart);
+                upsertMonth.executeUpdate();
+
+                conn.commit();
+                log.info("Materialized activity rollup for {}: {} providers in {} ms",
+                        month, providers, (System.nanoTime() - start) / 1_000_000);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Looks up the activity counts of the given providers in a materialized month.
+     *
+     * @param providerIds The OpenMRS provider IDs to check.
+     * @param month       The month to check.
+     * @param deadline    When the caller stops waiting for the results, or null for no deadline.
+     * @return The activity of the providers with the time the month was last refreshed, or an empty Optional if
+     * the month has not been materialized yet.
+     * @throws SQLException If a database access error occurs, or if the deadline passes.
+     */
+    public Optional<ProviderActivity> findActivity(Collection<String> providerIds, YearMonth month, Instant deadline) throws SQLException {
+        Date monthStart = Date.valueOf(month.atDay(1));
+        try (Connection conn = connectionFactory.getReadConnection(month)) {
+            Instant refreshedAt;
+            try (PreparedStatement stmt = conn.prepareStatement(MONTH_WATERMARK_SQL)) {
+                stmt.setDate(1, monthStart);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return Optional.empty();
+                    }
+                    Timestamp timestamp = rs.getTimestamp(1);
+                    refreshedAt = timestamp.toInstant();
+                }
+            }
+
+            Map<String, ActivityCounts> activity = new HashMap<>();
+            if (!providerIds.isEmpty()) {
+                try (PreparedStatement stmt = conn.prepareStatement(ACTIVITY_SQL)) {
+                    String[] idValues = providerIds.toArray(new String[0]);
+                    Array ids = conn.createArrayOf("varchar", idValues);
+                    try {
+                        stmt.setDate(1, monthStart);
+                        stmt.setArray(2, ids);
+                        ProviderActivityRepository.applyDeadline(stmt, deadline);
+                        long executeStart = System.nanoTime();
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            long fetchStart = System.nanoTime();
+                            ServiceMetrics.observeSince(ServiceMetrics.JDBC_EXECUTE, executeStart);
+                            RequestTrace.recordSince(Stage.EXECUTE, executeStart);
+                            int rows = 0;
+                            while (rs.next()) {
+                                rows++;
+                                activity.put(rs.getString(1), new ActivityCounts(rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5)));
+                            }
+                            ServiceMetrics.observeSince(ServiceMetrics.JDBC_FETCH, fetchStart);
+                            RequestTrace.recordSince(Stage.FETCH, fetchStart);
+                            ServiceMetrics.ROWS_FETCHED.inc(rows);
+                        }
+                        connectionFactory.getSlowQueryLog().recordIfSlow("rollup_activity", ACTIVITY_SQL, executeStart,
+                                () -> new Object[]{monthStart, idValues}, () -> connectionFactory.getReadConnection(month));
+                    } finally {
+                        ids.free();
+                    }
+                }
+            }
+            ServiceMetrics.PROVIDERS_RETURNED.inc(activity.size());
+            return Optional.of(new ProviderActivity(activity, refreshedAt));
+        }
+    }
+
+    /**
+     * Loads the activity of every provider in a materialized month, used to pre-load a whole month at startup.
+     *
+     * @param month The month to load.
+     * @return The activity of every provider with activity in the month, with the time the month was last
+     * refreshed, or an empty Optional if the month has not been materialized yet.
+     * @throws SQLException If a database access error occurs.
+     */
+    public Optional<ProviderActivity> findAllActivity(YearMonth month) throws SQLException {
+        Date monthStart = Date.valueOf(month.atDay(1));
+        try (Connection conn = connectionFactory.getReadConnection(month)) {
+            Instant refreshedAt;
+            try (PreparedStatement stmt = conn.prepareStatement(MONTH_WATERMARK_SQL)) {
+                stmt.setDate(1, monthStart);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return Optional.empty();
+                    }
+                    refreshedAt = rs.getTimestamp(1).toInstant();
+                }
+            }
+
+            Map<String, ActivityCounts> activity = new HashMap<>();
+            try (PreparedStatement stmt = conn.prepareStatement(ALL_ACTIVITY_SQL)) {
+                stmt.setDate(1, monthStart);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        activity.put(rs.getString(1), new ActivityCounts(rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5)));
+                    }
+                }
+            }
+            return Optional.of(new ProviderActivity(activity, refreshedAt));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package tz.go.moh.db;
+
+import tz.go.moh.domain.ActivityCounts;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * The activity found for a set of providers in a month, with the time the underlying data was current.
+ *
+ * @param activity The activity counts keyed by OpenMRS provider ID; providers without activity are absent.
+ *                 When only presence was queried, the counts are {@link ActivityCounts#PRESENT}.
+ * @param dataAsOf When the data the answer was computed from was last refreshed.
+ */
+public record ProviderActivity(Map<String, ActivityCounts> activity, Instant dataAsOf) {
+}
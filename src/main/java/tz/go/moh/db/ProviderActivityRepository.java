@@ -0,0 +1,441 @@
+package tz.go.moh.db;
+
+import tz.go.moh.domain.ActivityCounts;
+import tz.go.moh.metrics.ServiceMetrics;
+import tz.go.moh.tracing.RequestTrace;
+import tz.go.moh.tracing.Stage;
+import tz.go.moh.util.DatabaseConnectionFactory;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Runs the eligibility queries against the four HPS service tables.
+ * <p>
+ * The provider IDs are bound as a single array parameter and the SQL text never changes, so the PostgreSQL
+ * driver keeps one server-side prepared statement per pooled connection and reuses its plan across requests.
+ * Each provider is probed with an {@code EXISTS} per source table, which stops at the first matching service
+ * row and lets PostgreSQL use an index on {@code (provider_id, event_date)}; only the distinct qualifying
+ * provider IDs are sent back. When the eligibility rules need per-source counts, a single aggregated query
+ * returns them per provider instead.
+ * </p>
+ * <p>
+ * Every query takes the deadline of the check it belongs to and runs with a query timeout matching the time left,
+ * so the driver cancels statements whose caller has already given up. Connections come from
+ * {@link DatabaseConnectionFactory#getReadConnection(YearMonth)}, so the queries run on a read replica when one
+ * is configured and caught up enough for the month, unless the repository was created to read from the primary.
+ * </p>
+ * <p>
+ * Execute and fetch times are added to the {@link RequestTrace} of the check, and request queries slower than the
+ * configured threshold are handed to the {@link SlowQueryLog}.
+ * </p>
+ */
+public class ProviderActivityRepository {
+    static final String ACTIVE_PROVIDERS_SQL =
+            "WITH bounds AS (SELECT ?::date AS start_date, ?::date AS end_date) " +
+            "SELECT p.provider_id " +
+            "FROM (SELECT DISTINCT unnest(?::varchar[]) AS provider_id) p CROSS JOIN bounds b " +
+            "WHERE EXISTS (SELECT 1 FROM hps_client_services s " +
+            "              WHERE s.provider_id = p.provider_id AND s.event_date >= b.start_date AND s.event_date < b.end_date) " +
+            "   OR EXISTS (SELECT 1 FROM hps_household_services s " +
+            "              WHERE s.provider_id = p.provider_id AND s.event_date >= b.start_date AND s.event_date < b.end_date) " +
+            "   OR EXISTS (SELECT 1 FROM hps_death_registrations s " +
+            "              WHERE s.provider_id = p.provider_id AND s.event_date >= b.start_date AND s.event_date < b.end_date) " +
+            "   OR EXISTS (SELECT 1 FROM hps_mobilization_services s " +
+            "              WHERE s.provider_id = p.provider_id AND s.event_date >= b.start_date AND s.event_date < b.end_date)";
+
+    static final String ACTIVITY_COUNTS_SQL =
+            "SELECT t.provider_id, " +
+            "       count(*) FILTER (WHERE t.source = 1), " +
+            "       count(*) FILTER (WHERE t.source = 2), " +
+            "       count(*) FILTER (WHERE t.source = 3), " +
+            "       count(*) FILTER (WHERE t.source = 4) " +
+            "FROM (" +
+            "   SELECT provider_id, 1 AS source FROM hps_client_services " +
+            "   WHERE provider_id = ANY(?) AND event_date >= ? AND event_date < ? " +
+            "   UNION ALL " +
+            "   SELECT provider_id, 2 AS source FROM hps_household_services " +
+            "   WHERE provider_id = ANY(?) AND event_date >= ? AND event_date < ? " +
+            "   UNION ALL " +
+            "   SELECT provider_id, 3 AS source FROM hps_death_registrations " +
+            "   WHERE provider_id = ANY(?) AND event_date >= ? AND event_date < ? " +
+            "   UNION ALL " +
+            "   SELECT provider_id, 4 AS source FROM hps_mobilization_services " +
+            "   WHERE provider_id = ANY(?) AND event_date >= ? AND event_date < ? " +
+            ") t " +
+            "GROUP BY t.provider_id";
+
+    static final String MONTHLY_ACTIVITY_COUNTS_SQL =
+            "SELECT t.provider_id, date_trunc('month', t.event_date)::date, " +
+            "       count(*) FILTER (WHERE t.source = 1), " +
+            "       count(*) FILTER (WHERE t.source = 2), " +
+            "       count(*) FILTER (WHERE t.source = 3), " +
+            "       count(*) FILTER (WHERE t.source = 4) " +
+            "FROM (" +
+            "   SELECT provider_id, event_date, 1 AS source FROM hps_client_services " +
+            "   WHERE provider_id = ANY(?) AND event_date >= ? AND event_date < ? " +
+            "   UNION ALL " +
+            "   SELECT provider_id, event_date, 2 AS source FROM hps_household_services " +
+            "   WHERE provider_id = ANY(?) AND event_date >= ? AND event_date < ? " +
+            "   UNION ALL " +
+            "   SELECT provider_id, event_date, 3 AS source FROM hps_death_registrations " +
+            "   WHERE provider_id = ANY(?) AND event_date >= ? AND event_date < ? " +
+            "   UNION ALL " +
+            "   SELECT provider_id, event_date, 4 AS source FROM hps_mobilization_services " +
+            "   WHERE provider_id = ANY(?) AND event_date >= ? AND event_date < ? " +
+            ") t " +
+            "GROUP BY 1, 2";
+
+    static final String ALL_ACTIVITY_COUNTS_SQL =
+            "SELECT t.provider_id, " +
+            "       count(*) FILTER (WHERE t.source = 1), " +
+            "       count(*) FILTER (WHERE t.source = 2), " +
+            "       count(*) FILTER (WHERE t.source = 3), " +
+            "       count(*) FILTER (WHERE t.source = 4) " +
+            "FROM (" +
+            "   SELECT provider_id, 1 AS source FROM hps_client_services WHERE event_date >= ? AND event_date < ? " +
+            "   UNION ALL " +
+            "   SELECT provider_id, 2 AS source FROM hps_household_services WHERE event_date >= ? AND event_date < ? " +
+            "   UNION ALL " +
+            "   SELECT provider_id, 3 AS source FROM hps_death_registrations WHERE event_date >= ? AND event_date < ? " +
+            "   UNION ALL " +
+            "   SELECT provider_id, 4 AS source FROM hps_mobilization_services WHERE event_date >= ? AND event_date < ? " +
+            ") t " +
+            "WHERE t.provider_id IS NOT NULL " +
+            "GROUP BY t.provider_id";
+
+    static final String ALL_ACTIVE_PROVIDERS_SQL =
+            "SELECT provider_id FROM hps_client_services WHERE event_date >= ? AND event_date < ? AND provider_id IS NOT NULL " +
+            "UNION " +
+            "SELECT provider_id FROM hps_household_services WHERE event_date >= ? AND event_date < ? AND provider_id IS NOT NULL " +
+            "UNION " +
+            "SELECT provider_id FROM hps_death_registrations WHERE event_date >= ? AND event_date < ? AND provider_id IS NOT NULL " +
+            "UNION " +
+            "SELECT provider_id FROM hps_mobilization_services WHERE event_date >= ? AND event_date < ? AND provider_id IS NOT NULL";
+
+    private static final int SOURCE_TABLES = 4;
+
+    private final DatabaseConnectionFactory connectionFactory;
+    private final boolean readFromPrimary;
+
+    /**
+     * Constructor for ProviderActivityRepository.
+     *
+     * @param connectionFactory The pooled connection factory used to query the HPS database.
+     */
+    public ProviderActivityRepository(DatabaseConnectionFactory connectionFactory) {
+        this(connectionFactory, false);
+    }
+
+    /**
+     * Constructor for ProviderActivityRepository.
+     *
+     * @param connectionFactory The pooled connection factory used to query the HPS database.
+     * @param readFromPrimary   Whether to always query the primary, for callers that must see rows just committed
+     *                          there even when the replicas have not replayed them yet.
+     */
+    public ProviderActivityRepository(DatabaseConnectionFactory connectionFactory, boolean readFromPrimary) {
+        this.connectionFactory = connectionFactory;
+        this.readFromPrimary = readFromPrimary;
+    }
+
+    /**
+     * Finds which of the given providers recorded at least one service in the given month.
+     *
+     * @param providerIds The OpenMRS provider IDs to check.
+     * @param month       The month to check.
+     * @param deadline    When the caller stops waiting for the results, or null for no deadline.
+     * @return The distinct provider IDs with activity in the month.
+     * @throws SQLException If a database access error occurs, or if the deadline passes.
+     */
+    public Set<String> findActiveProviders(Collection<String> providerIds, YearMonth month, Instant deadline) throws SQLException {
+        Set<String> activeProviders = new HashSet<>();
+        if (providerIds.isEmpty()) {
+            return activeProviders;
+        }
+
+        try (Connection conn = readConnection(month);
+             PreparedStatement stmt = conn.prepareStatement(ACTIVE_PROVIDERS_SQL)) {
+            String[] idValues = providerIds.toArray(new String[0]);
+            Array ids = conn.createArrayOf("varchar", idValues);
+            try {
+                Date startDate = Date.valueOf(month.atDay(1));
+                Date endDate = Date.valueOf(month.plusMonths(1).atDay(1));
+                stmt.setDate(1, startDate);
+                stmt.setDate(2, endDate);
+                stmt.setArray(3, ids);
+                applyDeadline(stmt, deadline);
+                long executeStart = System.nanoTime();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    long fetchStart = System.nanoTime();
+                    ServiceMetrics.observeSince(ServiceMetrics.JDBC_EXECUTE, executeStart);
+                    RequestTrace.recordSince(Stage.EXECUTE, executeStart);
+                    int rows = 0;
+                    while (rs.next()) {
+                        rows++;
+                        activeProviders.add(rs.getString(1));
+                    }
+                    ServiceMetrics.observeSince(ServiceMetrics.JDBC_FETCH, fetchStart);
+                    RequestTrace.recordSince(Stage.FETCH, fetchStart);
+                    ServiceMetrics.ROWS_FETCHED.inc(rows);
+                }
+                slowQueries().recordIfSlow("active_providers", ACTIVE_PROVIDERS_SQL, executeStart,
+                        () -> new Object[]{startDate, endDate, idValues}, () -> readConnection(month));
+            } finally {
+                ids.free();
+            }
+        }
+        ServiceMetrics.PROVIDERS_RETURNED.inc(activeProviders.size());
+        return activeProviders;
+    }
+
+    /**
+     * Counts, in a single aggregated query, the services each of the given providers recorded in the given month
+     * per source table.
+     *
+     * @param providerIds The OpenMRS provider IDs to check.
+     * @param month       The month to check.
+     * @param deadline    When the caller stops waiting for the results, or null for no deadline.
+     * @return The activity counts keyed by provider ID; providers without activity are absent.
+     * @throws SQLException If a database access error occurs, or if the deadline passes.
+     */
+    public Map<String, ActivityCounts> findActivityCounts(Collection<String> providerIds, YearMonth month, Instant deadline) throws SQLException {
+        Map<String, ActivityCounts> activity = new HashMap<>();
+        if (providerIds.isEmpty()) {
+            return activity;
+        }
+
+        try (Connection conn = readConnection(month);
+             PreparedStatement stmt = conn.prepareStatement(ACTIVITY_COUNTS_SQL)) {
+            String[] idValues = providerIds.toArray(new String[0]);
+            Array ids = conn.createArrayOf("varchar", idValues);
+            try {
+                bindPerSource(stmt, ids, month, month);
+                applyDeadline(stmt, deadline);
+                long executeStart = System.nanoTime();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    long fetchStart = System.nanoTime();
+                    ServiceMetrics.observeSince(ServiceMetrics.JDBC_EXECUTE, executeStart);
+                    RequestTrace.recordSince(Stage.EXECUTE, executeStart);
+                    int rows = 0;
+                    while (rs.next()) {
+                        rows++;
+                        activity.put(rs.getString(1), new ActivityCounts(rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5)));
+                    }
+                    ServiceMetrics.observeSince(ServiceMetrics.JDBC_FETCH, fetchStart);
+                    RequestTrace.recordSince(Stage.FETCH, fetchStart);
+                    ServiceMetrics.ROWS_FETCHED.inc(rows);
+                }
+                slowQueries().recordIfSlow("activity_counts", ACTIVITY_COUNTS_SQL, executeStart,
+                        () -> perSourceParameters(idValues, month, month), () -> readConnection(month));
+            } finally {
+                ids.free();
+            }
+        }
+        ServiceMetrics.PROVIDERS_RETURNED.inc(activity.size());
+        return activity;
+    }
+
+    /**
+     * Counts, in a single pass over the service tables, the services each of the given providers recorded per
+     * month and source table.
+     *
+     * @param providerIds The OpenMRS provider IDs to check.
+     * @param first       The first month of the range to check.
+     * @param last        The last month of the range to check, inclusive.
+     * @param deadline    When the caller stops waiting for the results, or null for no deadline.
+     * @return The activity counts keyed by provider ID then month; providers and months without activity are absent.
+     * @throws SQLException If a database access error occurs, or if the deadline passes.
+     */
+    public Map<String, Map<YearMonth, ActivityCounts>> findMonthlyActivityCounts(Collection<String> providerIds, YearMonth first, YearMonth last, Instant deadline) throws SQLException {
+        Map<String, Map<YearMonth, ActivityCounts>> activity = new HashMap<>();
+        if (providerIds.isEmpty()) {
+            return activity;
+        }
+
+        try (Connection conn = readConnection(last);
+             PreparedStatement stmt = conn.prepareStatement(MONTHLY_ACTIVITY_COUNTS_SQL)) {
+            String[] idValues = providerIds.toArray(new String[0]);
+            Array ids = conn.createArrayOf("varchar", idValues);
+            try {
+                bindPerSource(stmt, ids, first, last);
+                applyDeadline(stmt, deadline);
+                long executeStart = System.nanoTime();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    long fetchStart = System.nanoTime();
+                    ServiceMetrics.observeSince(ServiceMetrics.JDBC_EXECUTE, executeStart);
+                    RequestTrace.recordSince(Stage.EXECUTE, executeStart);
+                    int rows = 0;
+                    while (rs.next()) {
+                        rows++;
+                        activity.computeIfAbsent(rs.getString(1), id -> new HashMap<>())
+                                .put(YearMonth.from(rs.getDate(2).toLocalDate()),
+                                        new ActivityCounts(rs.getInt(3), rs.getInt(4), rs.getInt(5), rs.getInt(6)));
+                    }
+                    ServiceMetrics.observeSince(ServiceMetrics.JDBC_FETCH, fetchStart);
+                    RequestTrace.recordSince(Stage.FETCH, fetchStart);
+                    ServiceMetrics.ROWS_FETCHED.inc(rows);
+                }
+                slowQueries().recordIfSlow("monthly_activity_counts", MONTHLY_ACTIVITY_COUNTS_SQL, executeStart,
+                        () -> perSourceParameters(idValues, first, last), () -> readConnection(last));
+            } finally {
+                ids.free();
+            }
+        }
+        ServiceMetrics.PROVIDERS_RETURNED.inc(activity.size());
+        return activity;
+    }
+
+    /**
+     * Counts the services of every provider with activity in the given month per source table, used to pre-load
+     * a whole month at startup rather than to answer a request.
+     *
+     * @param month The month to load.
+     * @return The activity counts keyed by provider ID; providers without activity are absent.
+     * @throws SQLException If a database access error occurs.
+     */
+    public Map<String, ActivityCounts> findAllActivityCounts(YearMonth month) throws SQLException {
+        Map<String, ActivityCounts> activity = new HashMap<>();
+        try (Connection conn = readConnection(month);
+             PreparedStatement stmt = conn.prepareStatement(ALL_ACTIVITY_COUNTS_SQL)) {
+            for (int source = 0; source < SOURCE_TABLES; source++) {
+                stmt.setDate(source * 2 + 1, Date.valueOf(month.atDay(1)));
+                stmt.setDate(source * 2 + 2, Date.valueOf(month.plusMonths(1).atDay(1)));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    activity.put(rs.getString(1), new ActivityCounts(rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5)));
+                }
+            }
+        }
+        return activity;
+    }
+
+    /**
+     * Streams the distinct ID of every provider with at least one service in the given month, used to build the
+     * in-memory index of a whole month.
+     *
+     * @param month    The month to scan.
+     * @param consumer Receives each active provider ID once.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void forEachActiveProvider(YearMonth month, Consumer<String> consumer) throws SQLException {
+        try (Connection conn = readConnection(month);
+             PreparedStatement stmt = conn.prepareStatement(ALL_ACTIVE_PROVIDERS_SQL)) {
+            for (int source = 0; source < SOURCE_TABLES; source++) {
+                stmt.setDate(source * 2 + 1, Date.valueOf(month.atDay(1)));
+                stmt.setDate(source * 2 + 2, Date.valueOf(month.plusMonths(1).atDay(1)));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(rs.getString(1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs each eligibility query once with no provider IDs on the given connection, so the driver prepares them
+     * server-side and PostgreSQL plans them before the first real request arrives.
+     *
+     * @param conn  The pooled connection to prepare the statements on.
+     * @param month The month to bind.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void prepareStatements(Connection conn, YearMonth month) throws SQLException {
+        Array ids = conn.createArrayOf("varchar", new String[0]);
+        try {
+            try (PreparedStatement stmt = conn.prepareStatement(ACTIVE_PROVIDERS_SQL)) {
+                stmt.setDate(1, Date.valueOf(month.atDay(1)));
+                stmt.setDate(2, Date.valueOf(month.plusMonths(1).atDay(1)));
+                stmt.setArray(3, ids);
+                stmt.executeQuery().close();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(ACTIVITY_COUNTS_SQL)) {
+                bindPerSource(stmt, ids, month, month);
+                stmt.executeQuery().close();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(MONTHLY_ACTIVITY_COUNTS_SQL)) {
+                bindPerSource(stmt, ids, month, month);
+                stmt.executeQuery().close();
+            }
+        } finally {
+            ids.free();
+        }
+    }
+
+    /**
+     * Borrows a connection for a query over the given month, from the primary or from a read replica.
+     *
+     * @param month The latest month the query reads.
+     * @return A pooled Connection.
+     * @throws SQLException If no connection could be acquired.
+     */
+    private Connection readConnection(YearMonth month) throws SQLException {
+        return readFromPrimary ? connectionFactory.getConnection() : connectionFactory.getReadConnection(month);
+    }
+
+    private SlowQueryLog slowQueries() {
+        return connectionFactory.getSlowQueryLog();
+    }
+
+    /**
+     * Sets the query timeout of a statement to the time left before the deadline, rounded up to whole seconds as
+     * JDBC requires.
+     *
+     * @throws SQLTimeoutException If the deadline has already passed.
+     */
+    static void applyDeadline(Statement stmt, Instant deadline) throws SQLException {
+        if (deadline == null) {
+            return;
+        }
+        long remainingMillis = Duration.between(Instant.now(), deadline).toMillis();
+        if (remainingMillis <= 0) {
+            throw new SQLTimeoutException("Deadline passed before the query started");
+        }
+        stmt.setQueryTimeout((int) ((remainingMillis + 999) / 1000));
+    }
+
+    /**
+     * Binds the provider IDs and the date range once per source table branch of a query.
+     */
+    private static void bindPerSource(PreparedStatement stmt, Array ids, YearMonth first, YearMonth last) throws SQLException {
+        Date startDate = Date.valueOf(first.atDay(1));
+        Date endDate = Date.valueOf(last.plusMonths(1).atDay(1));
+        for (int source = 0; source < SOURCE_TABLES; source++) {
+            stmt.setArray(source * 3 + 1, ids);
+            stmt.setDate(source * 3 + 2, startDate);
+            stmt.setDate(source * 3 + 3, endDate);
+        }
+    }
+
+    /**
+     * The parameters {@link #bindPerSource} binds, for the slow query log.
+     */
+    private static Object[] perSourceParameters(String[] ids, YearMonth first, YearMonth last) {
+        Date startDate = Date.valueOf(first.atDay(1));
+        Date endDate = Date.valueOf(last.plusMonths(1).atDay(1));
+        Object[] parameters = new Object[SOURCE_TABLES * 3];
+        for (int source = 0; source < SOURCE_TABLES; source++) {
+            parameters[source * 3] = ids;
+            parameters[source * 3 + 1] = startDate;
+            parameters[source * 3 + 2] = endDate;
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,221 @@
+package tz.go.moh.db;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tz.go.moh.metrics.ServiceMetrics;
+import tz.go.moh.tracing.RequestTrace;
+import tz.go.moh.util.CustomJacksonObjectMapper;
+
+import java.io.IOException;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Captures eligibility queries slower than a configured threshold for offline analysis.
+ * <p>
+ * Each slow query is written as one JSON line to the {@value #LOGGER_NAME} logger, which logback sends to
+ * {@code logs/slow-queries.log}: the trace ID of the request, the statement, a summary of its parameters and how
+ * long it took. When {@code explain} is enabled, the statement is run again with
+ * {@code EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON)} on a connection of the same kind and the plan is added to the
+ * line. The second run happens on a single background thread, so it never delays the request, and it is limited
+ * to one per statement per {@code min-interval} and to {@code max-pending} queued runs; slow queries beyond that
+ * are logged without a plan, so a database that is slow across the board is not loaded further by its own
+ * diagnostics. The plan comes from a custom plan for the captured parameters, which may differ from the generic
+ * plan a long-lived prepared statement ends up using.
+ * </p>
+ */
+public class SlowQueryLog implements AutoCloseable {
+    /**
+     * Name of the logger the slow query lines are written to.
+     */
+    public static final String LOGGER_NAME = "slow-queries";
+
+    private final static Logger log = LoggerFactory.getLogger(SlowQueryLog.class);
+    private final static Logger slowQueries = LoggerFactory.getLogger(LOGGER_NAME);
+
+    private static final String EXPLAIN_PREFIX = "EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) ";
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final long thresholdNanos;
+    private final long minIntervalNanos;
+    private final int explainTimeoutSeconds;
+    private final ThreadPoolExecutor explainExecutor;
+    private final Map<String, Long> lastExplained = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the slow query log from the {@code chw-status-check-service.database.slow-queries} config block.
+     *
+     * @param config The slow query config block.
+     */
+    public SlowQueryLog(Config config) {
+        this.thresholdNanos = config.getDuration("threshold").toNanos();
+        this.minIntervalNanos = config.getDuration("min-interval").toNanos();
+        this.explainTimeoutSeconds = (int) Math.max(1, config.getDuration("explain-timeout").toSeconds());
+        if (thresholdNanos > 0 && config.getBoolean("explain")) {
+            this.explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(config.getInt("max-pending")), task -> {
+                        Thread thread = new Thread(task, "slow-query-explain");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        } else {
+            this.explainExecutor = null;
+        }
+    }
+
+    /**
+     * Logs a statement if it ran for longer than the threshold, and schedules the capture of its plan.
+     *
+     * @param name        A short stable name of the statement, e.g. {@code active_providers}.
+     * @param sql         The SQL of the statement.
+     * @param startNanos  The {@link System#nanoTime()} reading taken when the statement was executed.
+     * @param parameters  The parameters bound to the statement, in order; {@code String[]} values are bound as
+     *                    varchar arrays. Only called if the statement was slow.
+     * @param connections Borrows a connection of the same kind the statement ran on, to run it again.
+     */
+    public void recordIfSlow(String name, String sql, long startNanos, Supplier<Object[]> parameters, ConnectionSupplier connections) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (thresholdNanos <= 0 || elapsedNanos < thresholdNanos) {
+            return;
+        }
+        ServiceMetrics.SLOW_QUERIES.labels(name).inc();
+        String traceId = RequestTrace.currentTraceId();
+        log.warn("Slow query {} took {} ms (trace {})", name, elapsedNanos / 1_000_000, traceId);
+
+        Object[] values = parameters.get();
+        ObjectNode entry = CustomJacksonObjectMapper.mapper.createObjectNode();
+        entry.put("timestamp", Instant.now().toString());
+        entry.put("traceId", traceId);
+        entry.put("query", name);
+        entry.put("durationMs", elapsedNanos / NANOS_PER_MILLI);
+        entry.put("thresholdMs", thresholdNanos / NANOS_PER_MILLI);
+        entry.set("parameters", summarize(values));
+        entry.put("sql", sql);
+
+        if (explainExecutor == null) {
+            write(entry);
+            return;
+        }
+        if (!claim(name)) {
+            entry.put("planSkipped", "captured for this query less than min-interval ago");
+            write(entry);
+            return;
+        }
+        try {
+            explainExecutor.execute(() -> {
+                try {
+                    entry.set("plan", explain(sql, values, connections));
+                } catch (SQLException | IOException | RuntimeException e) {
+                    entry.put("planError", e.toString());
+                }
+                write(entry);
+            });
+        } catch (RejectedExecutionException e) {
+            entry.put("planSkipped", "max-pending plan captures already queued");
+            write(entry);
+        }
+    }
+
+    /**
+     * Takes the per-statement capture slot if the last plan of the statement is older than min-interval.
+     */
+    private boolean claim(String name) {
+        long now = System.nanoTime();
+        Long previous = lastExplained.get(name);
+        if (previous != null && now - previous < minIntervalNanos) {
+            return false;
+        }
+        return previous == null ? lastExplained.putIfAbsent(name, now) == null : lastExplained.replace(name, previous, now);
+    }
+
+    private JsonNode explain(String sql, Object[] parameters, ConnectionSupplier connections) throws SQLException, IOException {
+        try (Connection conn = connections.get();
+             PreparedStatement stmt = conn.prepareStatement(EXPLAIN_PREFIX + sql)) {
+            List<Array> arrays = new ArrayList<>();
+            try {
+                for (int i = 0; i < parameters.length; i++) {
+                    if (parameters[i] instanceof String[] values) {
+                        Array array = conn.createArrayOf("varchar", values);
+                        arrays.add(array);
+                        stmt.setArray(i + 1, array);
+                    } else {
+                        stmt.setObject(i + 1, parameters[i]);
+                    }
+                }
+                stmt.setQueryTimeout(explainTimeoutSeconds);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    return CustomJacksonObjectMapper.mapper.readTree(rs.getString(1));
+                }
+            } finally {
+                for (Array array : arrays) {
+                    array.free();
+                }
+            }
+        }
+    }
+
+    /**
+     * Summarizes the parameters for the log: provider ID arrays are reduced to their length, which can run into
+     * the tens of thousands, and the rest is written as text.
+     */
+    private static ArrayNode summarize(Object[] parameters) {
+        ArrayNode summary = CustomJacksonObjectMapper.mapper.createArrayNode();
+        for (Object parameter : parameters) {
+            if (parameter instanceof String[] values) {
+                summary.addObject().put("varcharArrayLength", values.length);
+            } else {
+                summary.add(String.valueOf(parameter));
+            }
+        }
+        return summary;
+    }
+
+    private static void write(ObjectNode entry) {
+        try {
+            slowQueries.info(CustomJacksonObjectMapper.mapper.writeValueAsString(entry));
+        } catch (JsonProcessingException e) {
+            log.warn("Could not write slow query entry: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Stops capturing plans; captures still queued are dropped.
+     */
+    @Override
+    public void close() {
+        if (explainExecutor != null) {
+            explainExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Borrows a database connection.
+     */
+    @FunctionalInterface
+    public interface ConnectionSupplier {
+        /**
+         * @return A pooled connection, closed by the caller.
+         * @throws SQLException If no connection could be acquired.
+         */
+        Connection get() throws SQLException;
+    }
+}
@@ -0,0 +1,112 @@
+package tz.go.moh.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The number of services a CHW recorded in a month, per HPS source table.
+ * <p>
+ * Instances are immutable, so {@link #NONE}, {@link #PRESENT} and the counts held by the caches can be shared
+ * between threads and requests.
+ * </p>
+ */
+public class ActivityCounts {
+    /**
+     * Counts of a CHW without any activity in the month.
+     */
+    public static final ActivityCounts NONE = new ActivityCounts(0, 0, 0, 0);
+
+    /**
+     * Marker for a CHW known to have activity in the month whose services were not counted. Only used when the
+     * eligibility rules do not need counts, and never returned to clients.
+     */
+    public static final ActivityCounts PRESENT = new ActivityCounts(1, 0, 0, 0);
+
+    /**
+     * The number of rows in {@code hps_client_services}.
+     */
+    @JsonProperty("ClientServices")
+    private final int clientServices;
+
+    /**
+     * The number of rows in {@code hps_household_services}.
+     */
+    @JsonProperty("HouseholdServices")
+    private final int householdServices;
+
+    /**
+     * The number of rows in {@code hps_death_registrations}.
+     */
+    @JsonProperty("DeathRegistrations")
+    private final int deathRegistrations;
+
+    /**
+     * The number of rows in {@code hps_mobilization_services}.
+     */
+    @JsonProperty("MobilizationServices")
+    private final int mobilizationServices;
+
+    /**
+     * Constructor for ActivityCounts.
+     *
+     * @param clientServices       The number of client services.
+     * @param householdServices    The number of household services.
+     * @param deathRegistrations   The number of death registrations.
+     * @param mobilizationServices The number of mobilization services.
+     */
+    @JsonCreator
+    public ActivityCounts(@JsonProperty("ClientServices") int clientServices,
+                          @JsonProperty("HouseholdServices") int householdServices,
+                          @JsonProperty("DeathRegistrations") int deathRegistrations,
+                          @JsonProperty("MobilizationServices") int mobilizationServices) {
+        this.clientServices = clientServices;
+        this.householdServices = householdServices;
+        this.deathRegistrations = deathRegistrations;
+        this.mobilizationServices = mobilizationServices;
+    }
+
+    public int getClientServices() {
+        return clientServices;
+    }
+
+    public int getHouseholdServices() {
+        return householdServices;
+    }
+
+    public int getDeathRegistrations() {
+        return deathRegistrations;
+    }
+
+    public int getMobilizationServices() {
+        return mobilizationServices;
+    }
+
+    /**
+     * Gets the number of services across all source tables.
+     *
+     * @return The total number of services.
+     */
+    public int total() {
+        return clientServices + householdServices + deathRegistrations + mobilizationServices;
+    }
+
+    /**
+     * Gets the number of source tables with at least one service.
+     *
+     * @return The number of active source tables.
+     */
+    public int activeSources() {
+        return (clientServices > 0 ? 1 : 0) + (householdServices > 0 ? 1 : 0)
+                + (deathRegistrations > 0 ? 1 : 0) + (mobilizationServices > 0 ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "ActivityCounts{" +
+                "clientServices=" + clientServices +
+                ", householdServices=" + householdServices +
+                ", deathRegistrations=" + deathRegistrations +
+                ", mobilizationServices=" + mobilizationServices +
+                '}';
+    }
+}
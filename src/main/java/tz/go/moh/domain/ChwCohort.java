@@ -0,0 +1,126 @@
+package tz.go.moh.domain;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A compact, read-only list of CHWs backed by two parallel arrays of national identification numbers and provider
+ * IDs, as read by the streaming request codec.
+ * <p>
+ * The eligibility check walks the arrays directly through {@link #nationalIdentificationNumber(int)} and
+ * {@link #providerId(int)}; {@link #get(int)} builds a {@link ChwDetails} on demand for code that still needs one.
+ * </p>
+ */
+public final class ChwCohort extends AbstractList<ChwDetails> implements RandomAccess {
+    private final String[] nationalIdentificationNumbers;
+    private final String[] providerIds;
+    private final int size;
+
+    /**
+     * Constructor for ChwCohort. The arrays are used as-is, not copied.
+     *
+     * @param nationalIdentificationNumbers The national identification numbers, in request order.
+     * @param providerIds                   The OpenMRS provider IDs, in request order; entries may be null.
+     * @param size                          The number of CHWs, at most the length of the arrays.
+     */
+    public ChwCohort(String[] nationalIdentificationNumbers, String[] providerIds, int size) {
+        this.nationalIdentificationNumbers = nationalIdentificationNumbers;
+        this.providerIds = providerIds;
+        this.size = size;
+    }
+
+    /**
+     * Returns the given CHWs as a cohort, copying them into arrays unless they already are one.
+     *
+     * @param chws The CHWs.
+     * @return The cohort.
+     */
+    public static ChwCohort of(List<ChwDetails> chws) {
+        if (chws instanceof ChwCohort cohort) {
+            return cohort;
+        }
+        String[] nationalIdentificationNumbers = new String[chws.size()];
+        String[] providerIds = new String[chws.size()];
+        int i = 0;
+        for (ChwDetails chw : chws) {
+            nationalIdentificationNumbers[i] = chw.getNationalIdentificationNumber();
+            providerIds[i] = chw.getOpenmrsProviderId();
+            i++;
+        }
+        return new ChwCohort(nationalIdentificationNumbers, providerIds, i);
+    }
+
+    /**
+     * Concatenates lists of CHWs into one cohort. The arrays of cohorts are copied as-is, without building a
+     * {@link ChwDetails} per CHW.
+     *
+     * @param parts The lists to concatenate, in order; null lists are skipped.
+     * @return The cohort of every CHW of the lists.
+     */
+    public static ChwCohort concat(List<List<ChwDetails>> parts) {
+        int total = 0;
+        for (List<ChwDetails> part : parts) {
+            total += part != null ? part.size() : 0;
+        }
+        String[] nationalIdentificationNumbers = new String[total];
+        String[] providerIds = new String[total];
+        int size = 0;
+        for (List<ChwDetails> part : parts) {
+            if (part instanceof ChwCohort cohort) {
+                System.arraycopy(cohort.nationalIdentificationNumbers, 0, nationalIdentificationNumbers, size, cohort.size);
+                System.arraycopy(cohort.providerIds, 0, providerIds, size, cohort.size);
+                size += cohort.size;
+            } else if (part != null) {
+                for (ChwDetails chw : part) {
+                    nationalIdentificationNumbers[size] = chw.getNationalIdentificationNumber();
+                    providerIds[size] = chw.getOpenmrsProviderId();
+                    size++;
+                }
+            }
+        }
+        return new ChwCohort(nationalIdentificationNumbers, providerIds, size);
+    }
+
+    /**
+     * @return The number of CHWs with a provider ID, duplicates included.
+     */
+    public int countProviderIds() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (providerIds[i] != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param index The position of the CHW in the request.
+     * @return The national identification number of the CHW.
+     */
+    public String nationalIdentificationNumber(int index) {
+        return nationalIdentificationNumbers[index];
+    }
+
+    /**
+     * @param index The position of the CHW in the request.
+     * @return The OpenMRS provider ID of the CHW, or null.
+     */
+    public String providerId(int index) {
+        return providerIds[index];
+    }
+
+    @Override
+    public ChwDetails get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return new ChwDetails(nationalIdentificationNumbers[index], providerIds[index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
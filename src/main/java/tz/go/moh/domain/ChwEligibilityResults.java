@@ -1,7 +1,10 @@
 package tz.go.moh.domain;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.List;
+
 public class ChwEligibilityResults {
     /**
      * The national identification number of the CHW.
@@ -15,6 +18,20 @@ public class ChwEligibilityResults {
     @JsonProperty("Eligible")
     private boolean eligible;
 
+    /**
+     * The activity of the CHW in the period per source table, only returned when the breakdown is enabled.
+     */
+    @JsonProperty("Activity")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private ActivityCounts activity;
+
+    /**
+     * The eligibility rules the CHW failed, only returned when the breakdown is enabled.
+     */
+    @JsonProperty("FailedRules")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<String> failedRules;
+
     /**
      * Default constructor for ChwEligibilityResults.
      */
@@ -32,6 +49,21 @@ public class ChwEligibilityResults {
         this.eligible = eligible;
     }
 
+    /**
+     * Constructor for ChwEligibilityResults including the activity breakdown.
+     *
+     * @param nationalIdentificationNumber The national identification number of the CHW.
+     * @param eligible                     Indicates whether the CHW is eligible.
+     * @param activity                     The activity of the CHW in the period per source table.
+     * @param failedRules                  The eligibility rules the CHW failed.
+     */
+    public ChwEligibilityResults(String nationalIdentificationNumber, boolean eligible, ActivityCounts activity, List<String> failedRules) {
+        this.nationalIdentificationNumber = nationalIdentificationNumber;
+        this.eligible = eligible;
+        this.activity = activity;
+        this.failedRules = failedRules;
+    }
+
     /**
      * Gets the national identification number of the CHW.
      *
@@ -63,6 +95,42 @@ public class ChwEligibilityResults {
         this.eligible = eligible;
     }
 
+    /**
+     * Gets the activity of the CHW in the period per source table.
+     *
+     * @return The activity counts, or null if the breakdown is disabled.
+     */
+    public ActivityCounts getActivity() {
+        return activity;
+    }
+
+    /**
+     * Sets the activity of the CHW in the period per source table.
+     *
+     * @param activity The activity counts to set.
+     */
+    public void setActivity(ActivityCounts activity) {
+        this.activity = activity;
+    }
+
+    /**
+     * Gets the eligibility rules the CHW failed.
+     *
+     * @return The failed rules, or null if the breakdown is disabled.
+     */
+    public List<String> getFailedRules() {
+        return failedRules;
+    }
+
+    /**
+     * Sets the eligibility rules the CHW failed.
+     *
+     * @param failedRules The failed rules to set.
+     */
+    public void setFailedRules(List<String> failedRules) {
+        this.failedRules = failedRules;
+    }
+
     /**
      * Returns a string representation of the ChwEligibilityResults object.
      *
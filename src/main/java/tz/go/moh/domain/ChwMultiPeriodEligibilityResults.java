@@ -0,0 +1,83 @@
+package tz.go.moh.domain;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * The eligibility of one CHW in every month of a multi-period check.
+ */
+public class ChwMultiPeriodEligibilityResults {
+    /**
+     * The national identification number of the CHW.
+     */
+    @JsonProperty("NationalIdentificationNumber")
+    private String nationalIdentificationNumber;
+
+    /**
+     * The eligibility of the CHW per requested month, in chronological order.
+     */
+    @JsonProperty("Months")
+    private List<MonthlyEligibility> months;
+
+    /**
+     * Default constructor for ChwMultiPeriodEligibilityResults.
+     */
+    public ChwMultiPeriodEligibilityResults() {
+    }
+
+    /**
+     * Constructor for ChwMultiPeriodEligibilityResults.
+     *
+     * @param nationalIdentificationNumber The national identification number of the CHW.
+     * @param months                       The eligibility of the CHW per requested month.
+     */
+    public ChwMultiPeriodEligibilityResults(String nationalIdentificationNumber, List<MonthlyEligibility> months) {
+        this.nationalIdentificationNumber = nationalIdentificationNumber;
+        this.months = months;
+    }
+
+    /**
+     * Gets the national identification number of the CHW.
+     *
+     * @return The national identification number.
+     */
+    public String getNationalIdentificationNumber() {
+        return nationalIdentificationNumber;
+    }
+
+    /**
+     * Sets the national identification number of the CHW.
+     *
+     * @param nationalIdentificationNumber The national identification number to set.
+     */
+    public void setNationalIdentificationNumber(String nationalIdentificationNumber) {
+        this.nationalIdentificationNumber = nationalIdentificationNumber;
+    }
+
+    /**
+     * Gets the eligibility of the CHW per requested month.
+     *
+     * @return The eligibility per month, in chronological order.
+     */
+    public List<MonthlyEligibility> getMonths() {
+        return months;
+    }
+
+    /**
+     * Sets the eligibility of the CHW per requested month.
+     *
+     * @param months The eligibility per month to set.
+     */
+    public void setMonths(List<MonthlyEligibility> months) {
+        this.months = months;
+    }
+
+    @Override
+    public String toString() {
+        return "ChwMultiPeriodEligibilityResults{" +
+                "nationalIdentificationNumber='" + nationalIdentificationNumber + '\'' +
+                ", months=" + months +
+                '}';
+    }
+}
@@ -0,0 +1,14 @@
+package tz.go.moh.domain;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The outcome of an eligibility check: the results in request order and how fresh the data behind them is.
+ *
+ * @param results           The eligibility results, one per CHW in the request.
+ * @param dataAsOf          When the activity data used to compute the results was last refreshed.
+ * @param distinctProviders The number of distinct provider IDs checked.
+ */
+public record EligibilityOutcome(List<ChwEligibilityResults> results, Instant dataAsOf, int distinctProviders) {
+}
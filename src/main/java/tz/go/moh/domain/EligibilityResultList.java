@@ -0,0 +1,108 @@
+package tz.go.moh.domain;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The eligibility results of a cohort, held as per-provider verdicts and only materialized as
+ * {@link ChwEligibilityResults} when an element is read.
+ * <p>
+ * Verdicts are stored once per distinct provider, in a {@link BitSet} and in arrays indexed as in the
+ * {@link ProviderIndex} of the check; each CHW refers to its provider through an int index. The streaming codec
+ * writes the response straight from these arrays through the accessors below, so no per-CHW result object is
+ * created on the monthly status path. Other consumers see an ordinary read-only list.
+ * </p>
+ */
+public final class EligibilityResultList extends AbstractList<ChwEligibilityResults> implements RandomAccess {
+    private final ChwCohort chws;
+    private final int[] providerIndexes;
+    private final BitSet eligible;
+    private final ActivityCounts[] activity;
+    private final List<String>[] failedRules;
+    private final int from;
+    private final int size;
+
+    /**
+     * Constructor for EligibilityResultList.
+     *
+     * @param chws            The CHWs of the request, in request order.
+     * @param providerIndexes The index of the provider of each CHW.
+     * @param eligible        The providers found eligible, by index.
+     * @param activity        The activity of each provider by index, or null if no breakdown is reported.
+     * @param failedRules     The rules failed by each provider by index, or null if no breakdown is reported.
+     */
+    public EligibilityResultList(ChwCohort chws, int[] providerIndexes, BitSet eligible,
+                                 ActivityCounts[] activity, List<String>[] failedRules) {
+        this(chws, providerIndexes, eligible, activity, failedRules, 0, chws.size());
+    }
+
+    private EligibilityResultList(ChwCohort chws, int[] providerIndexes, BitSet eligible,
+                                  ActivityCounts[] activity, List<String>[] failedRules, int from, int size) {
+        this.chws = chws;
+        this.providerIndexes = providerIndexes;
+        this.eligible = eligible;
+        this.activity = activity;
+        this.failedRules = failedRules;
+        this.from = from;
+        this.size = size;
+    }
+
+    /**
+     * @param index The position of the CHW in this list.
+     * @return The national identification number of the CHW.
+     */
+    public String nationalIdentificationNumber(int index) {
+        return chws.nationalIdentificationNumber(from + index);
+    }
+
+    /**
+     * @param index The position of the CHW in this list.
+     * @return True if the CHW is eligible.
+     */
+    public boolean isEligible(int index) {
+        return eligible.get(providerIndexes[from + index]);
+    }
+
+    /**
+     * @param index The position of the CHW in this list.
+     * @return The activity of the CHW, or null if no breakdown is reported.
+     */
+    public ActivityCounts activity(int index) {
+        return activity != null ? activity[providerIndexes[from + index]] : null;
+    }
+
+    /**
+     * @param index The position of the CHW in this list.
+     * @return The rules failed by the CHW, or null if no breakdown is reported.
+     */
+    public List<String> failedRules(int index) {
+        return failedRules != null ? failedRules[providerIndexes[from + index]] : null;
+    }
+
+    @Override
+    public ChwEligibilityResults get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return new ChwEligibilityResults(nationalIdentificationNumber(index), isEligible(index), activity(index), failedRules(index));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a view of a range of the results that is itself an {@code EligibilityResultList}, so slices handed
+     * back to coalesced requests are still written without materializing each result.
+     */
+    @Override
+    public EligibilityResultList subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size);
+        }
+        return new EligibilityResultList(chws, providerIndexes, eligible, activity, failedRules, from + fromIndex, toIndex - fromIndex);
+    }
+}
@@ -0,0 +1,163 @@
+package tz.go.moh.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * The eligibility of a CHW in one month of a multi-period check.
+ */
+public class MonthlyEligibility {
+    /**
+     * The month of the period.
+     */
+    private String month;
+
+    /**
+     * The year of the period.
+     */
+    private String year;
+
+    /**
+     * Indicates whether the CHW is eligible in the period.
+     */
+    @JsonProperty("Eligible")
+    private boolean eligible;
+
+    /**
+     * The activity of the CHW in the period per source table, only returned when the breakdown is enabled.
+     */
+    @JsonProperty("Activity")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private ActivityCounts activity;
+
+    /**
+     * The eligibility rules the CHW failed in the period, only returned when the breakdown is enabled.
+     */
+    @JsonProperty("FailedRules")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<String> failedRules;
+
+    /**
+     * Default constructor for MonthlyEligibility.
+     */
+    public MonthlyEligibility() {
+    }
+
+    /**
+     * Constructor for MonthlyEligibility.
+     *
+     * @param month       The month of the period.
+     * @param year        The year of the period.
+     * @param eligible    Indicates whether the CHW is eligible in the period.
+     * @param activity    The activity of the CHW in the period per source table, or null.
+     * @param failedRules The eligibility rules the CHW failed in the period, or null.
+     */
+    public MonthlyEligibility(String month, String year, boolean eligible, ActivityCounts activity, List<String> failedRules) {
+        this.month = month;
+        this.year = year;
+        this.eligible = eligible;
+        this.activity = activity;
+        this.failedRules = failedRules;
+    }
+
+    /**
+     * Gets the month of the period.
+     *
+     * @return The month of the period.
+     */
+    public String getMonth() {
+        return month;
+    }
+
+    /**
+     * Sets the month of the period.
+     *
+     * @param month The month of the period.
+     */
+    public void setMonth(String month) {
+        this.month = month;
+    }
+
+    /**
+     * Gets the year of the period.
+     *
+     * @return The year of the period.
+     */
+    public String getYear() {
+        return year;
+    }
+
+    /**
+     * Sets the year of the period.
+     *
+     * @param year The year of the period.
+     */
+    public void setYear(String year) {
+        this.year = year;
+    }
+
+    /**
+     * Checks if the CHW is eligible in the period.
+     *
+     * @return True if the CHW is eligible, false otherwise.
+     */
+    public boolean isEligible() {
+        return eligible;
+    }
+
+    /**
+     * Sets whether the CHW is eligible in the period.
+     *
+     * @param eligible True if the CHW is eligible.
+     */
+    public void setEligible(boolean eligible) {
+        this.eligible = eligible;
+    }
+
+    /**
+     * Gets the activity of the CHW in the period per source table.
+     *
+     * @return The activity counts, or null if the breakdown is disabled.
+     */
+    public ActivityCounts getActivity() {
+        return activity;
+    }
+
+    /**
+     * Sets the activity of the CHW in the period per source table.
+     *
+     * @param activity The activity counts to set.
+     */
+    public void setActivity(ActivityCounts activity) {
+        this.activity = activity;
+    }
+
+    /**
+     * Gets the eligibility rules the CHW failed in the period.
+     *
+     * @return The failed rules, or null if the breakdown is disabled.
+     */
+    public List<String> getFailedRules() {
+        return failedRules;
+    }
+
+    /**
+     * Sets the eligibility rules the CHW failed in the period.
+     *
+     * @param failedRules The failed rules to set.
+     */
+    public void setFailedRules(List<String> failedRules) {
+        this.failedRules = failedRules;
+    }
+
+    @Override
+    public String toString() {
+        return "MonthlyEligibility{" +
+                "month='" + month + '\'' +
+                ", year='" + year + '\'' +
+                ", eligible=" + eligible +
+                '}';
+    }
+}
@@ -0,0 +1,173 @@
+package tz.go.moh.domain;
+
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Represents a request to check the eligibility of Community Health Workers (CHWs) for several months at once.
+ * The months are given either as a list of periods or as an inclusive range from one period to another.
+ */
+public class MultiPeriodChwCheckRequest {
+
+    private List<Period> periods;
+    private Period from;
+    private Period to;
+    private List<ChwDetails> chwEligibilities;
+
+    /**
+     * Default constructor for MultiPeriodChwCheckRequest.
+     */
+    public MultiPeriodChwCheckRequest() {}
+
+    /**
+     * Constructs a MultiPeriodChwCheckRequest for the given periods and CHW details.
+     *
+     * @param periods          The periods for which to check CHW eligibility.
+     * @param chwEligibilities The list of CHW details to check.
+     */
+    public MultiPeriodChwCheckRequest(List<Period> periods, List<ChwDetails> chwEligibilities) {
+        this.periods = periods;
+        this.chwEligibilities = chwEligibilities;
+    }
+
+    /**
+     * Gets the periods for which CHW eligibility is being checked.
+     *
+     * @return The periods, or null if a range is used.
+     */
+    public List<Period> getPeriods() {
+        return periods;
+    }
+
+    /**
+     * Sets the periods for which CHW eligibility is being checked.
+     *
+     * @param periods The periods to set.
+     */
+    public void setPeriods(List<Period> periods) {
+        this.periods = periods;
+    }
+
+    /**
+     * Gets the first period of the range for which CHW eligibility is being checked.
+     *
+     * @return The first period of the range, or null if a list of periods is used.
+     */
+    public Period getFrom() {
+        return from;
+    }
+
+    /**
+     * Sets the first period of the range for which CHW eligibility is being checked.
+     *
+     * @param from The first period of the range.
+     */
+    public void setFrom(Period from) {
+        this.from = from;
+    }
+
+    /**
+     * Gets the last period of the range for which CHW eligibility is being checked.
+     *
+     * @return The last period of the range, or null if a list of periods is used.
+     */
+    public Period getTo() {
+        return to;
+    }
+
+    /**
+     * Sets the last period of the range for which CHW eligibility is being checked.
+     *
+     * @param to The last period of the range.
+     */
+    public void setTo(Period to) {
+        this.to = to;
+    }
+
+    /**
+     * Gets the list of CHW details for which eligibility is being checked.
+     *
+     * @return The list of CHW details.
+     */
+    public List<ChwDetails> getChws() {
+        return chwEligibilities;
+    }
+
+    /**
+     * Sets the list of CHW details for which eligibility is being checked.
+     *
+     * @param chwEligibilities The list of CHW details to set.
+     */
+    public void setChws(List<ChwDetails> chwEligibilities) {
+        this.chwEligibilities = chwEligibilities;
+    }
+
+    /**
+     * Resolves the requested months, from the list of periods if given, otherwise from the range.
+     *
+     * @return The distinct requested months in chronological order.
+     * @throws IllegalArgumentException If neither periods nor a complete range is given, or the range is reversed.
+     */
+    public List<YearMonth> resolveMonths() {
+        return resolveMonths(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Resolves the requested months, from the list of periods if given, otherwise from the range. The size of the
+     * range is checked before its months are enumerated, so an absurd range is rejected without building it.
+     *
+     * @param maxMonths The maximum number of distinct months.
+     * @return The distinct requested months in chronological order.
+     * @throws IllegalArgumentException If neither periods nor a complete range is given, a period is null, the
+     *                                  range is reversed or more than maxMonths months are requested.
+     */
+    public List<YearMonth> resolveMonths(int maxMonths) {
+        TreeSet<YearMonth> months = new TreeSet<>();
+        if (periods != null && !periods.isEmpty()) {
+            for (Period period : periods) {
+                if (period == null) {
+                    throw new IllegalArgumentException("'periods' must not contain null");
+                }
+                months.add(period.toYearMonth());
+                if (months.size() > maxMonths) {
+                    throw tooManyMonths(maxMonths);
+                }
+            }
+        } else if (from != null && to != null) {
+            YearMonth first = from.toYearMonth();
+            long span = ChronoUnit.MONTHS.between(first, to.toYearMonth());
+            if (span < 0) {
+                throw new IllegalArgumentException("'from' must not be after 'to'");
+            }
+            if (span >= maxMonths) {
+                throw tooManyMonths(maxMonths);
+            }
+            for (int i = 0; i <= span; i++) {
+                months.add(first.plusMonths(i));
+            }
+        } else {
+            throw new IllegalArgumentException("Either 'periods' or both 'from' and 'to' must be given");
+        }
+        return List.copyOf(months);
+    }
+
+    private static IllegalArgumentException tooManyMonths(int maxMonths) {
+        return new IllegalArgumentException("At most " + maxMonths + " months can be checked at once");
+    }
+
+    /**
+     * Returns a string representation of the MultiPeriodChwCheckRequest object.
+     * @return A string representation of the object.
+     */
+    @Override
+    public String toString() {
+        return "MultiPeriodChwCheckRequest{" +
+                "periods=" + periods +
+                ", from=" + from +
+                ", to=" + to +
+                ", chws=" + chwEligibilities +
+                '}';
+    }
+}
@@ -1,5 +1,7 @@
 package tz.go.moh.domain;
 
+import java.time.YearMonth;
+
 /**
  * Represents a period defined by a month and a year.
  */
@@ -65,6 +67,16 @@ public class Period {
         this.year = year;
     }
 
+    /**
+     * Converts the period to a {@link YearMonth}.
+     *
+     * @return The month and year of the period.
+     * @throws NumberFormatException If the month or year is not a number.
+     */
+    public YearMonth toYearMonth() {
+        return YearMonth.of(Integer.parseInt(year), Integer.parseInt(month));
+    }
+
     @Override
     public String toString() {
         return "Period{" +
@@ -0,0 +1,161 @@
+package tz.go.moh.domain;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Interns the OpenMRS provider IDs of a request into dense int indices, in order of first appearance.
+ * <p>
+ * Each distinct provider ID is stored once, in an open-addressing table of Strings and ints, so the per-provider
+ * state of a check (activity, verdict) can live in plain arrays and a {@link java.util.BitSet} indexed by the
+ * provider instead of in maps keyed by String. Not thread-safe; one index is built per check.
+ * </p>
+ */
+public final class ProviderIndex {
+    private static final int NOT_FOUND = -1;
+
+    private String[] ids;
+    private int[] slots;
+    private int size;
+
+    /**
+     * Constructor for ProviderIndex.
+     *
+     * @param expectedSize The expected number of distinct provider IDs.
+     */
+    public ProviderIndex(int expectedSize) {
+        this.ids = new String[Math.max(expectedSize, 16)];
+        this.slots = new int[tableSizeFor(ids.length)];
+        Arrays.fill(slots, NOT_FOUND);
+    }
+
+    /**
+     * Builds the index of the provider IDs of a cohort.
+     *
+     * @param chws             The CHWs of the request.
+     * @param providerIndexes  Receives the index of the provider of each CHW, or {@link #size()} of the returned
+     *                         index for CHWs without a provider ID; must be at least as long as the cohort.
+     * @return The index of the distinct provider IDs of the cohort.
+     */
+    public static ProviderIndex of(ChwCohort chws, int[] providerIndexes) {
+        ProviderIndex index = new ProviderIndex(chws.size());
+        for (int i = 0; i < chws.size(); i++) {
+            providerIndexes[i] = chws.providerId(i) != null ? index.intern(chws.providerId(i)) : NOT_FOUND;
+        }
+        for (int i = 0; i < chws.size(); i++) {
+            if (providerIndexes[i] == NOT_FOUND) {
+                providerIndexes[i] = index.size;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of a provider ID, adding it if it is not in the index yet.
+     *
+     * @param providerId The OpenMRS provider ID.
+     * @return The index of the provider ID.
+     */
+    public int intern(String providerId) {
+        int slot = slotOf(providerId);
+        if (slots[slot] != NOT_FOUND) {
+            return slots[slot];
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size] = providerId;
+        slots[slot] = size;
+        size++;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * @param providerId The OpenMRS provider ID.
+     * @return The index of the provider ID, or -1 if it is not in the index.
+     */
+    public int indexOf(String providerId) {
+        return slots[slotOf(providerId)];
+    }
+
+    /**
+     * @param index The index of a provider.
+     * @return The OpenMRS provider ID at that index.
+     */
+    public String providerId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @return The number of distinct provider IDs.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The distinct provider IDs in index order, as a read-only view.
+     */
+    public List<String> providerIds() {
+        return new ProviderIds(ids, size);
+    }
+
+    private int slotOf(String providerId) {
+        int mask = slots.length - 1;
+        int slot = mix(providerId.hashCode()) & mask;
+        while (slots[slot] != NOT_FOUND && !ids[slots[slot]].equals(providerId)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, NOT_FOUND);
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = mix(ids[i].hashCode()) & mask;
+            while (slots[slot] != NOT_FOUND) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i;
+        }
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(Math.max(capacity * 2 - 1, 1)) << 1;
+    }
+
+    private static final class ProviderIds extends AbstractList<String> implements RandomAccess {
+        private final String[] ids;
+        private final int size;
+
+        private ProviderIds(String[] ids, int size) {
+            this.ids = ids;
+            this.size = size;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return ids[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
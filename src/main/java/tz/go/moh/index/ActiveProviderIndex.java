@@ -0,0 +1,381 @@
+package tz.go.moh.index;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.typesafe.config.Config;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tz.go.moh.db.ProviderActivityRepository;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of which providers had any activity in a month, one compressed Roaring bitmap per month over
+ * the ints assigned by a {@link ProviderInternTable}.
+ * <p>
+ * With presence-only eligibility rules, a month present in the index answers a whole request as one hash lookup
+ * and one bitmap probe per provider, without touching PostgreSQL. The most recent {@code resident-months} months
+ * are built at startup and kept in memory; the open months among them, and the {@code reopen-months} months after
+ * them that can still receive late entries, are rebuilt on every {@link #refresh()}. A month leaving that window
+ * is rebuilt once more and then kept as is. Older months are loaded on demand, from a snapshot or from the service
+ * tables, and kept in a small LRU; months older than {@code max-build-age-months} are only loaded from a
+ * snapshot, so a request cannot trigger a scan of the service tables for an arbitrary old month.
+ * </p>
+ * <p>
+ * The intern table and the bitmap of every month are snapshotted to {@code snapshot-directory}, so a restart
+ * loads them from disk instead of rescanning the service tables. The intern table is written before the bitmaps
+ * that refer to it, each file replaced atomically. A snapshot built before its month left the refresh window is
+ * incomplete and is rebuilt rather than loaded.
+ * </p>
+ */
+public class ActiveProviderIndex {
+    private final static Logger log = LoggerFactory.getLogger(ActiveProviderIndex.class);
+
+    private static final String PROVIDERS_FILE = "providers.txt";
+    private static final String MONTH_FILE_SUFFIX = ".roaring";
+
+    private final ProviderActivityRepository activityRepository;
+    private final ProviderInternTable providers = new ProviderInternTable();
+    private final Map<YearMonth, MonthIndex> resident = new ConcurrentHashMap<>();
+    private final Cache<YearMonth, MonthIndex> onDemand;
+    private final int residentMonths;
+    private final int openMonths;
+    private final int reopenMonths;
+    private final int maxBuildAgeMonths;
+    private final Path snapshotDirectory;
+
+    /**
+     * Constructor for ActiveProviderIndex.
+     *
+     * @param indexConfig        The {@code chw-status-check-service.index} config block.
+     * @param activityRepository The repository scanning the service tables when a month has to be built.
+     * @throws IOException If the snapshot directory could not be created.
+     */
+    public ActiveProviderIndex(Config indexConfig, ProviderActivityRepository activityRepository) throws IOException {
+        this.activityRepository = activityRepository;
+        this.residentMonths = indexConfig.getInt("resident-months");
+        this.openMonths = indexConfig.getInt("open-months");
+        this.reopenMonths = indexConfig.getInt("reopen-months");
+        this.maxBuildAgeMonths = indexConfig.getInt("max-build-age-months");
+        this.snapshotDirectory = Files.createDirectories(Path.of(indexConfig.getString("snapshot-directory")));
+        this.onDemand = Caffeine.newBuilder()
+                .maximumSize(indexConfig.getInt("max-on-demand-months"))
+                .build();
+    }
+
+    /**
+     * Loads the intern table from its snapshot. Must be called once, before the first {@link #refresh()}.
+     *
+     * @throws IOException If the snapshot could not be read.
+     */
+    public void loadSnapshot() throws IOException {
+        Path providersFile = snapshotDirectory.resolve(PROVIDERS_FILE);
+        if (!Files.exists(providersFile)) {
+            return;
+        }
+        for (String providerId : Files.readAllLines(providersFile, StandardCharsets.UTF_8)) {
+            providers.intern(providerId);
+        }
+        log.info("Loaded {} interned provider IDs from {}", providers.size(), providersFile);
+    }
+
+    /**
+     * Makes the resident months current: open and reopened months are rebuilt from the service tables, settled
+     * months are loaded from a complete snapshot or built once more, and months that fell out of the resident window
+     * are moved to the on-demand LRU.
+     */
+    public void refresh() {
+        YearMonth currentMonth = YearMonth.now();
+        YearMonth oldestResident = currentMonth.minusMonths(residentMonths - 1L);
+        for (YearMonth month : new ArrayList<>(resident.keySet())) {
+            if (month.isBefore(oldestResident)) {
+                onDemand.put(month, resident.remove(month));
+            }
+        }
+        for (YearMonth month = oldestResident; !month.isAfter(currentMonth); month = month.plusMonths(1)) {
+            try {
+                MonthIndex index = resident.get(month);
+                if (isRefreshed(month)) {
+                    resident.put(month, build(month));
+                } else if (index == null || !isComplete(index)) {
+                    resident.put(month, loadOrBuild(month));
+                }
+            } catch (SQLException | IOException e) {
+                log.warn("Could not refresh the active provider index of {}: {}", month, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Finds the index of a month, loading or building it if it is not in memory. Open and reopened months are only
+     * served once resident, never built on the request path, and months older than {@code max-build-age-months}
+     * are only loaded from their snapshot.
+     *
+     * @param month The month.
+     * @return The index of the month, or an empty Optional if it is not available.
+     */
+    public Optional<MonthIndex> find(YearMonth month) {
+        MonthIndex index = resident.get(month);
+        if (index != null) {
+            return Optional.of(index);
+        }
+        if (isRefreshed(month)) {
+            return Optional.empty();
+        }
+        index = onDemand.getIfPresent(month);
+        if (index != null) {
+            return Optional.of(index);
+        }
+        try {
+            if (month.isBefore(YearMonth.now().minusMonths(maxBuildAgeMonths))) {
+                index = loadSnapshot(month);
+                if (index == null) {
+                    return Optional.empty();
+                }
+            } else {
+                index = loadOrBuild(month);
+            }
+            onDemand.put(month, index);
+            return Optional.of(index);
+        } catch (SQLException | IOException e) {
+            log.warn("Could not load the active provider index of {}: {}", month, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param providerId The OpenMRS provider ID.
+     * @return The int of the provider in the bitmaps, or -1 if the provider never had activity in an indexed month.
+     */
+    public int indexOf(String providerId) {
+        return providers.indexOf(providerId);
+    }
+
+    /**
+     * Finds the providers active in any, or in every, month of a range.
+     *
+     * @param first The first month of the range.
+     * @param last  The last month of the range, inclusive.
+     * @param all   True for providers active in every month (intersection), false for any month (union).
+     * @return The IDs of the matching providers, or an empty Optional if a month of the range is not available.
+     */
+    public Optional<List<String>> findActiveProviders(YearMonth first, YearMonth last, boolean all) {
+        RoaringBitmap combined = null;
+        for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+            Optional<MonthIndex> index = find(month);
+            if (index.isEmpty()) {
+                return Optional.empty();
+            }
+            RoaringBitmap bitmap = index.get().activeProviders();
+            if (combined == null) {
+                combined = bitmap.clone();
+            } else if (all) {
+                combined.and(bitmap);
+            } else {
+                combined.or(bitmap);
+            }
+        }
+        List<String> providerIds = new ArrayList<>(combined != null ? combined.getCardinality() : 0);
+        if (combined != null) {
+            IntIterator iterator = combined.getIntIterator();
+            while (iterator.hasNext()) {
+                providerIds.add(providers.providerId(iterator.next()));
+            }
+        }
+        return Optional.of(providerIds);
+    }
+
+    /**
+     * Reports the months held in memory and the memory they use.
+     *
+     * @return The index statistics.
+     */
+    public IndexStats getStats() {
+        List<MonthStats> months = new ArrayList<>();
+        long bitmapBytes = 0;
+        for (MonthIndex index : resident.values()) {
+            months.add(index.stats(true));
+            bitmapBytes += index.activeProviders().getLongSizeInBytes();
+        }
+        for (MonthIndex index : onDemand.asMap().values()) {
+            months.add(index.stats(false));
+            bitmapBytes += index.activeProviders().getLongSizeInBytes();
+        }
+        months.sort(Comparator.comparing(MonthStats::month).reversed());
+        long internTableBytes = providers.estimatedBytes();
+        return new IndexStats(providers.size(), internTableBytes, bitmapBytes, internTableBytes + bitmapBytes, months);
+    }
+
+    /**
+     * Drops the index of one month from memory and disk, e.g. after late data was loaded for it. The month is built
+     * again on the next refresh or lookup.
+     *
+     * @param month The month to invalidate.
+     */
+    public void invalidateMonth(YearMonth month) {
+        resident.remove(month);
+        onDemand.invalidate(month);
+        try {
+            Files.deleteIfExists(snapshotDirectory.resolve(month + MONTH_FILE_SUFFIX));
+        } catch (IOException e) {
+            log.warn("Could not delete the active provider index snapshot of {}: {}", month, e.getMessage());
+        }
+    }
+
+    /**
+     * Drops the index of every month from memory and disk. The intern table is kept, since provider ints never
+     * change meaning.
+     */
+    public void invalidateAll() {
+        resident.clear();
+        onDemand.invalidateAll();
+        try (DirectoryStream<Path> monthFiles = Files.newDirectoryStream(snapshotDirectory, "*" + MONTH_FILE_SUFFIX)) {
+            for (Path monthFile : monthFiles) {
+                Files.deleteIfExists(monthFile);
+            }
+        } catch (IOException e) {
+            log.warn("Could not delete the active provider index snapshots: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Tells whether a month is rebuilt on every refresh: it is open, or closed recently enough that late entries
+     * are still expected, like the months the activity rollup reopens.
+     */
+    private boolean isRefreshed(YearMonth month) {
+        return !month.isBefore(YearMonth.now().minusMonths(openMonths + reopenMonths - 1L));
+    }
+
+    /**
+     * Tells whether the bitmap of a settled month was built after the month left the refresh window, and so holds
+     * every entry of the month.
+     */
+    private boolean isComplete(MonthIndex index) {
+        Instant settledAt = index.month().plusMonths(openMonths + reopenMonths).atDay(1)
+                .atStartOfDay(ZoneId.systemDefault()).toInstant();
+        return !index.builtAt().isBefore(settledAt);
+    }
+
+    private MonthIndex loadOrBuild(YearMonth month) throws SQLException, IOException {
+        MonthIndex index = loadSnapshot(month);
+        if (index != null) {
+            return index;
+        }
+        return build(month);
+    }
+
+    /**
+     * @return The index of the month from its snapshot, or null if there is no complete snapshot of it.
+     */
+    private MonthIndex loadSnapshot(YearMonth month) throws IOException {
+        Path monthFile = snapshotDirectory.resolve(month + MONTH_FILE_SUFFIX);
+        if (!Files.exists(monthFile)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(monthFile))) {
+            Instant builtAt = Instant.ofEpochMilli(in.readLong());
+            RoaringBitmap bitmap = new RoaringBitmap();
+            bitmap.deserialize(in);
+            MonthIndex index = new MonthIndex(month, bitmap, builtAt);
+            if (isComplete(index)) {
+                return index;
+            }
+        }
+        log.info("Ignoring the active provider index snapshot of {}, taken before the month settled", month);
+        return null;
+    }
+
+    private MonthIndex build(YearMonth month) throws SQLException, IOException {
+        long start = System.nanoTime();
+        Instant builtAt = Instant.now();
+        RoaringBitmap bitmap = new RoaringBitmap();
+        activityRepository.forEachActiveProvider(month, providerId -> bitmap.add(providers.intern(providerId)));
+        bitmap.runOptimize();
+        MonthIndex index = new MonthIndex(month, bitmap, builtAt);
+        saveSnapshot(index);
+        log.info("Indexed {} active providers for {} in {} ms ({} bytes)",
+                bitmap.getCardinality(), month, (System.nanoTime() - start) / 1_000_000, bitmap.getLongSizeInBytes());
+        return index;
+    }
+
+    private void saveSnapshot(MonthIndex index) throws IOException {
+        Path providersTemporary = snapshotDirectory.resolve(PROVIDERS_FILE + ".tmp");
+        Files.write(providersTemporary, providers.snapshot(), StandardCharsets.UTF_8);
+        Files.move(providersTemporary, snapshotDirectory.resolve(PROVIDERS_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Path monthTemporary = snapshotDirectory.resolve(index.month() + MONTH_FILE_SUFFIX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(monthTemporary))) {
+            out.writeLong(index.builtAt().toEpochMilli());
+            index.activeProviders().serialize(out);
+        }
+        Files.move(monthTemporary, snapshotDirectory.resolve(index.month() + MONTH_FILE_SUFFIX),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The providers active in one month. The bitmap is never modified once built.
+     *
+     * @param month           The month.
+     * @param activeProviders The ints of the providers with any activity in the month.
+     * @param builtAt         When the bitmap was built from the service tables.
+     */
+    public record MonthIndex(YearMonth month, RoaringBitmap activeProviders, Instant builtAt) {
+        /**
+         * @param providerIndex The int of a provider, or -1.
+         * @return True if the provider had any activity in the month.
+         */
+        public boolean contains(int providerIndex) {
+            return providerIndex >= 0 && activeProviders.contains(providerIndex);
+        }
+
+        private MonthStats stats(boolean resident) {
+            return new MonthStats(month.toString(), activeProviders.getCardinality(), activeProviders.getLongSizeInBytes(),
+                    builtAt.toString(), resident);
+        }
+    }
+
+    /**
+     * Point-in-time footprint of the index.
+     *
+     * @param internedProviders The number of provider IDs in the intern table.
+     * @param internTableBytes  The estimated memory used by the intern table.
+     * @param bitmapBytes       The memory used by the bitmaps of the months in memory.
+     * @param totalBytes        The estimated memory used by the whole index.
+     * @param months            The months in memory, most recent first.
+     */
+    public record IndexStats(int internedProviders, long internTableBytes, long bitmapBytes, long totalBytes,
+                             List<MonthStats> months) {
+    }
+
+    /**
+     * Footprint of one month of the index.
+     *
+     * @param month           The month, as yyyy-MM.
+     * @param activeProviders The number of providers active in the month.
+     * @param sizeInBytes     The memory used by the bitmap.
+     * @param builtAt         When the bitmap was built.
+     * @param resident        True if the month is kept resident, false if it was loaded on demand.
+     */
+    public record MonthStats(String month, int activeProviders, long sizeInBytes, String builtAt, boolean resident) {
+    }
+}
@@ -0,0 +1,86 @@
+package tz.go.moh.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns every OpenMRS provider ID seen by the {@link ActiveProviderIndex} a stable, dense int, which is what the
+ * per-month bitmaps store.
+ * <p>
+ * IDs are only ever appended, so the int of a provider never changes and bitmaps built at different times (or
+ * loaded from snapshots) agree. Lookups are lock-free; interning a new ID takes a lock.
+ * </p>
+ */
+public class ProviderInternTable {
+    /**
+     * Rough per-entry cost of the map node, the boxed int, the String and the list slot, in bytes.
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final ConcurrentHashMap<String, Integer> indexes = new ConcurrentHashMap<>();
+    private final List<String> providerIds = new ArrayList<>();
+    private long characters;
+
+    /**
+     * Returns the int of a provider ID, assigning the next one if the ID is new.
+     *
+     * @param providerId The OpenMRS provider ID.
+     * @return The int of the provider.
+     */
+    public int intern(String providerId) {
+        Integer index = indexes.get(providerId);
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            index = indexes.get(providerId);
+            if (index != null) {
+                return index;
+            }
+            int next = providerIds.size();
+            providerIds.add(providerId);
+            characters += providerId.length();
+            indexes.put(providerId, next);
+            return next;
+        }
+    }
+
+    /**
+     * @param providerId The OpenMRS provider ID.
+     * @return The int of the provider, or -1 if it has never been interned.
+     */
+    public int indexOf(String providerId) {
+        Integer index = indexes.get(providerId);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @param index The int of a provider.
+     * @return The OpenMRS provider ID.
+     */
+    public synchronized String providerId(int index) {
+        return providerIds.get(index);
+    }
+
+    /**
+     * @return The number of interned provider IDs.
+     */
+    public synchronized int size() {
+        return providerIds.size();
+    }
+
+    /**
+     * @return An estimate of the memory used by the table, in bytes.
+     */
+    public synchronized long estimatedBytes() {
+        return providerIds.size() * (long) ENTRY_OVERHEAD_BYTES + 2 * characters;
+    }
+
+    /**
+     * @return A copy of the interned provider IDs, in int order.
+     */
+    synchronized List<String> snapshot() {
+        return new ArrayList<>(providerIds);
+    }
+}
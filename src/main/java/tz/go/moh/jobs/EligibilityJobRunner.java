@@ -0,0 +1,313 @@
+package tz.go.moh.jobs;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.pattern.StatusReply;
+import com.typesafe.config.Config;
+import tz.go.moh.actors.CheckChwEligibilityStatusProcessor;
+import tz.go.moh.domain.ChwDetails;
+import tz.go.moh.domain.ChwEligibilityResults;
+import tz.go.moh.domain.EligibleChwCheckRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs bulk eligibility jobs in the background, one job and one chunk at a time.
+ * <p>
+ * Jobs are processed in submission order through the shared {@link CheckChwEligibilityStatusProcessor}, in chunks
+ * of {@code chunk-size} CHWs with a pause between chunks, on the dedicated jobs dispatcher. This keeps a national
+ * payroll run from starving interactive requests of connections and threads. After every chunk the results and
+ * the progress are persisted in the {@link JobStore}, and jobs left unfinished by a restart are resumed where they
+ * stopped. A failed chunk is retried after a backoff before the job is marked as failed.
+ * </p>
+ */
+public class EligibilityJobRunner extends AbstractBehavior<EligibilityJobRunner.Command> {
+
+    /**
+     * Config path of the dispatcher the jobs are run on.
+     */
+    public static final String JOBS_DISPATCHER = "chw-status-check-service.jobs-dispatcher";
+
+    private static final Object CHUNK_TIMER = "next-chunk";
+
+    private final CheckChwEligibilityStatusProcessor processor;
+    private final JobStore jobStore;
+    private final Executor jobsExecutor;
+    private final TimerScheduler<Command> timers;
+    private final int chunkSize;
+    private final Duration chunkPause;
+    private final int maxChunkRetries;
+    private final Duration retryBackoff;
+    private final Deque<String> pendingJobs = new ArrayDeque<>();
+
+    // The job being run, if any.
+    private String currentJobId;
+    private JobStatus currentStatus;
+    private List<ChwDetails> currentChws;
+    private EligibleChwCheckRequest currentRequest;
+    private int failedAttempts;
+
+    private EligibilityJobRunner(ActorContext<Command> context, TimerScheduler<Command> timers,
+                                 CheckChwEligibilityStatusProcessor processor, JobStore jobStore) {
+        super(context);
+        this.processor = processor;
+        this.jobStore = jobStore;
+        this.timers = timers;
+        this.jobsExecutor = context.getSystem().dispatchers().lookup(DispatcherSelector.fromConfig(JOBS_DISPATCHER));
+        Config jobsConfig = context.getSystem().settings().config().getConfig("chw-status-check-service.jobs");
+        this.chunkSize = jobsConfig.getInt("chunk-size");
+        this.chunkPause = jobsConfig.getDuration("chunk-pause");
+        this.maxChunkRetries = jobsConfig.getInt("max-chunk-retries");
+        this.retryBackoff = jobsConfig.getDuration("retry-backoff");
+
+        context.pipeToSelf(CompletableFuture.supplyAsync(() -> {
+            try {
+                return jobStore.findUnfinished();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, jobsExecutor), UnfinishedJobsFound::new);
+    }
+
+    /**
+     * Creates a new instance of the EligibilityJobRunner actor. Jobs left unfinished in the store are resumed.
+     *
+     * @param processor The processor that performs the eligibility checks.
+     * @param jobStore  The store persisting the jobs.
+     * @return A Behavior for the EligibilityJobRunner actor.
+     */
+    public static Behavior<Command> create(CheckChwEligibilityStatusProcessor processor, JobStore jobStore) {
+        return Behaviors.setup(context ->
+                Behaviors.withTimers(timers -> new EligibilityJobRunner(context, timers, processor, jobStore)));
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(UnfinishedJobsFound.class, this::onUnfinishedJobsFound)
+                .onMessage(SubmitJob.class, this::onSubmitJob)
+                .onMessage(JobCreated.class, this::onJobCreated)
+                .onMessage(JobResumed.class, this::onJobResumed)
+                .onMessage(ProcessNextChunk.class, this::onProcessNextChunk)
+                .onMessage(RetryJob.class, this::onRetryJob)
+                .onMessage(ChunkProcessed.class, this::onChunkProcessed)
+                .onMessage(JobFailed.class, this::onJobFailed)
+                .build();
+    }
+
+    private Behavior<Command> onUnfinishedJobsFound(UnfinishedJobsFound found) {
+        if (found.failure() != null) {
+            getContext().getLog().error("Could not list the unfinished jobs", unwrap(found.failure()));
+            return this;
+        }
+        for (JobStatus status : found.jobs()) {
+            pendingJobs.add(status.jobId());
+        }
+        if (!found.jobs().isEmpty()) {
+            getContext().getLog().info("Resuming {} unfinished jobs", found.jobs().size());
+        }
+        startNextJob();
+        return this;
+    }
+
+    private Behavior<Command> onSubmitJob(SubmitJob command) {
+        getContext().pipeToSelf(CompletableFuture.supplyAsync(() -> {
+            try {
+                return jobStore.create(command.request());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, jobsExecutor), (status, failure) -> new JobCreated(status, failure, command.replyTo()));
+        return this;
+    }
+
+    private Behavior<Command> onJobCreated(JobCreated created) {
+        if (created.failure() != null) {
+            Throwable cause = unwrap(created.failure());
+            getContext().getLog().error("Could not store the submitted job", cause);
+            created.replyTo().tell(StatusReply.error(cause));
+            return this;
+        }
+        getContext().getLog().info("Queued job {} with {} CHWs", created.status().jobId(), created.status().totalChws());
+        created.replyTo().tell(StatusReply.success(created.status()));
+        pendingJobs.add(created.status().jobId());
+        startNextJob();
+        return this;
+    }
+
+    /**
+     * Loads the next queued job if none is running.
+     */
+    private void startNextJob() {
+        if (currentJobId != null || pendingJobs.isEmpty()) {
+            return;
+        }
+        currentJobId = pendingJobs.poll();
+        failedAttempts = 0;
+        resumeCurrentJob();
+    }
+
+    /**
+     * Reloads the current job from the store, dropping any results written past its recorded progress.
+     */
+    private void resumeCurrentJob() {
+        String jobId = currentJobId;
+        getContext().pipeToSelf(CompletableFuture.supplyAsync(() -> {
+            try {
+                return jobStore.resume(jobId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, jobsExecutor), JobResumed::new);
+    }
+
+    private Behavior<Command> onJobResumed(JobResumed resumed) {
+        if (resumed.failure() != null) {
+            getContext().getLog().error("Could not resume job {}", currentJobId, unwrap(resumed.failure()));
+            finishCurrentJob();
+            return this;
+        }
+        currentStatus = resumed.job().status();
+        currentRequest = resumed.job().request();
+        currentChws = currentRequest.getChws();
+        getContext().getLog().info("Running job {}: {} of {} CHWs done", currentJobId,
+                currentStatus.processedChws(), currentStatus.totalChws());
+        getContext().getSelf().tell(ProcessNextChunk.INSTANCE);
+        return this;
+    }
+
+    private Behavior<Command> onProcessNextChunk(ProcessNextChunk command) {
+        if (currentStatus == null) {
+            return this;
+        }
+        JobStatus status = currentStatus;
+        int from = status.processedChws();
+        List<ChwDetails> chunk = currentChws.subList(from, Math.min(from + chunkSize, currentChws.size()));
+        EligibleChwCheckRequest chunkRequest = new EligibleChwCheckRequest(currentRequest.getPeriod(), chunk);
+        getContext().pipeToSelf(CompletableFuture.supplyAsync(() -> {
+            List<ChwEligibilityResults> results = processor.checkEligibility(chunkRequest).results();
+            try {
+                return jobStore.appendResults(status, results);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, jobsExecutor), ChunkProcessed::new);
+        return this;
+    }
+
+    private Behavior<Command> onRetryJob(RetryJob command) {
+        resumeCurrentJob();
+        return this;
+    }
+
+    private Behavior<Command> onChunkProcessed(ChunkProcessed processed) {
+        if (processed.failure() != null) {
+            Throwable cause = unwrap(processed.failure());
+            failedAttempts++;
+            if (failedAttempts <= maxChunkRetries) {
+                getContext().getLog().warn("Chunk of job {} failed (attempt {} of {}), retrying in {}",
+                        currentJobId, failedAttempts, maxChunkRetries + 1, retryBackoff, cause);
+                // The results may have been written without the progress; reload the job before retrying.
+                currentStatus = null;
+                timers.startSingleTimer(CHUNK_TIMER, new RetryJob(), retryBackoff);
+                return this;
+            }
+            getContext().getLog().error("Job {} failed", currentJobId, cause);
+            markCurrentJobFailed(cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName());
+            return this;
+        }
+
+        failedAttempts = 0;
+        currentStatus = processed.status();
+        if (currentStatus.isFinished()) {
+            getContext().getLog().info("Completed job {} with {} CHWs", currentJobId, currentStatus.totalChws());
+            finishCurrentJob();
+        } else {
+            timers.startSingleTimer(CHUNK_TIMER, ProcessNextChunk.INSTANCE, chunkPause);
+        }
+        return this;
+    }
+
+    private void markCurrentJobFailed(String error) {
+        String jobId = currentJobId;
+        getContext().pipeToSelf(CompletableFuture.supplyAsync(() -> {
+            try {
+                JobStatus status = jobStore.find(jobId).orElseThrow(() -> new IOException("Unknown job " + jobId));
+                return jobStore.fail(status, error);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, jobsExecutor), JobFailed::new);
+    }
+
+    private Behavior<Command> onJobFailed(JobFailed failed) {
+        if (failed.failure() != null) {
+            getContext().getLog().error("Could not mark job {} as failed", currentJobId, unwrap(failed.failure()));
+        }
+        finishCurrentJob();
+        return this;
+    }
+
+    private void finishCurrentJob() {
+        currentJobId = null;
+        currentStatus = null;
+        currentRequest = null;
+        currentChws = null;
+        startNextJob();
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
+    /**
+     * The protocol of the EligibilityJobRunner actor.
+     */
+    public sealed interface Command {
+    }
+
+    /**
+     * Submits a bulk eligibility job.
+     *
+     * @param request The period and the CHWs to check.
+     * @param replyTo The actor reference to reply to with the status of the queued job, or with the failure.
+     */
+    public record SubmitJob(EligibleChwCheckRequest request, ActorRef<StatusReply<JobStatus>> replyTo) implements Command {
+    }
+
+    private record UnfinishedJobsFound(List<JobStatus> jobs, Throwable failure) implements Command {
+    }
+
+    private record JobCreated(JobStatus status, Throwable failure, ActorRef<StatusReply<JobStatus>> replyTo) implements Command {
+    }
+
+    private record JobResumed(JobStore.ResumedJob job, Throwable failure) implements Command {
+    }
+
+    private enum ProcessNextChunk implements Command {
+        INSTANCE
+    }
+
+    private record RetryJob() implements Command {
+    }
+
+    private record ChunkProcessed(JobStatus status, Throwable failure) implements Command {
+    }
+
+    private record JobFailed(JobStatus status, Throwable failure) implements Command {
+    }
+}
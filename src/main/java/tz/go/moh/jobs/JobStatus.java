@@ -0,0 +1,54 @@
+package tz.go.moh.jobs;
+
+import java.time.Instant;
+
+/**
+ * Progress of a bulk eligibility job, persisted in the job's directory after every processed chunk.
+ *
+ * @param jobId         The ID of the job.
+ * @param state         Where the job is in its lifecycle.
+ * @param month         The month of the period checked.
+ * @param year          The year of the period checked.
+ * @param totalChws     The number of CHWs submitted.
+ * @param processedChws The number of CHWs whose results have been stored, in submission order.
+ * @param createdAt     When the job was submitted, in ISO-8601.
+ * @param updatedAt     When the job last made progress, in ISO-8601.
+ * @param error         Why the job failed, or null.
+ */
+public record JobStatus(String jobId,
+                        State state,
+                        String month,
+                        String year,
+                        int totalChws,
+                        int processedChws,
+                        String createdAt,
+                        String updatedAt,
+                        String error) {
+
+    /**
+     * The lifecycle of a job.
+     */
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    /**
+     * @return True if the job will not make any more progress.
+     */
+    public boolean isFinished() {
+        return state == State.COMPLETED || state == State.FAILED;
+    }
+
+    JobStatus withState(State newState) {
+        return new JobStatus(jobId, newState, month, year, totalChws, processedChws, createdAt, Instant.now().toString(), error);
+    }
+
+    JobStatus withProgress(int newProcessedChws) {
+        State newState = newProcessedChws >= totalChws ? State.COMPLETED : State.RUNNING;
+        return new JobStatus(jobId, newState, month, year, totalChws, newProcessedChws, createdAt, Instant.now().toString(), error);
+    }
+
+    JobStatus withError(String newError) {
+        return new JobStatus(jobId, State.FAILED, month, year, totalChws, processedChws, createdAt, Instant.now().toString(), newError);
+    }
+}
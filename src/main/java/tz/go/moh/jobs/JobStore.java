@@ -0,0 +1,329 @@
+package tz.go.moh.jobs;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import tz.go.moh.domain.ChwEligibilityResults;
+import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.util.CustomJacksonObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Persists bulk eligibility jobs on the local disk, one directory per job.
+ * <p>
+ * Each directory holds the submitted request ({@code request.json}), the job status ({@code status.json}) and the
+ * results stored so far, one JSON object per line in submission order ({@code results.ndjson}). Results are
+ * appended before the status is replaced atomically, so after a crash the status never counts results that were
+ * not written; results written past the recorded progress are cut off when the job is resumed.
+ * </p>
+ * <p>
+ * Next to the results, {@code results.idx} holds the byte offset of every {@value #INDEX_STRIDE}th line as a
+ * big-endian long, so a page of results is read by seeking to the nearest indexed line instead of scanning the
+ * file from the start. It is appended with the results and cut off with them on resume. Jobs stored without an
+ * index are still read, from the start of the file.
+ * </p>
+ * <p>
+ * Statuses are only written by the {@link EligibilityJobRunner}; any thread may read them.
+ * </p>
+ */
+public class JobStore {
+    private static final String REQUEST_FILE = "request.json";
+    private static final String STATUS_FILE = "status.json";
+    private static final String RESULTS_FILE = "results.ndjson";
+    private static final String INDEX_FILE = "results.idx";
+
+    /**
+     * Number of result lines between two entries of the results index.
+     */
+    static final int INDEX_STRIDE = 1024;
+
+    private final ObjectMapper mapper = CustomJacksonObjectMapper.mapper;
+    private final Path directory;
+
+    /**
+     * Constructor for JobStore.
+     *
+     * @param directory The directory holding the job directories; created if missing.
+     * @throws IOException If the directory could not be created.
+     */
+    public JobStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Stores a new job in the QUEUED state.
+     *
+     * @param request The submitted request.
+     * @return The status of the new job.
+     * @throws IOException If the job could not be written.
+     */
+    public JobStatus create(EligibleChwCheckRequest request) throws IOException {
+        String jobId = UUID.randomUUID().toString();
+        Path jobDirectory = Files.createDirectories(directory.resolve(jobId));
+        mapper.writeValue(jobDirectory.resolve(REQUEST_FILE).toFile(), request);
+        Files.createFile(jobDirectory.resolve(RESULTS_FILE));
+        Files.createFile(jobDirectory.resolve(INDEX_FILE));
+        String now = Instant.now().toString();
+        JobStatus status = new JobStatus(jobId, JobStatus.State.QUEUED,
+                request.getPeriod().getMonth(), request.getPeriod().getYear(),
+                request.getChws().size(), 0, now, now, null);
+        save(status);
+        return status;
+    }
+
+    /**
+     * Looks up the status of a job.
+     *
+     * @param jobId The ID of the job.
+     * @return The status, or an empty Optional if there is no such job.
+     * @throws IOException If the status could not be read.
+     */
+    public Optional<JobStatus> find(String jobId) throws IOException {
+        Path jobDirectory = jobDirectory(jobId);
+        if (jobDirectory == null || !Files.exists(jobDirectory.resolve(STATUS_FILE))) {
+            return Optional.empty();
+        }
+        return Optional.of(mapper.readValue(jobDirectory.resolve(STATUS_FILE).toFile(), JobStatus.class));
+    }
+
+    /**
+     * Lists the jobs that were queued or running, oldest first, so they can be resumed after a restart.
+     *
+     * @return The statuses of the unfinished jobs.
+     * @throws IOException If the job directories could not be read.
+     */
+    public List<JobStatus> findUnfinished() throws IOException {
+        List<JobStatus> unfinished = new ArrayList<>();
+        try (DirectoryStream<Path> jobDirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path jobDirectory : jobDirectories) {
+                Optional<JobStatus> status = find(jobDirectory.getFileName().toString());
+                if (status.isPresent() && !status.get().isFinished()) {
+                    unfinished.add(status.get());
+                }
+            }
+        }
+        unfinished.sort(Comparator.comparing(JobStatus::createdAt));
+        return unfinished;
+    }
+
+    /**
+     * Prepares a job to run: cuts off results written past the recorded progress, marks it RUNNING and loads the
+     * submitted request.
+     *
+     * @param jobId The ID of the job.
+     * @return The status of the running job with its request.
+     * @throws IOException If the job could not be read or updated.
+     */
+    public ResumedJob resume(String jobId) throws IOException {
+        JobStatus status = find(jobId).orElseThrow(() -> new IOException("Unknown job " + jobId));
+        truncateResults(jobDirectory(jobId).resolve(RESULTS_FILE), status.processedChws());
+        truncateIndex(jobDirectory(jobId).resolve(INDEX_FILE), status.processedChws());
+        JobStatus running = status.withState(JobStatus.State.RUNNING);
+        save(running);
+        EligibleChwCheckRequest request = mapper.readValue(jobDirectory(jobId).resolve(REQUEST_FILE).toFile(), EligibleChwCheckRequest.class);
+        return new ResumedJob(running, request);
+    }
+
+    /**
+     * Appends the results of a chunk and records the progress; the job is COMPLETED once every CHW is stored.
+     *
+     * @param status  The current status of the job.
+     * @param results The results of the next CHWs in submission order.
+     * @return The new status.
+     * @throws IOException If the results or the status could not be written.
+     */
+    public JobStatus appendResults(JobStatus status, List<ChwEligibilityResults> results) throws IOException {
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        List<Integer> indexedLines = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            if ((status.processedChws() + i) % INDEX_STRIDE == 0) {
+                indexedLines.add(lines.size());
+            }
+            mapper.writeValue(lines, results.get(i));
+            lines.write('\n');
+        }
+        long start;
+        try (FileChannel channel = FileChannel.open(jobDirectory(status.jobId()).resolve(RESULTS_FILE),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            start = channel.size();
+            write(channel, ByteBuffer.wrap(lines.toByteArray()));
+        }
+        Path indexFile = jobDirectory(status.jobId()).resolve(INDEX_FILE);
+        if (!indexedLines.isEmpty() && Files.exists(indexFile)) {
+            ByteBuffer offsets = ByteBuffer.allocate(indexedLines.size() * Long.BYTES);
+            for (int offset : indexedLines) {
+                offsets.putLong(start + offset);
+            }
+            offsets.flip();
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                write(channel, offsets);
+            }
+        }
+        JobStatus progressed = status.withProgress(status.processedChws() + results.size());
+        save(progressed);
+        return progressed;
+    }
+
+    /**
+     * Marks a job as FAILED.
+     *
+     * @param status The current status of the job.
+     * @param error  Why the job failed.
+     * @return The new status.
+     * @throws IOException If the status could not be written.
+     */
+    public JobStatus fail(JobStatus status, String error) throws IOException {
+        JobStatus failed = status.withError(error);
+        save(failed);
+        return failed;
+    }
+
+    /**
+     * Reads a page of the stored results of a job.
+     *
+     * @param status The current status of the job, bounding the results that may be read.
+     * @param offset The index of the first result to read.
+     * @param limit  The maximum number of results to read.
+     * @return The results, in submission order.
+     * @throws IOException If the results could not be read.
+     */
+    public List<ChwEligibilityResults> readResults(JobStatus status, int offset, int limit) throws IOException {
+        int end = (int) Math.min((long) offset + limit, status.processedChws());
+        List<ChwEligibilityResults> results = new ArrayList<>(Math.max(0, end - offset));
+        if (offset >= end) {
+            return results;
+        }
+        int firstLine = 0;
+        long position = 0;
+        Path indexFile = jobDirectory(status.jobId()).resolve(INDEX_FILE);
+        if (Files.exists(indexFile)) {
+            try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                int entry = (int) Math.min(offset / INDEX_STRIDE, index.size() / Long.BYTES - 1);
+                if (entry > 0) {
+                    position = readOffset(index, entry);
+                    firstLine = entry * INDEX_STRIDE;
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(resultsFile(status.jobId()), StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(Channels.newReader(channel.position(position), StandardCharsets.UTF_8))) {
+            String line;
+            for (int index = firstLine; index < end && (line = reader.readLine()) != null; index++) {
+                if (index >= offset) {
+                    results.add(mapper.readValue(line, ChwEligibilityResults.class));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @param jobId The ID of the job.
+     * @return The file holding the results of the job, one JSON object per line.
+     */
+    public Path resultsFile(String jobId) {
+        return jobDirectory(jobId).resolve(RESULTS_FILE);
+    }
+
+    /**
+     * Resolves the directory of a job, refusing anything that is not a job ID so paths cannot escape the store.
+     */
+    private Path jobDirectory(String jobId) {
+        try {
+            return directory.resolve(UUID.fromString(jobId).toString());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void save(JobStatus status) throws IOException {
+        Path jobDirectory = jobDirectory(status.jobId());
+        Path temporary = jobDirectory.resolve(STATUS_FILE + ".tmp");
+        mapper.writeValue(temporary.toFile(), status);
+        Files.move(temporary, jobDirectory.resolve(STATUS_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Reads the byte offset stored in an entry of a results index.
+     */
+    private static long readOffset(FileChannel index, int entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        long position = (long) entry * Long.BYTES;
+        while (buffer.hasRemaining()) {
+            if (index.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated results index");
+            }
+        }
+        return buffer.flip().getLong();
+    }
+
+    /**
+     * Cuts a results index after the entries of the given number of lines.
+     */
+    private static void truncateIndex(Path indexFile, int lines) throws IOException {
+        if (Files.exists(indexFile)) {
+            long entries = (lines + INDEX_STRIDE - 1) / INDEX_STRIDE;
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+                channel.truncate(entries * Long.BYTES);
+            }
+        }
+    }
+
+    /**
+     * Cuts a results file after the given number of lines.
+     */
+    private static void truncateResults(Path resultsFile, int lines) throws IOException {
+        long length = 0;
+        int seen = 0;
+        if (lines > 0) {
+            try (InputStream in = Files.newInputStream(resultsFile)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while (seen < lines && (read = in.read(buffer)) > 0) {
+                    for (int i = 0; i < read && seen < lines; i++) {
+                        length++;
+                        if (buffer[i] == '\n') {
+                            seen++;
+                        }
+                    }
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(resultsFile, StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+    /**
+     * A job ready to run.
+     *
+     * @param status  The status of the job, RUNNING.
+     * @param request The submitted request.
+     */
+    public record ResumedJob(JobStatus status, EligibleChwCheckRequest request) {
+    }
+}
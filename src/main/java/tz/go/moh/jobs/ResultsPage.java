@@ -0,0 +1,23 @@
+package tz.go.moh.jobs;
+
+import tz.go.moh.domain.ChwEligibilityResults;
+
+import java.util.List;
+
+/**
+ * A page of the results of a bulk eligibility job.
+ *
+ * @param jobId     The ID of the job.
+ * @param state     The state of the job when the page was read.
+ * @param offset    The index of the first result of the page.
+ * @param limit     The maximum number of results requested.
+ * @param available The number of results stored so far; equal to the number of CHWs once the job is completed.
+ * @param results   The results of the page, in submission order.
+ */
+public record ResultsPage(String jobId,
+                          JobStatus.State state,
+                          int offset,
+                          int limit,
+                          int available,
+                          List<ChwEligibilityResults> results) {
+}
@@ -0,0 +1,34 @@
+package tz.go.moh.metrics;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+import tz.go.moh.cache.EligibilityCache;
+
+import java.util.List;
+
+/**
+ * Exposes the counters of the {@link EligibilityCache} to Prometheus, read when metrics are scraped.
+ */
+public class EligibilityCacheCollector extends Collector {
+    private final EligibilityCache eligibilityCache;
+
+    /**
+     * Constructor for EligibilityCacheCollector.
+     *
+     * @param eligibilityCache The cache to report on.
+     */
+    public EligibilityCacheCollector(EligibilityCache eligibilityCache) {
+        this.eligibilityCache = eligibilityCache;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        EligibilityCache.CacheStatistics stats = eligibilityCache.getStats();
+        return List.of(
+                new CounterMetricFamily("chw_status_cache_hits_total", "Eligibility cache hits.", stats.hitCount()),
+                new CounterMetricFamily("chw_status_cache_misses_total", "Eligibility cache misses.", stats.missCount()),
+                new CounterMetricFamily("chw_status_cache_evictions_total", "Eligibility cache evictions.", stats.evictionCount()),
+                new GaugeMetricFamily("chw_status_cache_size", "Approximate number of cached verdicts.", stats.size()));
+    }
+}
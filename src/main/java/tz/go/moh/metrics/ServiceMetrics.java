@@ -0,0 +1,372 @@
+package tz.go.moh.metrics;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.exporter.common.TextFormat;
+import io.prometheus.client.hotspot.DefaultExports;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Prometheus metrics of the service, registered in the default collector registry.
+ * <p>
+ * Counters, gauges and histograms are lock-free, and labelled children are resolved once here so that recording
+ * a sample on the request path never allocates. Durations are recorded from {@link System#nanoTime()} with
+ * {@link #observeSince(Histogram.Child, long)} rather than with histogram timers, which would allocate.
+ * </p>
+ */
+public final class ServiceMetrics {
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private static final Histogram REQUEST_LATENCY = Histogram.build()
+            .name("chw_status_request_duration_seconds")
+            .help("Latency of eligibility requests, from routing to response.")
+            .labelNames("endpoint")
+            .buckets(0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60)
+            .register();
+
+    private static final Counter REQUESTS = Counter.build()
+            .name("chw_status_requests_total")
+            .help("Eligibility requests by endpoint and outcome.")
+            .labelNames("endpoint", "outcome")
+            .register();
+
+    /**
+     * Latency of POST /chw/monthly-status.
+     */
+    public static final Histogram.Child MONTHLY_STATUS_LATENCY = REQUEST_LATENCY.labels("monthly_status");
+
+    /**
+     * Latency of POST /chw/monthly-status/stream.
+     */
+    public static final Histogram.Child STREAM_LATENCY = REQUEST_LATENCY.labels("monthly_status_stream");
+
+    /**
+     * Latency of POST /chw/multi-period-status.
+     */
+    public static final Histogram.Child MULTI_PERIOD_LATENCY = REQUEST_LATENCY.labels("multi_period_status");
+
+    /**
+     * POST /chw/monthly-status requests answered with a success status.
+     */
+    public static final Counter.Child MONTHLY_STATUS_SUCCEEDED = REQUESTS.labels("monthly_status", "success");
+
+    /**
+     * POST /chw/monthly-status requests rejected, failed or answered with an error status.
+     */
+    public static final Counter.Child MONTHLY_STATUS_FAILED = REQUESTS.labels("monthly_status", "failure");
+
+    /**
+     * POST /chw/monthly-status/stream requests whose response started with a success status.
+     */
+    public static final Counter.Child STREAM_SUCCEEDED = REQUESTS.labels("monthly_status_stream", "success");
+
+    /**
+     * POST /chw/monthly-status/stream requests rejected, failed or answered with an error status.
+     */
+    public static final Counter.Child STREAM_FAILED = REQUESTS.labels("monthly_status_stream", "failure");
+
+    /**
+     * POST /chw/multi-period-status requests answered with a success status.
+     */
+    public static final Counter.Child MULTI_PERIOD_SUCCEEDED = REQUESTS.labels("multi_period_status", "success");
+
+    /**
+     * POST /chw/multi-period-status requests rejected, failed or answered with an error status.
+     */
+    public static final Counter.Child MULTI_PERIOD_FAILED = REQUESTS.labels("multi_period_status", "failure");
+
+    /**
+     * Number of CHWs in each eligibility check handed to the processor.
+     */
+    public static final Histogram CHWS_PER_REQUEST = Histogram.build()
+            .name("chw_status_chws_per_request")
+            .help("Number of CHWs per eligibility check.")
+            .buckets(1, 10, 50, 100, 500, 1000, 5000, 10000, 50000, 100000)
+            .register();
+
+    /**
+     * Requests currently being served.
+     */
+    public static final Gauge IN_FLIGHT_REQUESTS = Gauge.build()
+            .name("chw_status_in_flight_requests")
+            .help("Eligibility requests currently being served.")
+            .register();
+
+    /**
+     * Commands sent to the registry actor that it has not picked up yet.
+     */
+    public static final Gauge REGISTRY_MAILBOX_DEPTH = Gauge.build()
+            .name("chw_status_registry_mailbox_depth")
+            .help("Commands waiting in the registry actor mailbox.")
+            .register();
+
+    /**
+     * Eligibility checks handed to the blocking I/O dispatcher and not finished yet.
+     */
+    public static final Gauge CHECKS_IN_PROGRESS = Gauge.build()
+            .name("chw_status_checks_in_progress")
+            .help("Eligibility checks queued on or running on the blocking I/O dispatcher.")
+            .register();
+
+    /**
+     * Asks to the registry that timed out before a reply arrived.
+     */
+    public static final Counter ASK_TIMEOUTS = Counter.build()
+            .name("chw_status_ask_timeouts_total")
+            .help("Asks to the registry actor that timed out.")
+            .register();
+
+    /**
+     * CHWs of the requests currently admitted by the admission controller.
+     */
+    public static final Gauge ADMITTED_CHWS = Gauge.build()
+            .name("chw_status_admitted_chws")
+            .help("CHWs of the requests currently admitted.")
+            .register();
+
+    /**
+     * CHWs of the requests waiting in the admission queue.
+     */
+    public static final Gauge QUEUED_CHWS = Gauge.build()
+            .name("chw_status_queued_chws")
+            .help("CHWs of the requests waiting for admission.")
+            .register();
+
+    /**
+     * Requests turned away with 503 because the service was at capacity.
+     */
+    public static final Counter ADMISSION_REJECTIONS = Counter.build()
+            .name("chw_status_admission_rejections_total")
+            .help("Requests rejected because the service was at capacity.")
+            .register();
+
+    /**
+     * Checks or chunks skipped because their caller's deadline had passed.
+     */
+    public static final Counter EXPIRED_CHECKS = Counter.build()
+            .name("chw_status_expired_checks_total")
+            .help("Checks or chunks skipped because the caller's deadline had passed.")
+            .register();
+
+    /**
+     * Batches of coalesced eligibility checks sent to the processor.
+     */
+    public static final Counter COALESCED_BATCHES = Counter.build()
+            .name("chw_status_coalesced_batches_total")
+            .help("Batches of coalesced eligibility checks.")
+            .register();
+
+    /**
+     * Number of eligibility checks merged into each coalesced batch.
+     */
+    public static final Histogram REQUESTS_PER_BATCH = Histogram.build()
+            .name("chw_status_coalesced_requests_per_batch")
+            .help("Eligibility checks merged into each coalesced batch.")
+            .buckets(1, 2, 3, 5, 10, 20, 50, 100)
+            .register();
+
+    /**
+     * Provider IDs received by coalesced batches, counting duplicates across the merged checks.
+     */
+    public static final Counter COALESCED_PROVIDERS_REQUESTED = Counter.build()
+            .name("chw_status_coalesced_providers_requested_total")
+            .help("Provider IDs received by coalesced batches, duplicates included.")
+            .register();
+
+    /**
+     * Distinct provider IDs actually checked by coalesced batches; divided by the requested count it gives the
+     * dedupe ratio.
+     */
+    public static final Counter COALESCED_PROVIDERS_DISTINCT = Counter.build()
+            .name("chw_status_coalesced_providers_distinct_total")
+            .help("Distinct provider IDs checked by coalesced batches.")
+            .register();
+
+    private static final Histogram JDBC_DURATION = Histogram.build()
+            .name("chw_status_jdbc_duration_seconds")
+            .help("Time spent acquiring connections, executing statements and fetching rows.")
+            .labelNames("phase")
+            .buckets(0.0005, 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+            .register();
+
+    /**
+     * Time spent waiting for a pooled connection.
+     */
+    public static final Histogram.Child JDBC_ACQUIRE = JDBC_DURATION.labels("acquire");
+
+    /**
+     * Time spent executing a statement until the first rows are available.
+     */
+    public static final Histogram.Child JDBC_EXECUTE = JDBC_DURATION.labels("execute");
+
+    /**
+     * Time spent iterating over the rows of a result set.
+     */
+    public static final Histogram.Child JDBC_FETCH = JDBC_DURATION.labels("fetch");
+
+    /**
+     * Rows read from result sets.
+     */
+    public static final Counter ROWS_FETCHED = Counter.build()
+            .name("chw_status_jdbc_rows_fetched_total")
+            .help("Rows read from eligibility query result sets.")
+            .register();
+
+    /**
+     * Distinct providers with activity returned by the database.
+     */
+    public static final Counter PROVIDERS_RETURNED = Counter.build()
+            .name("chw_status_providers_returned_total")
+            .help("Distinct providers with activity returned by eligibility queries.")
+            .register();
+
+    private static final Counter READ_CONNECTIONS = Counter.build()
+            .name("chw_status_read_connections_total")
+            .help("Connections handed to eligibility queries, by the database they were taken from.")
+            .labelNames("target")
+            .register();
+
+    /**
+     * Eligibility query connections taken from a read replica.
+     */
+    public static final Counter.Child READS_FROM_REPLICA = READ_CONNECTIONS.labels("replica");
+
+    /**
+     * Eligibility query connections taken from the primary, because no replica was configured, healthy or
+     * caught up enough for the month.
+     */
+    public static final Counter.Child READS_FROM_PRIMARY = READ_CONNECTIONS.labels("primary");
+
+    /**
+     * Whether each read replica passed its last health check, 1 or 0.
+     */
+    public static final Gauge REPLICA_HEALTHY = Gauge.build()
+            .name("chw_status_replica_healthy")
+            .help("Whether the read replica passed its last health check.")
+            .labelNames("replica")
+            .register();
+
+    /**
+     * Replication lag of each read replica measured by its last health check.
+     */
+    public static final Gauge REPLICA_LAG = Gauge.build()
+            .name("chw_status_replica_lag_seconds")
+            .help("Replication lag of the read replica at its last health check.")
+            .labelNames("replica")
+            .register();
+
+    /**
+     * Connections that could not be acquired from a replica, after which the next replica or the primary was used.
+     */
+    public static final Counter REPLICA_FAILOVERS = Counter.build()
+            .name("chw_status_replica_failovers_total")
+            .help("Failed replica connection attempts that failed over to another database.")
+            .register();
+
+    /**
+     * Open cohort subscriptions.
+     */
+    public static final Gauge SUBSCRIPTIONS = Gauge.build()
+            .name("chw_status_subscriptions")
+            .help("Open cohort subscriptions.")
+            .register();
+
+    /**
+     * Eligibility events sent to subscriptions, one per CHW that became eligible.
+     */
+    public static final Counter SUBSCRIPTION_EVENTS = Counter.build()
+            .name("chw_status_subscription_events_total")
+            .help("Eligibility events sent to subscriptions.")
+            .register();
+
+    /**
+     * Pending subscribed providers re-checked after activity was recorded for them or on a resync.
+     */
+    public static final Counter SUBSCRIPTION_RECHECKS = Counter.build()
+            .name("chw_status_subscription_rechecks_total")
+            .help("Subscribed providers re-checked against the database.")
+            .register();
+
+    /**
+     * Activity notifications received from the service table triggers.
+     */
+    public static final Counter ACTIVITY_NOTIFICATIONS = Counter.build()
+            .name("chw_status_activity_notifications_total")
+            .help("Activity notifications received from the service table triggers.")
+            .register();
+
+    private static final Counter RESPONSE_CACHE_LOOKUPS = Counter.build()
+            .name("chw_status_response_cache_lookups_total")
+            .help("Monthly status requests looked up in the response cache, by result.")
+            .labelNames("result")
+            .register();
+
+    /**
+     * Monthly status requests answered from the response cache by the digest of their raw body, without parsing.
+     */
+    public static final Counter.Child RESPONSE_CACHE_BODY_HITS = RESPONSE_CACHE_LOOKUPS.labels("body_hit");
+
+    /**
+     * Monthly status requests answered from the response cache after being parsed and normalized.
+     */
+    public static final Counter.Child RESPONSE_CACHE_REQUEST_HITS = RESPONSE_CACHE_LOOKUPS.labels("request_hit");
+
+    /**
+     * Monthly status requests that had to be checked because their response was not cached.
+     */
+    public static final Counter.Child RESPONSE_CACHE_MISSES = RESPONSE_CACHE_LOOKUPS.labels("miss");
+
+    /**
+     * Monthly status requests answered with 304 Not Modified because the client's If-None-Match matched.
+     */
+    public static final Counter NOT_MODIFIED_RESPONSES = Counter.build()
+            .name("chw_status_not_modified_responses_total")
+            .help("Monthly status requests answered with 304 Not Modified.")
+            .register();
+
+    /**
+     * Eligibility queries slower than the slow query threshold, by statement.
+     */
+    public static final Counter SLOW_QUERIES = Counter.build()
+            .name("chw_status_slow_queries_total")
+            .help("Eligibility queries slower than the slow query threshold, by statement.")
+            .labelNames("query")
+            .register();
+
+    static {
+        DefaultExports.initialize();
+    }
+
+    private ServiceMetrics() {
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()} reading, in seconds.
+     *
+     * @param histogram  The histogram to record into.
+     * @param startNanos The {@link System#nanoTime()} reading taken when the measured work started.
+     */
+    public static void observeSince(Histogram.Child histogram, long startNanos) {
+        histogram.observe((System.nanoTime() - startNanos) / NANOS_PER_SECOND);
+    }
+
+    /**
+     * Renders every registered metric in the Prometheus text exposition format.
+     *
+     * @return The metrics as text.
+     */
+    public static String scrape() {
+        StringWriter writer = new StringWriter();
+        try {
+            TextFormat.write004(writer, CollectorRegistry.defaultRegistry.metricFamilySamples());
+        } catch (IOException e) {
+            // StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+}
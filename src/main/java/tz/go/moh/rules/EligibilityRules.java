@@ -0,0 +1,90 @@
+package tz.go.moh.rules;
+
+import com.typesafe.config.Config;
+import tz.go.moh.domain.ActivityCounts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Evaluates the programme's eligibility rules over the per-source activity counts of a CHW in a month.
+ * <p>
+ * The rules are thresholds read from the {@code chw-status-check-service.eligibility} config block. They are
+ * evaluated in memory over counts fetched in one aggregated query, so adding rules never adds database round
+ * trips. With the default rules (any activity in any source table) and no breakdown requested, counts are not
+ * needed at all and the cheaper presence-only query is used.
+ * </p>
+ */
+public class EligibilityRules {
+    private final int minTotalActivities;
+    private final int minClientServices;
+    private final int minHouseholdServices;
+    private final int minDeathRegistrations;
+    private final int minMobilizationServices;
+    private final int minActiveSources;
+    private final boolean includeBreakdown;
+
+    /**
+     * Creates the rules from the {@code chw-status-check-service.eligibility} config block.
+     *
+     * @param eligibilityConfig The eligibility config block.
+     */
+    public EligibilityRules(Config eligibilityConfig) {
+        Config rules = eligibilityConfig.getConfig("rules");
+        this.minTotalActivities = rules.getInt("min-total-activities");
+        this.minClientServices = rules.getInt("min-client-services");
+        this.minHouseholdServices = rules.getInt("min-household-services");
+        this.minDeathRegistrations = rules.getInt("min-death-registrations");
+        this.minMobilizationServices = rules.getInt("min-mobilization-services");
+        this.minActiveSources = rules.getInt("min-active-sources");
+        this.includeBreakdown = eligibilityConfig.getBoolean("include-breakdown");
+    }
+
+    /**
+     * Tells whether the rules need per-source counts, or whether knowing that a CHW had any activity is enough.
+     *
+     * @return True if per-source counts must be fetched.
+     */
+    public boolean requiresCounts() {
+        return includeBreakdown
+                || minTotalActivities > 1
+                || minClientServices > 0
+                || minHouseholdServices > 0
+                || minDeathRegistrations > 0
+                || minMobilizationServices > 0
+                || minActiveSources > 1;
+    }
+
+    /**
+     * Tells whether the activity counts and failed rules are returned alongside the verdicts.
+     *
+     * @return True if the breakdown is returned to clients.
+     */
+    public boolean includeBreakdown() {
+        return includeBreakdown;
+    }
+
+    /**
+     * Evaluates the rules over the activity of a CHW in a month.
+     *
+     * @param activity The activity counts of the CHW, or null if the CHW had no activity.
+     * @return The descriptions of the rules the CHW failed; empty if the CHW is eligible.
+     */
+    public List<String> evaluate(ActivityCounts activity) {
+        ActivityCounts counts = activity != null ? activity : ActivityCounts.NONE;
+        List<String> failedRules = new ArrayList<>(0);
+        check(failedRules, "min-total-activities", counts.total(), Math.max(minTotalActivities, 1));
+        check(failedRules, "min-client-services", counts.getClientServices(), minClientServices);
+        check(failedRules, "min-household-services", counts.getHouseholdServices(), minHouseholdServices);
+        check(failedRules, "min-death-registrations", counts.getDeathRegistrations(), minDeathRegistrations);
+        check(failedRules, "min-mobilization-services", counts.getMobilizationServices(), minMobilizationServices);
+        check(failedRules, "min-active-sources", counts.activeSources(), minActiveSources);
+        return failedRules;
+    }
+
+    private static void check(List<String> failedRules, String rule, int actual, int minimum) {
+        if (actual < minimum) {
+            failedRules.add(rule + ": " + actual + " < " + minimum);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package tz.go.moh.subscriptions;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tz.go.moh.metrics.ServiceMetrics;
+import tz.go.moh.util.DatabaseConnectionFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.DateTimeException;
+import java.time.YearMonth;
+
+/**
+ * Listens on the primary for the notifications sent by the activity triggers on the four HPS service tables, and
+ * reports the provider and month of every new service row to the {@link EligibilitySubscriptions}.
+ * <p>
+ * The triggers send {@code "<yyyy-MM> <provider_id>"} on the {@value #CHANNEL} channel. PostgreSQL delivers
+ * notifications on commit and folds identical payloads of one transaction together, so a bulk load of many rows
+ * per provider yields one notification per provider and month. They are installed by {@link #installTriggers()}
+ * when {@code install-triggers} is set; otherwise they have to be created by the database administrator.
+ * </p>
+ * <p>
+ * One dedicated connection to the primary, opened outside the pool, is held for as long as the listener runs, so
+ * it takes no slot of the pool and is not reported by its leak detection. If it breaks, the listener reconnects
+ * on the next {@link #poll()} and asks for a resync, since notifications sent in between are lost.
+ * </p>
+ */
+public class ActivityNotificationListener {
+    private final static Logger log = LoggerFactory.getLogger(ActivityNotificationListener.class);
+
+    /**
+     * The channel the activity triggers notify.
+     */
+    public static final String CHANNEL = "chw_activity";
+
+    private static final String NOTIFY_FUNCTION_SQL =
+            "CREATE OR REPLACE FUNCTION chw_notify_activity() RETURNS trigger AS $$ " +
+            "BEGIN " +
+            "   IF NEW.provider_id IS NOT NULL AND NEW.event_date IS NOT NULL THEN " +
+            "       PERFORM pg_notify('" + CHANNEL + "', to_char(NEW.event_date, 'YYYY-MM') || ' ' || NEW.provider_id); " +
+            "   END IF; " +
+            "   RETURN NULL; " +
+            "END $$ LANGUAGE plpgsql";
+
+    private static final String DROP_TRIGGER_SQL = "DROP TRIGGER IF EXISTS chw_notify_activity ON %s";
+
+    private static final String CREATE_TRIGGER_SQL =
+            "CREATE TRIGGER chw_notify_activity AFTER INSERT OR UPDATE OF provider_id, event_date ON %s " +
+            "FOR EACH ROW EXECUTE PROCEDURE chw_notify_activity()";
+
+    private static final String[] SERVICE_TABLES = {
+            "hps_client_services", "hps_household_services", "hps_death_registrations", "hps_mobilization_services"
+    };
+
+    private final DatabaseConnectionFactory connectionFactory;
+    private final EligibilitySubscriptions subscriptions;
+    private Connection connection;
+    private PGConnection pgConnection;
+
+    /**
+     * Constructor for ActivityNotificationListener.
+     *
+     * @param connectionFactory The connection factory; the listening connection is opened to the primary outside the pool.
+     * @param subscriptions     The subscriptions the recorded activity is reported to.
+     */
+    public ActivityNotificationListener(DatabaseConnectionFactory connectionFactory, EligibilitySubscriptions subscriptions) {
+        this.connectionFactory = connectionFactory;
+        this.subscriptions = subscriptions;
+    }
+
+    /**
+     * Creates or replaces the notification function and the triggers sending it on the four service tables.
+     *
+     * @throws SQLException If a database access error occurs, e.g. for lack of the TRIGGER privilege.
+     */
+    public void installTriggers() throws SQLException {
+        try (Connection conn = connectionFactory.getConnection()) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(NOTIFY_FUNCTION_SQL);
+                for (String table : SERVICE_TABLES) {
+                    stmt.execute(String.format(DROP_TRIGGER_SQL, table));
+                    stmt.execute(String.format(CREATE_TRIGGER_SQL, table));
+                }
+                conn.commit();
+                log.info("Installed the activity notification triggers on {} service tables", SERVICE_TABLES.length);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Reports the notifications received since the last poll, (re)connecting first if needed. Runs on the blocking
+     * dispatcher; waits at most a millisecond for notifications that are not already buffered.
+     */
+    public synchronized void poll() {
+        try {
+            if (connection == null) {
+                connect();
+            }
+            PGNotification[] notifications = pgConnection.getNotifications(1);
+            if (notifications == null) {
+                return;
+            }
+            for (PGNotification notification : notifications) {
+                report(notification.getParameter());
+            }
+            ServiceMetrics.ACTIVITY_NOTIFICATIONS.inc(notifications.length);
+        } catch (SQLException e) {
+            log.warn("Lost the activity notification connection, reconnecting: {}", e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Stops listening and closes the connection, which ends the session and its LISTEN.
+     */
+    public synchronized void close() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("Could not close the notification connection: {}", e.getMessage());
+        } finally {
+            connection = null;
+            pgConnection = null;
+        }
+    }
+
+    private void connect() throws SQLException {
+        Connection conn = connectionFactory.openUnpooledConnection();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("LISTEN " + CHANNEL);
+            pgConnection = conn.unwrap(PGConnection.class);
+            connection = conn;
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        log.info("Listening for activity notifications on channel {}", CHANNEL);
+        // Whatever was recorded while not listening was not notified.
+        subscriptions.requestResync();
+    }
+
+    private void report(String payload) {
+        int separator = payload.indexOf(' ');
+        if (separator < 0) {
+            log.debug("Ignoring malformed activity notification {}", payload);
+            return;
+        }
+        try {
+            subscriptions.activityRecorded(YearMonth.parse(payload.substring(0, separator)), payload.substring(separator + 1));
+        } catch (DateTimeException e) {
+            log.debug("Ignoring malformed activity notification {}", payload);
+        }
+    }
+}
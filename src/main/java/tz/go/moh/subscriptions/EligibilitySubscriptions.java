@@ -0,0 +1,431 @@
+package tz.go.moh.subscriptions;
+
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.BoundedSourceQueue;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tz.go.moh.cache.EligibilityCache;
+import tz.go.moh.db.ProviderActivityRepository;
+import tz.go.moh.domain.ActivityCounts;
+import tz.go.moh.domain.ChwCohort;
+import tz.go.moh.domain.ChwEligibilityResults;
+import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.domain.Period;
+import tz.go.moh.metrics.ServiceMetrics;
+import tz.go.moh.rules.EligibilityRules;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cohort subscriptions: a client registers a list of CHWs and a period once, gets the current eligibility of the
+ * cohort back, then receives an {@link EligibilityEvent} whenever one of its CHWs becomes eligible, instead of
+ * re-posting the whole list to {@code /chw/monthly-status} through the month.
+ * <p>
+ * Only the providers a subscription is still waiting for are re-checked, and only once activity was recorded for
+ * them: the {@link ActivityNotificationListener} reports the provider and month of every new service row, and
+ * {@link #evaluateChanges()} re-checks the reported providers that are pending in a subscription of that month
+ * with one counts query per chunk. The database thus works in proportion to new activity rather than to cohort
+ * size times poll frequency. After {@link #requestResync()} every pending provider is re-checked once, which
+ * covers notifications lost while the listener was reconnecting and, on a slow schedule, missing triggers.
+ * </p>
+ * <p>
+ * Checks read from the primary, which sends the notifications, so rows the replicas have not replayed yet are
+ * not missed. Subscriptions live in memory: they are lost on restart, and dropped once their month is more than
+ * {@code retention-months} months old.
+ * </p>
+ */
+public class EligibilitySubscriptions {
+    private final static Logger log = LoggerFactory.getLogger(EligibilitySubscriptions.class);
+
+    private final ProviderActivityRepository activityRepository;
+    private final EligibilityRules eligibilityRules;
+    private final EligibilityCache eligibilityCache;
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final Map<YearMonth, Set<String>> changedProviders = new ConcurrentHashMap<>();
+    private final int maxSubscriptions;
+    private final int retentionMonths;
+    private final int chunkSize;
+    private final int streamBufferSize;
+    private volatile boolean resyncRequested;
+
+    /**
+     * Constructor for EligibilitySubscriptions.
+     *
+     * @param subscriptionsConfig The {@code chw-status-check-service.subscriptions} config block.
+     * @param activityRepository  The repository the pending providers are re-checked with, reading from the primary.
+     * @param eligibilityRules    The rules deciding eligibility from the activity of a CHW.
+     * @param eligibilityCache    The cache of eligibility verdicts, refreshed with every re-check, or null if caching
+     *                            is disabled.
+     */
+    public EligibilitySubscriptions(Config subscriptionsConfig, ProviderActivityRepository activityRepository,
+                                    EligibilityRules eligibilityRules, EligibilityCache eligibilityCache) {
+        this.activityRepository = activityRepository;
+        this.eligibilityRules = eligibilityRules;
+        this.eligibilityCache = eligibilityCache;
+        this.maxSubscriptions = subscriptionsConfig.getInt("max-subscriptions");
+        this.retentionMonths = subscriptionsConfig.getInt("retention-months");
+        this.chunkSize = subscriptionsConfig.getInt("chunk-size");
+        this.streamBufferSize = subscriptionsConfig.getInt("stream-buffer-size");
+    }
+
+    /**
+     * Registers a cohort and checks it once. The subscription is registered before the check, so activity recorded
+     * while it runs is re-checked afterwards rather than missed.
+     *
+     * @param request The period and the CHWs to watch.
+     * @return The ID of the subscription with the current eligibility of every CHW, in request order.
+     * @throws IllegalStateException If {@code max-subscriptions} subscriptions are already open.
+     * @throws SQLException          If a database access error occurs.
+     */
+    public SubscriptionCreated subscribe(EligibleChwCheckRequest request) throws SQLException {
+        if (subscriptions.size() >= maxSubscriptions) {
+            throw new IllegalStateException("At most " + maxSubscriptions + " subscriptions can be open at once");
+        }
+        YearMonth month = request.getPeriod().toYearMonth();
+        ChwCohort cohort = ChwCohort.of(request.getChws());
+        Subscription subscription = new Subscription(UUID.randomUUID().toString(), request.getPeriod(), month, cohort);
+        subscriptions.put(subscription.id, subscription);
+        ServiceMetrics.SUBSCRIPTIONS.set(subscriptions.size());
+
+        Map<String, ActivityCounts> activity;
+        Instant dataAsOf = Instant.now();
+        try {
+            activity = findActivityInChunks(subscription.pendingAmong(null), month);
+        } catch (SQLException | RuntimeException e) {
+            subscriptions.remove(subscription.id);
+            ServiceMetrics.SUBSCRIPTIONS.set(subscriptions.size());
+            throw e;
+        }
+
+        boolean breakdown = eligibilityRules.includeBreakdown();
+        List<ChwEligibilityResults> results = new ArrayList<>(cohort.size());
+        for (int i = 0; i < cohort.size(); i++) {
+            String providerId = cohort.providerId(i);
+            ActivityCounts counts = providerId != null ? activity.get(providerId) : null;
+            List<String> failedRules = eligibilityRules.evaluate(counts);
+            if (failedRules.isEmpty()) {
+                // Already eligible: reported in the results, so no event is sent for it.
+                subscription.resolve(providerId, dataAsOf, false);
+            }
+            results.add(breakdown
+                    ? new ChwEligibilityResults(cohort.nationalIdentificationNumber(i), failedRules.isEmpty(),
+                            counts != null ? counts : ActivityCounts.NONE, failedRules)
+                    : new ChwEligibilityResults(cohort.nationalIdentificationNumber(i), failedRules.isEmpty()));
+        }
+        int pending = subscription.pendingChws();
+        log.info("Opened subscription {} for {} CHWs in {}: {} not eligible yet", subscription.id, cohort.size(), month, pending);
+        return new SubscriptionCreated(subscription.id, request.getPeriod(), dataAsOf.toString(), pending, results);
+    }
+
+    /**
+     * @param subscriptionId The ID of the subscription.
+     * @return The subscription, or an empty Optional if it does not exist or has expired.
+     */
+    public Optional<Subscription> find(String subscriptionId) {
+        return Optional.ofNullable(subscriptions.get(subscriptionId));
+    }
+
+    /**
+     * Closes a subscription and completes its event streams.
+     *
+     * @param subscriptionId The ID of the subscription.
+     * @return Whether the subscription existed.
+     */
+    public boolean unsubscribe(String subscriptionId) {
+        Subscription subscription = subscriptions.remove(subscriptionId);
+        if (subscription == null) {
+            return false;
+        }
+        subscription.close();
+        ServiceMetrics.SUBSCRIPTIONS.set(subscriptions.size());
+        return true;
+    }
+
+    /**
+     * Records that a provider has new activity in a month, to be re-checked by the next {@link #evaluateChanges()}.
+     *
+     * @param month      The month of the activity.
+     * @param providerId The OpenMRS provider ID.
+     */
+    public void activityRecorded(YearMonth month, String providerId) {
+        changedProviders.computeIfAbsent(month, m -> ConcurrentHashMap.newKeySet()).add(providerId);
+    }
+
+    /**
+     * Makes the next {@link #evaluateChanges()} re-check every pending provider of every subscription.
+     */
+    public void requestResync() {
+        resyncRequested = true;
+    }
+
+    /**
+     * Drops the expired subscriptions and re-checks the pending providers with recorded activity, or all of them
+     * if a resync was requested, sending an event for every CHW that became eligible. Runs on the blocking
+     * dispatcher, never concurrently with itself.
+     */
+    public void evaluateChanges() {
+        expire();
+        boolean resync = resyncRequested;
+        resyncRequested = false;
+        Set<YearMonth> months = new HashSet<>(changedProviders.keySet());
+        if (resync) {
+            for (Subscription subscription : subscriptions.values()) {
+                months.add(subscription.month);
+            }
+        }
+        for (YearMonth month : months) {
+            Set<String> changed = changedProviders.remove(month);
+            recheck(month, resync ? null : changed);
+        }
+    }
+
+    /**
+     * Returns the open subscriptions and how many CHWs they are still waiting for.
+     *
+     * @return The statistics of the subscriptions.
+     */
+    public SubscriptionStats getStats() {
+        int pendingChws = 0;
+        int openStreams = 0;
+        for (Subscription subscription : subscriptions.values()) {
+            pendingChws += subscription.pendingChws();
+            openStreams += subscription.openStreams();
+        }
+        return new SubscriptionStats(subscriptions.size(), pendingChws, openStreams);
+    }
+
+    private void recheck(YearMonth month, Set<String> candidates) {
+        List<Subscription> affected = new ArrayList<>();
+        Set<String> providerIds = new HashSet<>();
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.month.equals(month)) {
+                List<String> pending = subscription.pendingAmong(candidates);
+                if (!pending.isEmpty()) {
+                    affected.add(subscription);
+                    providerIds.addAll(pending);
+                }
+            }
+        }
+        if (providerIds.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        Instant dataAsOf = Instant.now();
+        Map<String, ActivityCounts> activity;
+        try {
+            activity = findActivityInChunks(providerIds, month);
+        } catch (SQLException e) {
+            log.warn("Could not re-check {} subscribed providers in {}, retrying with the next batch: {}",
+                    providerIds.size(), month, e.getMessage());
+            changedProviders.computeIfAbsent(month, m -> ConcurrentHashMap.newKeySet()).addAll(providerIds);
+            return;
+        }
+        ServiceMetrics.SUBSCRIPTION_RECHECKS.inc(providerIds.size());
+
+        int events = 0;
+        for (Map.Entry<String, ActivityCounts> entry : activity.entrySet()) {
+            if (eligibilityCache != null) {
+                eligibilityCache.put(entry.getKey(), month, entry.getValue(), dataAsOf);
+            }
+            if (eligibilityRules.evaluate(entry.getValue()).isEmpty()) {
+                for (Subscription subscription : affected) {
+                    events += subscription.resolve(entry.getKey(), dataAsOf, true);
+                }
+            }
+        }
+        log.info("Re-checked {} subscribed providers in {} for {} subscriptions: {} CHWs became eligible in {} ms",
+                providerIds.size(), month, affected.size(), events, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private Map<String, ActivityCounts> findActivityInChunks(Collection<String> providerIds, YearMonth month) throws SQLException {
+        List<String> ids = new ArrayList<>(providerIds);
+        Map<String, ActivityCounts> activity = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            activity.putAll(activityRepository.findActivityCounts(ids.subList(from, Math.min(from + chunkSize, ids.size())), month, null));
+        }
+        return activity;
+    }
+
+    private void expire() {
+        YearMonth oldest = YearMonth.now().minusMonths(retentionMonths);
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.month.isBefore(oldest) && subscriptions.remove(subscription.id, subscription)) {
+                subscription.close();
+                log.info("Closed subscription {}: {} is no longer open", subscription.id, subscription.month);
+            }
+        }
+        ServiceMetrics.SUBSCRIPTIONS.set(subscriptions.size());
+    }
+
+    /**
+     * One registered cohort: the CHWs not eligible yet, grouped by provider, and the events sent so far. Event IDs
+     * are the 1-based position of the event in the subscription, so a client reconnecting with the ID of the last
+     * event it received gets exactly the events it missed.
+     */
+    public final class Subscription {
+        private final String id;
+        private final Period period;
+        private final YearMonth month;
+        private final ChwCohort cohort;
+        private final Map<String, List<Integer>> pending = new HashMap<>();
+        private final List<EligibilityEvent> events = new ArrayList<>();
+        private final List<BoundedSourceQueue<EligibilityEvent>> streams = new ArrayList<>();
+        private boolean closed;
+
+        private Subscription(String id, Period period, YearMonth month, ChwCohort cohort) {
+            this.id = id;
+            this.period = period;
+            this.month = month;
+            this.cohort = cohort;
+            for (int i = 0; i < cohort.size(); i++) {
+                String providerId = cohort.providerId(i);
+                // CHWs without a provider ID can never become eligible.
+                if (providerId != null) {
+                    pending.computeIfAbsent(providerId, k -> new ArrayList<>(1)).add(i);
+                }
+            }
+        }
+
+        /**
+         * @return The ID of the subscription.
+         */
+        public String id() {
+            return id;
+        }
+
+        /**
+         * Opens a stream of the events of this subscription: the events after {@code lastEventId}, then the events
+         * sent from now on. The stream completes when the subscription is closed, and fails if the client falls
+         * more than {@code stream-buffer-size} events behind, so it resumes from the events it did receive.
+         *
+         * @param lastEventId  The ID of the last event the client received, or 0 for every event.
+         * @param materializer The materializer running the stream.
+         * @return The events.
+         */
+        public synchronized Source<EligibilityEvent, NotUsed> events(long lastEventId, Materializer materializer) {
+            List<EligibilityEvent> missed = new ArrayList<>(events.subList((int) Math.max(0, Math.min(lastEventId, events.size())), events.size()));
+            if (closed) {
+                return Source.from(missed);
+            }
+            Pair<BoundedSourceQueue<EligibilityEvent>, Source<EligibilityEvent, NotUsed>> live =
+                    Source.<EligibilityEvent>queue(streamBufferSize).preMaterialize(materializer);
+            streams.add(live.first());
+            return Source.from(missed)
+                    .concat(live.second())
+                    .watchTermination((notUsed, done) -> {
+                        done.whenComplete((d, e) -> removeStream(live.first()));
+                        return notUsed;
+                    });
+        }
+
+        private synchronized List<String> pendingAmong(Set<String> providerIds) {
+            if (providerIds == null) {
+                return new ArrayList<>(pending.keySet());
+            }
+            List<String> found = new ArrayList<>();
+            for (String providerId : providerIds) {
+                if (pending.containsKey(providerId)) {
+                    found.add(providerId);
+                }
+            }
+            return found;
+        }
+
+        private synchronized int resolve(String providerId, Instant dataAsOf, boolean publish) {
+            List<Integer> positions = pending.remove(providerId);
+            if (positions == null || !publish) {
+                return 0;
+            }
+            for (int position : positions) {
+                EligibilityEvent event = new EligibilityEvent(events.size() + 1, cohort.nationalIdentificationNumber(position),
+                        providerId, period, dataAsOf.toString());
+                events.add(event);
+                for (BoundedSourceQueue<EligibilityEvent> stream : new ArrayList<>(streams)) {
+                    if (!stream.offer(event).isEnqueued()) {
+                        stream.fail(new IllegalStateException("Subscriber fell more than " + streamBufferSize + " events behind"));
+                        streams.remove(stream);
+                    }
+                }
+            }
+            ServiceMetrics.SUBSCRIPTION_EVENTS.inc(positions.size());
+            return positions.size();
+        }
+
+        private synchronized int pendingChws() {
+            int chws = 0;
+            for (List<Integer> positions : pending.values()) {
+                chws += positions.size();
+            }
+            return chws;
+        }
+
+        private synchronized int openStreams() {
+            return streams.size();
+        }
+
+        private synchronized void removeStream(BoundedSourceQueue<EligibilityEvent> stream) {
+            streams.remove(stream);
+        }
+
+        private synchronized void close() {
+            closed = true;
+            for (BoundedSourceQueue<EligibilityEvent> stream : streams) {
+                stream.complete();
+            }
+            streams.clear();
+        }
+    }
+
+    /**
+     * The response to a new subscription.
+     *
+     * @param subscriptionId The ID to stream the events of the subscription with.
+     * @param period         The period of the subscription.
+     * @param dataAsOf       When the activity data the results were computed from was read.
+     * @param pendingChws    How many CHWs are not eligible yet; an event is sent when each of them becomes eligible.
+     * @param results        The current eligibility of every CHW, in request order.
+     */
+    public record SubscriptionCreated(String subscriptionId, Period period, String dataAsOf, int pendingChws,
+                                      List<ChwEligibilityResults> results) {
+    }
+
+    /**
+     * Sent when a CHW of a subscription becomes eligible.
+     *
+     * @param id                           The position of the event in its subscription, starting at 1.
+     * @param nationalIdentificationNumber The NationalIdentificationNumber of the CHW, as in the subscription.
+     * @param providerId                   The OpenMRS provider ID of the CHW.
+     * @param period                       The period of the subscription.
+     * @param dataAsOf                     When the activity data that made the CHW eligible was read.
+     */
+    public record EligibilityEvent(long id, String nationalIdentificationNumber, String providerId, Period period,
+                                   String dataAsOf) {
+    }
+
+    /**
+     * Statistics of the open subscriptions.
+     *
+     * @param subscriptions The number of open subscriptions.
+     * @param pendingChws   The CHWs of all subscriptions that are not eligible yet.
+     * @param openStreams   The connected event streams.
+     */
+    public record SubscriptionStats(int subscriptions, int pendingChws, int openStreams) {
+    }
+}
@@ -0,0 +1,178 @@
+package tz.go.moh.tracing;
+
+import org.slf4j.MDC;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The time one request or check spent in each {@link Stage}, tagged with its trace ID.
+ * <p>
+ * While a trace is bound to a thread with {@link #bind()}, code deeper down the call stack, such as the JDBC
+ * layer, adds to it through {@link #recordSince(Stage, long)} without the trace being passed along, and the trace
+ * ID is in the logging MDC under {@value #MDC_KEY}. Chunk queries running on other threads add to the same trace
+ * through {@link #propagate(Runnable)}, so the database stages are summed over every chunk and can exceed the
+ * wall-clock time of the check.
+ * </p>
+ * <p>
+ * {@link #toString()} renders the trace as {@code key=value} fields, e.g.
+ * {@code trace_id=4f1c... queue_wait_ms=12.0 connection_acquire_ms=0.4 execute_ms=3810.2 fetch_ms=95.1}, listing
+ * only the stages that were recorded.
+ * </p>
+ */
+public final class RequestTrace {
+    /**
+     * MDC key of the trace ID, see the logback pattern.
+     */
+    public static final String MDC_KEY = "traceId";
+
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final String traceId;
+    private final LongAdder[] nanos = new LongAdder[Stage.values().length];
+    private final LongAdder[] samples = new LongAdder[Stage.values().length];
+
+    /**
+     * @param traceId The trace ID, or null for work that is not part of a request, such as warm-up or jobs.
+     */
+    public RequestTrace(String traceId) {
+        this.traceId = traceId;
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = new LongAdder();
+            samples[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Starts the trace of a check picked up by the processor, with the time since it was submitted as queue wait.
+     *
+     * @param context The trace of the check, or null if it was not traced.
+     * @return The trace of the check.
+     */
+    public static RequestTrace start(TraceContext context) {
+        if (context == null) {
+            return new RequestTrace(null);
+        }
+        RequestTrace trace = new RequestTrace(context.traceId());
+        trace.add(Stage.QUEUE_WAIT, Math.max(0, Duration.between(context.submittedAt(), Instant.now()).toNanos()));
+        return trace;
+    }
+
+    /**
+     * @return The trace ID, or null if the work is not part of a request.
+     */
+    public String traceId() {
+        return traceId;
+    }
+
+    /**
+     * Adds time spent in a stage.
+     *
+     * @param stage The stage.
+     * @param spent The time spent, in nanoseconds.
+     */
+    public void add(Stage stage, long spent) {
+        nanos[stage.ordinal()].add(spent);
+        samples[stage.ordinal()].increment();
+    }
+
+    /**
+     * Adds the time elapsed since the given {@link System#nanoTime()} reading to a stage.
+     *
+     * @param stage      The stage.
+     * @param startNanos The {@link System#nanoTime()} reading taken when the stage started.
+     */
+    public void addSince(Stage stage, long startNanos) {
+        add(stage, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Adds the time elapsed since the given {@link System#nanoTime()} reading to the trace bound to the calling
+     * thread, if any.
+     *
+     * @param stage      The stage.
+     * @param startNanos The {@link System#nanoTime()} reading taken when the stage started.
+     */
+    public static void recordSince(Stage stage, long startNanos) {
+        RequestTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.addSince(stage, startNanos);
+        }
+    }
+
+    /**
+     * @return The trace ID of the trace bound to the calling thread, or null if there is none.
+     */
+    public static String currentTraceId() {
+        RequestTrace trace = CURRENT.get();
+        return trace != null ? trace.traceId : null;
+    }
+
+    /**
+     * Binds this trace to the calling thread until the returned scope is closed, restoring whatever was bound
+     * before.
+     *
+     * @return The scope of the binding.
+     */
+    public Scope bind() {
+        RequestTrace previous = CURRENT.get();
+        String previousTraceId = MDC.get(MDC_KEY);
+        CURRENT.set(this);
+        if (traceId != null) {
+            MDC.put(MDC_KEY, traceId);
+        }
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+            if (previousTraceId != null) {
+                MDC.put(MDC_KEY, previousTraceId);
+            } else {
+                MDC.remove(MDC_KEY);
+            }
+        };
+    }
+
+    /**
+     * Wraps a task so it runs with the trace bound to the calling thread, if any, bound to the thread it runs on.
+     *
+     * @param task The task.
+     * @return The wrapped task, or the task itself if no trace is bound.
+     */
+    public static Runnable propagate(Runnable task) {
+        RequestTrace trace = CURRENT.get();
+        if (trace == null) {
+            return task;
+        }
+        return () -> {
+            try (Scope ignored = trace.bind()) {
+                task.run();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder fields = new StringBuilder("trace_id=").append(traceId != null ? traceId : "-");
+        for (Stage stage : Stage.values()) {
+            if (samples[stage.ordinal()].sum() > 0) {
+                fields.append(' ').append(stage.key()).append("_ms=")
+                        .append(String.format(Locale.ROOT, "%.1f", nanos[stage.ordinal()].sum() / NANOS_PER_MILLI));
+            }
+        }
+        return fields.toString();
+    }
+
+    /**
+     * The binding of a trace to a thread; closing it unbinds the trace.
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
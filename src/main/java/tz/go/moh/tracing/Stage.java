@@ -0,0 +1,49 @@
+package tz.go.moh.tracing;
+
+/**
+ * The stages an eligibility request goes through, in order, as reported by a {@link RequestTrace}.
+ */
+public enum Stage {
+    /**
+     * Reading and decoding the request body.
+     */
+    UNMARSHAL("unmarshal"),
+    /**
+     * From the route handing the check to the registry until the processor starts it, including the mailbox, the
+     * coalescing window and the wait for a blocking I/O thread.
+     */
+    QUEUE_WAIT("queue_wait"),
+    /**
+     * Borrowing pooled connections.
+     */
+    CONNECTION_ACQUIRE("connection_acquire"),
+    /**
+     * Running the eligibility statements until their first rows are available.
+     */
+    EXECUTE("execute"),
+    /**
+     * Reading the result rows.
+     */
+    FETCH("fetch"),
+    /**
+     * Evaluating the eligibility rules and building the results.
+     */
+    ASSEMBLY("assembly"),
+    /**
+     * Encoding the response body.
+     */
+    MARSHAL("marshal");
+
+    private final String key;
+
+    Stage(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return The name of the stage in structured log fields.
+     */
+    public String key() {
+        return key;
+    }
+}
@@ -0,0 +1,49 @@
+package tz.go.moh.tracing;
+
+import tz.go.moh.CborSerializable;
+
+import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The trace of a request as carried by the registry commands: its ID, from the X-Request-ID header or generated,
+ * and when the check was handed to the registry, from which the processor derives the queue wait. The timestamp
+ * is wall-clock time so it stays meaningful when the command crosses to another cluster node.
+ *
+ * @param traceId     The trace ID of the request.
+ * @param submittedAt When the check was handed to the registry.
+ */
+public record TraceContext(String traceId, Instant submittedAt) implements CborSerializable {
+
+    /**
+     * @param traceId The trace ID of the request.
+     * @return The context of a check handed to the registry now.
+     */
+    public static TraceContext of(String traceId) {
+        return new TraceContext(traceId, Instant.now());
+    }
+
+    /**
+     * Combines the contexts of checks coalesced into one batch: the batch is traced under every distinct trace ID,
+     * comma-separated, and has been waiting since the earliest check was submitted.
+     *
+     * @param contexts The contexts of the coalesced checks; null entries are ignored.
+     * @return The context of the batch, or null if none of the checks was traced.
+     */
+    public static TraceContext merge(List<TraceContext> contexts) {
+        Set<String> traceIds = new LinkedHashSet<>();
+        Instant submittedAt = null;
+        for (TraceContext context : contexts) {
+            if (context == null) {
+                continue;
+            }
+            traceIds.add(context.traceId());
+            if (submittedAt == null || context.submittedAt().isBefore(submittedAt)) {
+                submittedAt = context.submittedAt();
+            }
+        }
+        return submittedAt == null ? null : new TraceContext(String.join(",", traceIds), submittedAt);
+    }
+}
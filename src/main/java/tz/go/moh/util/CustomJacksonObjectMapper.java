@@ -2,8 +2,22 @@ package tz.go.moh.util;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 public class CustomJacksonObjectMapper {
     public static final ObjectMapper mapper = new ObjectMapper()
         .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * Same bindings as {@link #mapper}, encoded as CBOR (RFC 8949).
+     */
+    public static final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory())
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * Same bindings as {@link #mapper}, encoded as Smile, Jackson's binary JSON.
+     */
+    public static final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory())
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 }
@@ -3,15 +3,31 @@ package tz.go.moh.util;
 import akka.http.javadsl.marshallers.jackson.Jackson;
 import akka.http.javadsl.marshalling.Marshaller;
 import akka.http.javadsl.model.HttpEntity;
+import akka.http.javadsl.model.MediaType;
+import akka.http.javadsl.model.MediaTypes;
 import akka.http.javadsl.model.RequestEntity;
 import akka.http.javadsl.unmarshalling.Unmarshaller;
+import akka.util.ByteString;
 
 public class CustomJacksonSupport {
+    /**
+     * {@code application/cbor}, the compact binary encoding offered next to JSON.
+     */
+    public static final MediaType.Binary APPLICATION_CBOR = MediaTypes.applicationBinary("cbor", MediaType.Compressible);
+
+    /**
+     * {@code application/x-jackson-smile}, Jackson's binary JSON offered next to JSON.
+     */
+    public static final MediaType.Binary APPLICATION_SMILE = MediaTypes.applicationBinary("x-jackson-smile", MediaType.Compressible);
 
     public static <T> Unmarshaller<HttpEntity, T> customJacksonUnmarshaller(Class<T> clazz) {
         return Jackson.unmarshaller(CustomJacksonObjectMapper.mapper, clazz);
     }
 
+    public static <T> Unmarshaller<ByteString, T> customJacksonByteStringUnmarshaller(Class<T> clazz) {
+        return Jackson.byteStringUnmarshaller(CustomJacksonObjectMapper.mapper, clazz);
+    }
+
     public static <T> Marshaller<T, RequestEntity> customJacksonMarshaller() {
         return Jackson.marshaller(CustomJacksonObjectMapper.mapper);
     }
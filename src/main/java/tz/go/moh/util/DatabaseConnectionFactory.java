@@ -1,30 +1,391 @@
 package tz.go.moh.util;
 
+import com.typesafe.config.Config;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.prometheus.PrometheusMetricsTrackerFactory;
 import org.postgresql.ds.PGSimpleDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tz.go.moh.db.SlowQueryLog;
+import tz.go.moh.metrics.ServiceMetrics;
+import tz.go.moh.tracing.RequestTrace;
+import tz.go.moh.tracing.Stage;
 
+import java.net.ConnectException;
+import java.net.UnknownHostException;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class DatabaseConnectionFactory {
-    /**
-     * Establishes a database connection using the provided credentials.
-     *
-     * @param serverName   The name of the database server.
-     * @param port         The port number the database server is listening on.
-     * @param databaseName The name of the database to connect to.
-     * @param username     The username for database authentication.
-     * @param password     The password for database authentication.
-     * @return A Connection object representing the database connection.
-     * @throws SQLException If a database access error occurs or the url is null.
-     * @see java.sql.DriverManager#getConnection(String, String, String)
-     */
-    public static Connection getConnection(String serverName, int port, String databaseName, String username, String password) throws SQLException {
-        PGSimpleDataSource dataSource = new PGSimpleDataSource();
-        dataSource.setServerNames(new String[]{serverName});
-        dataSource.setPortNumbers(new int[]{port});
-        dataSource.setDatabaseName(databaseName);
-        dataSource.setUser(username);
-        dataSource.setPassword(password);
-        return dataSource.getConnection();
+/**
+ * Owns the pooled connections to the HPS database.
+ * <p>
+ * A single instance is created at startup from the {@code chw-status-check-service.database} block of
+ * {@code application.conf} and shared by every eligibility check, so connections are reused instead of
+ * paying a new TCP/authentication handshake per request.
+ * </p>
+ * <p>
+ * Read replicas listed in the {@code replicas} block get a pool each. Eligibility queries take their connections
+ * from {@link #getReadConnection(YearMonth)}, which spreads them round-robin over the healthy replicas so the
+ * month-end read burst stays off the primary HPS writes to. A replica is only used for the current month while
+ * its replication lag is within {@code max-replication-lag}; closed months are served by any reachable replica.
+ * Replicas whose connections fail are taken out of rotation until {@link #checkReplicas()} finds them healthy
+ * again, and the primary is used whenever no replica qualifies. A replica that is merely busy stays in rotation:
+ * its pool running out of connections is not a failure.
+ * </p>
+ */
+public class DatabaseConnectionFactory implements AutoCloseable {
+    private final static Logger log = LoggerFactory.getLogger(DatabaseConnectionFactory.class);
+
+    private static final String REPLICATION_LAG_SQL =
+            "SELECT pg_is_in_recovery(), " +
+            "       CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "            ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+
+    private final HikariDataSource dataSource;
+    private final PGSimpleDataSource unpooledDataSource;
+    private final List<Replica> replicas;
+    private final Duration maxReplicationLag;
+    private final int healthCheckTimeoutSeconds;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final SlowQueryLog slowQueryLog;
+
+    /**
+     * Creates the connection pools using the database settings found in the given config.
+     *
+     * @param databaseConfig The {@code chw-status-check-service.database} config block.
+     */
+    public DatabaseConnectionFactory(Config databaseConfig) {
+        Config poolConfig = databaseConfig.getConfig("pool");
+        this.dataSource = createDataSource(databaseConfig, databaseConfig.getString("DB_HOST"), databaseConfig.getInt("DB_PORT"),
+                poolConfig.getString("name"), true);
+        this.unpooledDataSource = createPgDataSource(databaseConfig, databaseConfig.getString("DB_HOST"), databaseConfig.getInt("DB_PORT"));
+
+        Config replicasConfig = databaseConfig.getConfig("replicas");
+        this.maxReplicationLag = replicasConfig.getDuration("max-replication-lag");
+        this.healthCheckTimeoutSeconds = (int) Math.max(1, poolConfig.getDuration("validation-timeout").toSeconds());
+        this.replicas = new ArrayList<>();
+        for (String hostAndPort : replicasConfig.getString("hosts").split(",")) {
+            if (hostAndPort.isBlank()) {
+                continue;
+            }
+            String[] parts = hostAndPort.trim().split(":");
+            String host = parts[0];
+            int port = parts.length > 1 ? Integer.parseInt(parts[1]) : databaseConfig.getInt("DB_PORT");
+            String name = poolConfig.getString("name") + "-replica-" + (replicas.size() + 1);
+            // Replicas may be down at startup; they join the rotation once a health check reaches them.
+            replicas.add(new Replica(name, host + ":" + port, createDataSource(databaseConfig, host, port, name, false)));
+        }
+        this.slowQueryLog = new SlowQueryLog(databaseConfig.getConfig("slow-queries"));
+        if (!replicas.isEmpty()) {
+            log.info("Routing eligibility queries over {} read replicas (max replication lag {})", replicas.size(), maxReplicationLag);
+        }
+    }
+
+    private static PGSimpleDataSource createPgDataSource(Config databaseConfig, String host, int port) {
+        PGSimpleDataSource pgDataSource = new PGSimpleDataSource();
+        pgDataSource.setServerNames(new String[]{host});
+        pgDataSource.setPortNumbers(new int[]{port});
+        pgDataSource.setDatabaseName(databaseConfig.getString("DB_NAME"));
+        pgDataSource.setUser(databaseConfig.getString("DB_USER"));
+        pgDataSource.setPassword(databaseConfig.getString("DB_PASSWORD"));
+        // The eligibility SQL is constant, so switch to a cached server-side prepared statement straight away.
+        pgDataSource.setPrepareThreshold(databaseConfig.getInt("prepare-threshold"));
+        pgDataSource.setPreparedStatementCacheQueries(databaseConfig.getInt("prepared-statement-cache-queries"));
+        return pgDataSource;
+    }
+
+    private static HikariDataSource createDataSource(Config databaseConfig, String host, int port, String poolName, boolean failFast) {
+        PGSimpleDataSource pgDataSource = createPgDataSource(databaseConfig, host, port);
+
+        Config poolConfig = databaseConfig.getConfig("pool");
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName(poolName);
+        hikariConfig.setDataSource(pgDataSource);
+        hikariConfig.setMinimumIdle(poolConfig.getInt("minimum-idle"));
+        hikariConfig.setMaximumPoolSize(poolConfig.getInt("maximum-pool-size"));
+        hikariConfig.setIdleTimeout(poolConfig.getDuration("idle-timeout").toMillis());
+        hikariConfig.setMaxLifetime(poolConfig.getDuration("max-lifetime").toMillis());
+        hikariConfig.setKeepaliveTime(poolConfig.getDuration("keepalive-time").toMillis());
+        hikariConfig.setConnectionTimeout(poolConfig.getDuration("connection-timeout").toMillis());
+        hikariConfig.setValidationTimeout(poolConfig.getDuration("validation-timeout").toMillis());
+        hikariConfig.setLeakDetectionThreshold(poolConfig.getDuration("leak-detection-threshold").toMillis());
+        hikariConfig.setRegisterMbeans(poolConfig.getBoolean("register-mbeans"));
+        hikariConfig.setMetricsTrackerFactory(new PrometheusMetricsTrackerFactory());
+        if (!failFast) {
+            hikariConfig.setInitializationFailTimeout(-1);
+        }
+        return new HikariDataSource(hikariConfig);
+    }
+
+    /**
+     * Borrows a connection to the primary from the pool. Closing the returned connection hands it back to the pool.
+     *
+     * @return A pooled Connection to the HPS database.
+     * @throws SQLException If no connection could be acquired within the configured connection timeout.
+     */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return dataSource.getConnection();
+        } finally {
+            ServiceMetrics.observeSince(ServiceMetrics.JDBC_ACQUIRE, start);
+            RequestTrace.recordSince(Stage.CONNECTION_ACQUIRE, start);
+        }
+    }
+
+    /**
+     * Opens a connection to the primary outside the pool, with the same settings, for a session held for the
+     * lifetime of the service such as LISTEN. It neither takes a slot of the pool nor trips its leak detection.
+     *
+     * @return A new unpooled Connection to the HPS database; the caller closes it.
+     * @throws SQLException If the connection could not be opened.
+     */
+    public Connection openUnpooledConnection() throws SQLException {
+        return unpooledDataSource.getConnection();
+    }
+
+    /**
+     * Borrows a connection for read-only eligibility queries about a month, from the next healthy replica that is
+     * caught up enough for that month, or from the primary if there is none.
+     * <p>
+     * Replicas whose pool has no free connection are passed over for the next one, without waiting. When every
+     * qualifying replica is busy, the caller waits for the first of them rather than moving the load to the
+     * primary. A replica is only taken out of rotation when it cannot be connected to (SQLState class 08); a
+     * pool timeout on a reachable replica fails the call like a timeout of the primary pool would.
+     * </p>
+     *
+     * @param month The month the queries are about.
+     * @return A pooled Connection to a replica or to the primary.
+     * @throws SQLException If no connection could be acquired from a busy replica or from the primary.
+     */
+    public Connection getReadConnection(YearMonth month) throws SQLException {
+        if (!replicas.isEmpty()) {
+            boolean currentMonth = !month.isBefore(YearMonth.now());
+            int first = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+            Replica busy = null;
+            for (int i = 0; i < replicas.size(); i++) {
+                Replica replica = replicas.get((first + i) % replicas.size());
+                if (!replica.healthy || (currentMonth && replica.lag.compareTo(maxReplicationLag) > 0)) {
+                    continue;
+                }
+                if (replica.isSaturated()) {
+                    if (busy == null) {
+                        busy = replica;
+                    }
+                    continue;
+                }
+                Connection connection = borrowFromReplica(replica);
+                if (connection != null) {
+                    return connection;
+                }
+            }
+            if (busy != null && busy.healthy) {
+                Connection connection = borrowFromReplica(busy);
+                if (connection != null) {
+                    return connection;
+                }
+            }
+        }
+        ServiceMetrics.READS_FROM_PRIMARY.inc();
+        return getConnection();
+    }
+
+    /**
+     * Borrows a connection from a replica, waiting up to the pool's connection timeout.
+     *
+     * @return The connection, or null if the replica could not be connected to and was taken out of rotation.
+     * @throws SQLException If the pool of a reachable replica timed out.
+     */
+    private Connection borrowFromReplica(Replica replica) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection connection = replica.dataSource.getConnection();
+            ServiceMetrics.READS_FROM_REPLICA.inc();
+            return connection;
+        } catch (SQLException e) {
+            if (!isConnectionFailure(e)) {
+                throw e;
+            }
+            replica.markUnhealthy();
+            ServiceMetrics.REPLICA_FAILOVERS.inc();
+            log.warn("Read replica {} ({}) failed, taking it out of rotation: {}", replica.name, replica.address, e.getMessage());
+            return null;
+        } finally {
+            ServiceMetrics.observeSince(ServiceMetrics.JDBC_ACQUIRE, start);
+            RequestTrace.recordSince(Stage.CONNECTION_ACQUIRE, start);
+        }
+    }
+
+    /**
+     * Tells a failure to reach the database apart from a pool that ran out of connections. Hikari reports the
+     * last connection error of the pool as the cause, or copies its SQLState, when a timeout is due to it.
+     */
+    static boolean isConnectionFailure(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException
+                    && sqlException.getSQLState() != null && sqlException.getSQLState().startsWith("08")) {
+                return true;
+            }
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Probes every replica for reachability and replication lag, putting recovered replicas back into rotation.
+     * Called periodically from a background task.
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection conn = replica.dataSource.getConnection();
+                 Statement stmt = conn.createStatement()) {
+                stmt.setQueryTimeout(healthCheckTimeoutSeconds);
+                try (ResultSet rs = stmt.executeQuery(REPLICATION_LAG_SQL)) {
+                    rs.next();
+                    if (!rs.getBoolean(1)) {
+                        log.warn("Read replica {} ({}) is not in recovery; it may have been promoted", replica.name, replica.address);
+                    }
+                    replica.lag = Duration.ofMillis(Math.round(rs.getDouble(2) * 1000));
+                }
+                if (!replica.healthy) {
+                    log.info("Read replica {} ({}) is healthy, replication lag {}", replica.name, replica.address, replica.lag);
+                }
+                replica.healthy = true;
+                ServiceMetrics.REPLICA_HEALTHY.labels(replica.name).set(1);
+                ServiceMetrics.REPLICA_LAG.labels(replica.name).set(replica.lag.toMillis() / 1000.0);
+            } catch (SQLException e) {
+                if (replica.healthy) {
+                    log.warn("Read replica {} ({}) failed its health check: {}", replica.name, replica.address, e.getMessage());
+                }
+                replica.markUnhealthy();
+            }
+        }
+    }
+
+    /**
+     * @return True if read replicas are configured.
+     */
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * Takes a snapshot of the pool usage, used to tell how close the pool is to saturation.
+     *
+     * @return The current pool statistics.
+     */
+    public PoolStats getPoolStats() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        List<ReplicaStats> replicaStats = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas) {
+            HikariPoolMXBean replicaPool = replica.dataSource.getHikariPoolMXBean();
+            replicaStats.add(new ReplicaStats(
+                    replica.name,
+                    replica.address,
+                    replica.healthy,
+                    replica.lag.toMillis(),
+                    replicaPool != null ? replicaPool.getActiveConnections() : 0,
+                    replicaPool != null ? replicaPool.getIdleConnections() : 0));
+        }
+        return new PoolStats(
+                pool.getActiveConnections(),
+                pool.getIdleConnections(),
+                pool.getTotalConnections(),
+                pool.getThreadsAwaitingConnection(),
+                dataSource.getMaximumPoolSize(),
+                replicaStats);
+    }
+
+    /**
+     * @return The log of the eligibility queries slower than the configured threshold.
+     */
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Closes every pooled connection. Called once when the actor system terminates.
+     */
+    @Override
+    public void close() {
+        slowQueryLog.close();
+        for (Replica replica : replicas) {
+            replica.dataSource.close();
+        }
+        dataSource.close();
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final String address;
+        private final HikariDataSource dataSource;
+        private volatile boolean healthy;
+        private volatile Duration lag = Duration.ZERO;
+
+        private Replica(String name, String address, HikariDataSource dataSource) {
+            this.name = name;
+            this.address = address;
+            this.dataSource = dataSource;
+        }
+
+        /**
+         * @return True if every connection the pool may open is borrowed, so a caller would have to wait.
+         */
+        private boolean isSaturated() {
+            HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            return pool != null && pool.getIdleConnections() == 0 && pool.getTotalConnections() >= dataSource.getMaximumPoolSize();
+        }
+
+        private void markUnhealthy() {
+            healthy = false;
+            ServiceMetrics.REPLICA_HEALTHY.labels(name).set(0);
+        }
+    }
+
+    /**
+     * Point-in-time usage of the connection pool.
+     *
+     * @param activeConnections          Connections currently borrowed by eligibility checks.
+     * @param idleConnections            Connections open and waiting in the pool.
+     * @param totalConnections           All connections currently open to the database.
+     * @param threadsAwaitingConnection  Callers blocked waiting for a connection to be returned.
+     * @param maximumPoolSize            The configured upper bound of the pool.
+     * @param replicas                   The state of each read replica; empty if none is configured.
+     */
+    public record PoolStats(int activeConnections,
+                            int idleConnections,
+                            int totalConnections,
+                            int threadsAwaitingConnection,
+                            int maximumPoolSize,
+                            List<ReplicaStats> replicas) {
+    }
+
+    /**
+     * Point-in-time state of a read replica.
+     *
+     * @param name              The pool name of the replica.
+     * @param address           The host and port of the replica.
+     * @param healthy           Whether the replica is in rotation.
+     * @param replicationLagMs  The replication lag measured by the last health check, in milliseconds.
+     * @param activeConnections Connections currently borrowed from the replica pool.
+     * @param idleConnections   Connections open and waiting in the replica pool.
+     */
+    public record ReplicaStats(String name,
+                               String address,
+                               boolean healthy,
+                               long replicationLagMs,
+                               int activeConnections,
+                               int idleConnections) {
     }
 }
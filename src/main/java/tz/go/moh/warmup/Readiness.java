@@ -0,0 +1,60 @@
+package tz.go.moh.warmup;
+
+/**
+ * Whether the service should receive traffic, reported by GET /health/ready.
+ * <p>
+ * The HTTP port is bound as soon as the routes exist so liveness can be probed, but the service only reports
+ * ready once the {@link ServiceWarmUp} has finished, and reports not ready again while it shuts down so the load
+ * balancer drains it first. Draining is final: a warm-up finishing after shutdown has begun does not make the
+ * service ready again.
+ * </p>
+ */
+public final class Readiness {
+    private volatile boolean ready;
+    private volatile String state = "starting";
+    private boolean draining;
+
+    /**
+     * @return True if the service should receive traffic.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return What the service is doing, for the readiness response.
+     */
+    public String state() {
+        return state;
+    }
+
+    /**
+     * Records the warm-up step in progress; the service is not ready yet.
+     *
+     * @param step A short description of the step.
+     */
+    public synchronized void warmingUp(String step) {
+        if (!draining) {
+            this.state = "warming up: " + step;
+        }
+    }
+
+    /**
+     * Marks the service ready to receive traffic, unless it is already shutting down.
+     */
+    public synchronized void markReady() {
+        if (!draining) {
+            this.state = "ready";
+            this.ready = true;
+        }
+    }
+
+    /**
+     * Marks the service as shutting down, so it stops receiving new traffic for good.
+     */
+    public synchronized void markDraining() {
+        this.draining = true;
+        this.ready = false;
+        this.state = "draining";
+    }
+}
@@ -0,0 +1,188 @@
+package tz.go.moh.warmup;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tz.go.moh.actors.CheckChwEligibilityStatusProcessor;
+import tz.go.moh.cache.EligibilityCache;
+import tz.go.moh.codec.EligibilityCodec;
+import tz.go.moh.db.MonthlyActivityRollup;
+import tz.go.moh.db.ProviderActivity;
+import tz.go.moh.db.ProviderActivityRepository;
+import tz.go.moh.domain.ActivityCounts;
+import tz.go.moh.domain.ChwCohort;
+import tz.go.moh.domain.EligibilityOutcome;
+import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.domain.Period;
+import tz.go.moh.util.CustomJacksonObjectMapper;
+import tz.go.moh.util.DatabaseConnectionFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Warms the service up after a deploy or restart, before it reports ready.
+ * <p>
+ * The warm-up opens the configured number of pooled connections and prepares the eligibility statements on each
+ * of them, pre-loads the activity of every provider in the most recent months into the {@link EligibilityCache}
+ * (which also pulls those months into the PostgreSQL buffers), and finally runs synthetic checks through the
+ * request codec, the processor and the response codec so the hot path is JIT-compiled before real traffic.
+ * Each step is optional. A failing step is logged and skipped: a cold service is still better than none.
+ * </p>
+ */
+public class ServiceWarmUp {
+    private final static Logger log = LoggerFactory.getLogger(ServiceWarmUp.class);
+
+    private final DatabaseConnectionFactory connectionFactory;
+    private final ProviderActivityRepository activityRepository;
+    private final MonthlyActivityRollup activityRollup;
+    private final EligibilityCache eligibilityCache;
+    private final CheckChwEligibilityStatusProcessor processor;
+    private final Readiness readiness;
+    private final int connections;
+    private final int recentMonths;
+    private final int syntheticRequests;
+    private final int syntheticRequestSize;
+
+    /**
+     * Constructor for ServiceWarmUp.
+     *
+     * @param warmUpConfig      The {@code chw-status-check-service.warm-up} config block.
+     * @param connectionFactory The shared database connection pools.
+     * @param activityRollup    The monthly activity rollup, or null if the rollup is disabled.
+     * @param eligibilityCache  The cache of eligibility verdicts, or null if caching is disabled.
+     * @param processor         The processor serving eligibility checks.
+     * @param readiness         The readiness of the service, updated with the step in progress.
+     */
+    public ServiceWarmUp(Config warmUpConfig, DatabaseConnectionFactory connectionFactory, MonthlyActivityRollup activityRollup,
+                         EligibilityCache eligibilityCache, CheckChwEligibilityStatusProcessor processor, Readiness readiness) {
+        this.connectionFactory = connectionFactory;
+        this.activityRepository = new ProviderActivityRepository(connectionFactory);
+        this.activityRollup = activityRollup;
+        this.eligibilityCache = eligibilityCache;
+        this.processor = processor;
+        this.readiness = readiness;
+        this.connections = warmUpConfig.getInt("connections");
+        this.recentMonths = warmUpConfig.getInt("recent-months");
+        this.syntheticRequests = warmUpConfig.getInt("synthetic-requests");
+        this.syntheticRequestSize = warmUpConfig.getInt("synthetic-request-size");
+    }
+
+    /**
+     * Runs every warm-up step, blocking until they are done.
+     */
+    public void run() {
+        long start = System.nanoTime();
+        YearMonth currentMonth = YearMonth.now();
+
+        readiness.warmingUp("preparing statements");
+        prepareConnections(currentMonth);
+
+        readiness.warmingUp("pre-loading recent months");
+        List<String> knownProviders = new ArrayList<>();
+        for (int i = 0; i < recentMonths; i++) {
+            preloadMonth(currentMonth.minusMonths(i), knownProviders);
+        }
+
+        readiness.warmingUp("running synthetic requests");
+        runSyntheticRequests(currentMonth.minusMonths(1), knownProviders);
+
+        log.info("Warm-up finished in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Borrows the configured number of connections at once, so each of them is a distinct pooled connection, and
+     * prepares the eligibility statements on every one.
+     */
+    private void prepareConnections(YearMonth month) {
+        List<Connection> borrowed = new ArrayList<>(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                Connection conn = connectionFactory.getReadConnection(month);
+                borrowed.add(conn);
+                activityRepository.prepareStatements(conn, month);
+            }
+            log.info("Prepared the eligibility statements on {} connections", borrowed.size());
+        } catch (SQLException e) {
+            log.warn("Could not prepare the eligibility statements: {}", e.getMessage());
+        } finally {
+            for (Connection conn : borrowed) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    log.debug("Could not return a warm-up connection to the pool", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the activity of every provider in a month into the cache, from the rollup when it covers the month.
+     */
+    private void preloadMonth(YearMonth month, List<String> knownProviders) {
+        if (eligibilityCache == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Optional<ProviderActivity> materialized = activityRollup != null
+                    ? activityRollup.findAllActivity(month)
+                    : Optional.empty();
+            ProviderActivity activity = materialized.isPresent()
+                    ? materialized.get()
+                    : new ProviderActivity(activityRepository.findAllActivityCounts(month), Instant.now());
+            for (Map.Entry<String, ActivityCounts> entry : activity.activity().entrySet()) {
+                eligibilityCache.put(entry.getKey(), month, entry.getValue(), activity.dataAsOf());
+            }
+            knownProviders.addAll(activity.activity().keySet());
+            log.info("Pre-loaded {} active providers for {} in {} ms",
+                    activity.activity().size(), month, (System.nanoTime() - start) / 1_000_000);
+        } catch (SQLException e) {
+            log.warn("Could not pre-load the activity of {}: {}", month, e.getMessage());
+        }
+    }
+
+    /**
+     * Runs synthetic checks end to end, from request bytes to response bytes. Provider IDs are taken from the
+     * pre-loaded months where possible, so the checks do not add unknown providers to the cache.
+     */
+    private void runSyntheticRequests(YearMonth month, List<String> knownProviders) {
+        if (syntheticRequests <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        JsonFactory factory = CustomJacksonObjectMapper.mapper.getFactory();
+        try {
+            for (int request = 0; request < syntheticRequests; request++) {
+                String[] nationalIdentificationNumbers = new String[syntheticRequestSize];
+                String[] providerIds = new String[syntheticRequestSize];
+                for (int i = 0; i < syntheticRequestSize; i++) {
+                    int n = request * syntheticRequestSize + i;
+                    nationalIdentificationNumbers[i] = String.format("WARMUP%014d", n);
+                    providerIds[i] = knownProviders.isEmpty()
+                            ? "warm-up-" + (n % syntheticRequestSize)
+                            : knownProviders.get(n % knownProviders.size());
+                }
+                EligibleChwCheckRequest synthetic = new EligibleChwCheckRequest(
+                        new Period(String.format("%02d", month.getMonthValue()), String.valueOf(month.getYear())),
+                        new ChwCohort(nationalIdentificationNumbers, providerIds, syntheticRequestSize));
+                ByteString body = ByteString.fromArray(CustomJacksonObjectMapper.mapper.writeValueAsBytes(synthetic));
+                EligibilityOutcome outcome = processor.checkEligibility(EligibilityCodec.decodeRequest(factory, body));
+                EligibilityCodec.encodeResults(factory, outcome.results());
+            }
+            log.info("Ran {} synthetic checks of {} CHWs in {} ms",
+                    syntheticRequests, syntheticRequestSize, (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Synthetic warm-up checks failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package tz.go.moh;
+
+import org.junit.jupiter.api.Test;
+import tz.go.moh.domain.ChwCohort;
+import tz.go.moh.domain.ChwDetails;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UcsChwStatusCheckRegistryTest {
+
+    @Test
+    void slicesFollowTheSizesOfTheParts() {
+        List<String> results = List.of("a", "b", "c", "d", "e");
+        List<List<String>> parts = Arrays.asList(List.of("1", "2"), null, List.of("3", "4", "5"), List.of());
+
+        List<List<String>> slices = UcsChwStatusCheckRegistry.slice(results, parts);
+
+        assertEquals(4, slices.size());
+        assertEquals(List.of("a", "b"), slices.get(0));
+        assertTrue(slices.get(1).isEmpty());
+        assertEquals(List.of("c", "d", "e"), slices.get(2));
+        assertTrue(slices.get(3).isEmpty());
+    }
+
+    @Test
+    void eachRequestGetsBackItsOwnChwsFromTheMergedCohort() {
+        List<List<ChwDetails>> parts = new ArrayList<>();
+        parts.add(ChwCohort.of(chws("A", 3)));
+        parts.add(null);
+        parts.add(chws("B", 2));
+        parts.add(List.of());
+        parts.add(ChwCohort.of(chws("C", 4)));
+
+        ChwCohort merged = ChwCohort.concat(parts);
+        List<List<ChwDetails>> slices = UcsChwStatusCheckRegistry.slice(merged, parts);
+
+        assertEquals(9, merged.size());
+        for (int i = 0; i < parts.size(); i++) {
+            assertEquals(nins(parts.get(i)), nins(slices.get(i)), "part " + i);
+        }
+    }
+
+    @Test
+    void fewerResultsThanChwsAreAnError() {
+        List<List<String>> parts = List.of(List.of("1", "2"), List.of("3"));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> UcsChwStatusCheckRegistry.slice(List.of("a", "b"), parts));
+    }
+
+    private static List<ChwDetails> chws(String prefix, int count) {
+        List<ChwDetails> chws = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            chws.add(new ChwDetails(prefix + "-NIN-" + i, prefix + "-provider-" + i));
+        }
+        return chws;
+    }
+
+    private static List<String> nins(List<ChwDetails> chws) {
+        List<String> nins = new ArrayList<>();
+        if (chws != null) {
+            for (ChwDetails chw : chws) {
+                nins.add(chw.getNationalIdentificationNumber());
+            }
+        }
+        return nins;
+    }
+}
@@ -0,0 +1,133 @@
+package tz.go.moh.admission;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControllerTest {
+
+    private static AdmissionController controller(long maxInFlight, long maxQueued, String maxQueueWait) {
+        return new AdmissionController(ConfigFactory.parseString(
+                "max-in-flight-chws = " + maxInFlight + "\n"
+                        + "max-queued-chws = " + maxQueued + "\n"
+                        + "max-queue-wait = " + maxQueueWait));
+    }
+
+    private static CompletableFuture<AdmissionController.Permit> admit(AdmissionController controller, int chws) {
+        return controller.admit(chws).toCompletableFuture();
+    }
+
+    @Test
+    void admitsStraightAwayWhileUnderTheLimit() {
+        AdmissionController controller = controller(10, 20, "10s");
+
+        assertTrue(admit(controller, 4).isDone());
+        assertTrue(admit(controller, 6).isDone());
+        assertFalse(admit(controller, 1).isDone());
+    }
+
+    @Test
+    void aRequestHeavierThanTheLimitIsAdmittedAlone() throws Exception {
+        AdmissionController controller = controller(10, 20, "10s");
+
+        CompletableFuture<AdmissionController.Permit> heavy = admit(controller, 1_000_000);
+        assertTrue(heavy.isDone());
+        CompletableFuture<AdmissionController.Permit> next = admit(controller, 1);
+        assertFalse(next.isDone());
+
+        heavy.get().close();
+        assertTrue(next.isDone());
+    }
+
+    @Test
+    void aHeavyRequestOnlyTakesTheLimitInTheQueue() {
+        AdmissionController controller = controller(10, 10, "10s");
+        admit(controller, 10);
+
+        CompletableFuture<AdmissionController.Permit> queued = admit(controller, 1_000_000);
+
+        assertFalse(queued.isCompletedExceptionally());
+        assertRejected(admit(controller, 1));
+    }
+
+    @Test
+    void emptyRequestsWeighOne() {
+        AdmissionController controller = controller(1, 10, "10s");
+
+        assertTrue(admit(controller, 0).isDone());
+        assertFalse(admit(controller, 0).isDone());
+    }
+
+    @Test
+    void waitersAreAdmittedInArrivalOrder() throws Exception {
+        AdmissionController controller = controller(10, 20, "10s");
+        AdmissionController.Permit first = admit(controller, 5).get();
+        AdmissionController.Permit second = admit(controller, 5).get();
+        CompletableFuture<AdmissionController.Permit> large = admit(controller, 8);
+        CompletableFuture<AdmissionController.Permit> small = admit(controller, 1);
+
+        // The small waiter would fit, but must not overtake the large one at the head of the queue.
+        first.close();
+        assertFalse(large.isDone());
+        assertFalse(small.isDone());
+
+        second.close();
+        assertTrue(large.isDone());
+        assertTrue(small.isDone());
+    }
+
+    @Test
+    void closingAPermitTwiceReleasesItOnce() throws Exception {
+        AdmissionController controller = controller(10, 20, "10s");
+        AdmissionController.Permit permit = admit(controller, 10).get();
+        CompletableFuture<AdmissionController.Permit> waiting = admit(controller, 10);
+
+        assertFalse(waiting.isDone());
+        permit.close();
+        assertTrue(waiting.isDone());
+
+        CompletableFuture<AdmissionController.Permit> next = admit(controller, 1);
+        permit.close();
+        assertFalse(next.isDone());
+    }
+
+    @Test
+    void rejectsWhenTheQueueIsFull() {
+        AdmissionController controller = controller(10, 5, "10s");
+        admit(controller, 10);
+        admit(controller, 5);
+
+        assertRejected(admit(controller, 1));
+    }
+
+    @Test
+    void waitersThatTimeOutAreRejectedAndLeaveTheQueue() throws Exception {
+        AdmissionController controller = controller(10, 10, "100ms");
+        AdmissionController.Permit permit = admit(controller, 10).get();
+
+        CompletableFuture<AdmissionController.Permit> expired = admit(controller, 10);
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> expired.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(AdmissionRejectedException.class, failure.getCause());
+
+        // The expired waiter no longer holds queue capacity or blocks the head of the queue.
+        CompletableFuture<AdmissionController.Permit> next = admit(controller, 10);
+        assertFalse(next.isDone());
+        permit.close();
+        assertTrue(next.isDone());
+        assertFalse(next.isCompletedExceptionally());
+    }
+
+    private static void assertRejected(CompletableFuture<AdmissionController.Permit> admission) {
+        assertTrue(admission.isCompletedExceptionally());
+        ExecutionException failure = assertThrows(ExecutionException.class, admission::get);
+        assertInstanceOf(AdmissionRejectedException.class, failure.getCause());
+    }
+}
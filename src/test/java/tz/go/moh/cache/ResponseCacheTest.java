@@ -0,0 +1,128 @@
+package tz.go.moh.cache;
+
+import akka.http.javadsl.model.ContentTypes;
+import akka.util.ByteString;
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.Test;
+import tz.go.moh.codec.EligibilityCodec;
+import tz.go.moh.domain.ChwCohort;
+
+import java.time.Instant;
+import java.time.YearMonth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseCacheTest {
+    private static final YearMonth MARCH = YearMonth.of(2025, 3);
+
+    @Test
+    void requestKeysAreStable() {
+        assertEquals(key(MARCH, cohort("N1", "P1", "N2", null)), key(MARCH, cohort("N1", "P1", "N2", null)));
+        assertEquals(64, key(MARCH, cohort()).length());
+    }
+
+    @Test
+    void requestKeysDependOnMonthOrderAndNins() {
+        String key = key(MARCH, cohort("N1", "P1", "N2", "P2"));
+
+        assertNotEquals(key, key(YearMonth.of(2025, 4), cohort("N1", "P1", "N2", "P2")));
+        assertNotEquals(key, key(MARCH, cohort("N2", "P2", "N1", "P1")));
+        assertNotEquals(key, key(MARCH, cohort("N1", "P1", "N3", "P2")));
+        assertNotEquals(key, key(MARCH, cohort("N1", "P1")));
+    }
+
+    @Test
+    void requestKeysKeepFieldBoundaries() {
+        assertNotEquals(key(MARCH, cohort("ab", "c")), key(MARCH, cohort("a", "bc")));
+        assertNotEquals(key(MARCH, cohort("N1", null)), key(MARCH, cohort("N1", "")));
+        assertNotEquals(key(MARCH, cohort("N1", "P1", "N2", "P2")), key(MARCH, cohort("N1", "P1N2", "", "P2")));
+    }
+
+    @Test
+    void bodyDigestsDependOnTheMediaType() {
+        ByteString body = ByteString.fromString("{\"chws\":[]}");
+
+        assertEquals(ResponseCache.bodyDigest(ContentTypes.APPLICATION_JSON, body),
+                ResponseCache.bodyDigest(ContentTypes.APPLICATION_JSON, body));
+        assertNotEquals(ResponseCache.bodyDigest(ContentTypes.APPLICATION_JSON, body),
+                ResponseCache.bodyDigest(ContentTypes.APPLICATION_OCTET_STREAM, body));
+    }
+
+    @Test
+    void entityTagsFollowTheBodyAndFormat() {
+        ByteString body = ByteString.fromString("[{\"Eligible\":true}]");
+        String etag = ResponseCache.etag(EligibilityCodec.Format.JSON, body);
+
+        assertTrue(etag.startsWith("\"") && etag.endsWith("-json\""), etag);
+        assertEquals(etag, ResponseCache.etag(EligibilityCodec.Format.JSON, ByteString.fromString("[{\"Eligible\":").concat(ByteString.fromString("true}]"))));
+        assertNotEquals(etag, ResponseCache.etag(EligibilityCodec.Format.JSON, ByteString.fromString("[{\"Eligible\":false}]")));
+        assertNotEquals(etag, ResponseCache.etag(EligibilityCodec.Format.CBOR, body));
+    }
+
+    @Test
+    void responsesAreCachedPerFormat() {
+        ResponseCache cache = cache(1);
+        ByteString body = ByteString.fromString("[]");
+        Instant dataAsOf = Instant.parse("2025-04-01T00:00:00Z");
+
+        ResponseCache.CachedResponse cached = cache.put("key", MARCH, EligibilityCodec.Format.JSON, body, dataAsOf);
+
+        assertEquals(cached, cache.find("key", EligibilityCodec.Format.JSON).orElseThrow());
+        assertEquals(ResponseCache.etag(EligibilityCodec.Format.JSON, body), cached.etag());
+        assertTrue(cache.find("key", EligibilityCodec.Format.SMILE).isEmpty());
+        assertTrue(cache.find("other", EligibilityCodec.Format.JSON).isEmpty());
+
+        cache.invalidateMonth(MARCH);
+        assertTrue(cache.find("key", EligibilityCodec.Format.JSON).isEmpty());
+    }
+
+    @Test
+    void requestKeysAreRememberedPerBody() {
+        ResponseCache cache = cache(1);
+
+        cache.putRequestKey("digest", "key");
+
+        assertEquals("key", cache.findRequestKey("digest").orElseThrow());
+        assertTrue(cache.findRequestKey("other").isEmpty());
+    }
+
+    @Test
+    void reopenedMonthsAreNotClosed() {
+        YearMonth now = YearMonth.now();
+        ResponseCache cache = cache(1);
+
+        assertFalse(cache.isClosed(now));
+        assertFalse(cache.isClosed(now.minusMonths(1)));
+        assertTrue(cache.isClosed(now.minusMonths(2)));
+        assertTrue(cache(0).isClosed(now.minusMonths(1)));
+    }
+
+    private static ResponseCache cache(int reopenMonths) {
+        return new ResponseCache(ConfigFactory.parseString(
+                "max-memory = 1 MiB\n"
+                        + "max-body-keys = 100\n"
+                        + "open-months = 1\n"
+                        + "reopen-months = " + reopenMonths + "\n"
+                        + "open-month-ttl = 30s"));
+    }
+
+    private static String key(YearMonth month, ChwCohort chws) {
+        return ResponseCache.requestKey(month, chws);
+    }
+
+    /**
+     * @param pairs Alternating national identification numbers and provider IDs.
+     */
+    private static ChwCohort cohort(String... pairs) {
+        String[] nins = new String[pairs.length / 2];
+        String[] providerIds = new String[pairs.length / 2];
+        for (int i = 0; i < nins.length; i++) {
+            nins[i] = pairs[2 * i];
+            providerIds[i] = pairs[2 * i + 1];
+        }
+        return new ChwCohort(nins, providerIds, nins.length);
+    }
+}
@@ -0,0 +1,121 @@
+package tz.go.moh.codec;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import tz.go.moh.domain.ActivityCounts;
+import tz.go.moh.domain.ChwDetails;
+import tz.go.moh.domain.ChwEligibilityResults;
+import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.util.CustomJacksonObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EligibilityCodecTest {
+    private static final JsonFactory JSON = CustomJacksonObjectMapper.mapper.getFactory();
+
+    @Test
+    void decodesARequest() {
+        EligibleChwCheckRequest request = decode("{\"period\":{\"month\":\"03\",\"year\":2025,\"day\":1},"
+                + "\"ignored\":{\"nested\":[1,2]},"
+                + "\"chws\":[{\"NationalIdentificationNumber\":\"N1\",\"OpenmrsProviderId\":\"P1\"},"
+                + "{\"OpenmrsProviderId\":\"P2\",\"extra\":[{}]},{}]}");
+
+        assertEquals("03", request.getPeriod().getMonth());
+        assertEquals("2025", request.getPeriod().getYear());
+        assertEquals(3, request.getChws().size());
+        assertEquals("N1", request.getChws().get(0).getNationalIdentificationNumber());
+        assertEquals("P1", request.getChws().get(0).getOpenmrsProviderId());
+        assertNull(request.getChws().get(1).getNationalIdentificationNumber());
+        assertEquals("P2", request.getChws().get(1).getOpenmrsProviderId());
+        assertNull(request.getChws().get(2).getOpenmrsProviderId());
+    }
+
+    @Test
+    void acceptsNullPeriodAndChws() {
+        EligibleChwCheckRequest request = decode("{\"period\":null,\"chws\":null}");
+
+        assertNull(request.getPeriod());
+        assertNull(request.getChws());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "[]",
+            "\"request\"",
+            "{\"period\":\"2025-03\"}",
+            "{\"period\":{\"month\":{\"value\":\"03\"}}}",
+            "{\"chws\":{}}",
+            "{\"chws\":[1]}",
+            "{\"chws\":[[]]}",
+            "{\"chws\":[null]}",
+            "{\"chws\":[{\"NationalIdentificationNumber\":[\"N1\"]}]}",
+            "{\"chws\":[{\"OpenmrsProviderId\":{}}]}",
+            "{\"chws\":[{\"OpenmrsProviderId\":\"P1\"}",
+            "{\"chws\":[{\"OpenmrsProviderId\":\"P1\"",
+            "{\"period\":{\"month\":\"03\"",
+            "{\"chws\":[]",
+            "{\"chws\":[]} {}",
+            "{\"chws\":[]}]",
+            ""
+    })
+    void rejectsMalformedRequests(String body) {
+        assertThrows(UncheckedIOException.class, () -> decode(body));
+    }
+
+    @Test
+    void decodesAFramedChw() {
+        ChwDetails chw = EligibilityCodec.decodeChw(JSON,
+                ByteString.fromString("{\"NationalIdentificationNumber\":\"N1\",\"OpenmrsProviderId\":\"P1\",\"x\":{}}"));
+
+        assertEquals("N1", chw.getNationalIdentificationNumber());
+        assertEquals("P1", chw.getOpenmrsProviderId());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"[]", "1", "{\"OpenmrsProviderId\":[]}", "{\"OpenmrsProviderId\":\"P1\"", "{} {}"})
+    void rejectsMalformedFramedChws(String element) {
+        assertThrows(UncheckedIOException.class, () -> EligibilityCodec.decodeChw(JSON, ByteString.fromString(element)));
+    }
+
+    @Test
+    void resultElementsJoinIntoOneArray() throws IOException {
+        ByteString first = EligibilityCodec.encodeResultElements(List.of(
+                new ChwEligibilityResults("N1", true, new ActivityCounts(1, 2, 3, 4), null),
+                new ChwEligibilityResults("N2", false, null, List.of("min-client-services"))));
+        ByteString second = EligibilityCodec.encodeResultElements(List.of(new ChwEligibilityResults("N3", true)));
+
+        JsonNode array = CustomJacksonObjectMapper.mapper.readTree(
+                ByteString.fromString("[").concat(first).concat(ByteString.fromString(",")).concat(second)
+                        .concat(ByteString.fromString("]")).toArray());
+
+        assertEquals(3, array.size());
+        assertEquals("N1", array.get(0).get("NationalIdentificationNumber").asText());
+        assertEquals(3, array.get(0).get("Activity").get("DeathRegistrations").asInt());
+        assertEquals("min-client-services", array.get(1).get("FailedRules").get(0).asText());
+        assertTrue(array.get(2).get("Eligible").asBoolean());
+    }
+
+    @Test
+    void streamErrorsCarryTheirMessage() throws IOException {
+        JsonNode error = CustomJacksonObjectMapper.mapper.readTree(
+                EligibilityCodec.encodeStreamError("at capacity", true).toArray());
+
+        assertEquals("at capacity", error.get("Error").asText());
+        assertTrue(error.get("Retryable").asBoolean());
+    }
+
+    private static EligibleChwCheckRequest decode(String body) {
+        return EligibilityCodec.decodeRequest(JSON, ByteString.fromString(body));
+    }
+}
@@ -0,0 +1,164 @@
+package tz.go.moh.jobs;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tz.go.moh.domain.ChwDetails;
+import tz.go.moh.domain.ChwEligibilityResults;
+import tz.go.moh.domain.EligibleChwCheckRequest;
+import tz.go.moh.domain.Period;
+import tz.go.moh.util.CustomJacksonObjectMapper;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobStoreTest {
+    private static final int CHWS = 3 * JobStore.INDEX_STRIDE + 100;
+
+    @TempDir
+    Path directory;
+
+    private JobStore store;
+
+    @BeforeEach
+    void createStore() throws IOException {
+        store = new JobStore(directory);
+    }
+
+    @Test
+    void pagesMatchTheResultsInSubmissionOrder() throws IOException {
+        JobStatus status = appendInChunks(store.create(request(CHWS)), 0, CHWS, 700);
+
+        for (int pageSize : new int[]{1, 333, JobStore.INDEX_STRIDE, 5000}) {
+            List<String> read = new ArrayList<>();
+            for (int offset = 0; offset < CHWS; offset += pageSize) {
+                read.addAll(nins(store.readResults(status, offset, pageSize)));
+            }
+            assertEquals(expectedNins(0, CHWS), read, "page size " + pageSize);
+        }
+    }
+
+    @Test
+    void pagesAroundIndexedLinesAreRead() throws IOException {
+        JobStatus status = appendInChunks(store.create(request(CHWS)), 0, CHWS, 1000);
+
+        for (int entry = 1; entry <= 3; entry++) {
+            int line = entry * JobStore.INDEX_STRIDE;
+            assertEquals(expectedNins(line, line + 3), nins(store.readResults(status, line, 3)));
+            assertEquals(expectedNins(line - 1, line + 2), nins(store.readResults(status, line - 1, 3)));
+        }
+    }
+
+    @Test
+    void readsAreBoundedByTheRecordedProgress() throws IOException {
+        JobStatus status = appendInChunks(store.create(request(CHWS)), 0, 1500, 1500);
+
+        assertEquals(expectedNins(1400, 1500), nins(store.readResults(status, 1400, 1000)));
+        assertTrue(store.readResults(status, 1500, 10).isEmpty());
+        assertTrue(store.readResults(status, CHWS + 10, 10).isEmpty());
+    }
+
+    @Test
+    void offsetsPastTheLastIndexEntrySeekToIt() throws IOException {
+        JobStatus status = appendInChunks(store.create(request(CHWS)), 0, CHWS, 2000);
+        assertEquals(4 * 8, Files.size(indexFile(status)));
+        try (FileChannel index = FileChannel.open(indexFile(status), StandardOpenOption.WRITE)) {
+            index.truncate(2 * 8);
+        }
+
+        int offset = 3 * JobStore.INDEX_STRIDE + 5;
+        assertEquals(expectedNins(offset, offset + 10), nins(store.readResults(status, offset, 10)));
+    }
+
+    @Test
+    void anEmptyIndexIsReadFromTheStart() throws IOException {
+        JobStatus status = appendInChunks(store.create(request(CHWS)), 0, CHWS, 2000);
+        try (FileChannel index = FileChannel.open(indexFile(status), StandardOpenOption.WRITE)) {
+            index.truncate(0);
+        }
+
+        assertEquals(expectedNins(2000, 2010), nins(store.readResults(status, 2000, 10)));
+    }
+
+    @Test
+    void resumeCutsResultsAndIndexEntriesPastTheRecordedProgress() throws IOException {
+        JobStatus created = store.create(request(CHWS));
+        JobStatus recorded = appendInChunks(created, 0, 1000, 1000);
+        // A crash after appending the next chunk but before saving its status.
+        appendInChunks(recorded, 1000, 2 * JobStore.INDEX_STRIDE + 50, 2 * JobStore.INDEX_STRIDE + 50 - 1000);
+        CustomJacksonObjectMapper.mapper.writeValue(directory.resolve(created.jobId()).resolve("status.json").toFile(), recorded);
+
+        JobStatus running = store.resume(created.jobId()).status();
+
+        assertEquals(1000, running.processedChws());
+        assertEquals(8, Files.size(indexFile(running)));
+        JobStatus finished = appendInChunks(running, 1000, CHWS, 900);
+        List<String> read = new ArrayList<>();
+        for (int offset = 0; offset < CHWS; offset += 250) {
+            read.addAll(nins(store.readResults(finished, offset, 250)));
+        }
+        assertEquals(expectedNins(0, CHWS), read);
+        assertEquals(4 * 8, Files.size(indexFile(finished)));
+    }
+
+    @Test
+    void jobsWithoutAnIndexAreReadFromTheStart() throws IOException {
+        JobStatus status = appendInChunks(store.create(request(CHWS)), 0, CHWS, 2000);
+        Files.delete(indexFile(status));
+
+        assertEquals(expectedNins(2 * JobStore.INDEX_STRIDE + 5, 2 * JobStore.INDEX_STRIDE + 15),
+                nins(store.readResults(status, 2 * JobStore.INDEX_STRIDE + 5, 10)));
+    }
+
+    private Path indexFile(JobStatus status) {
+        return directory.resolve(status.jobId()).resolve("results.idx");
+    }
+
+    private JobStatus appendInChunks(JobStatus status, int from, int to, int chunkSize) throws IOException {
+        for (int start = from; start < to; start += chunkSize) {
+            List<ChwEligibilityResults> chunk = new ArrayList<>();
+            for (int i = start; i < Math.min(start + chunkSize, to); i++) {
+                // Varying lengths, so byte offsets and line numbers do not line up.
+                chunk.add(new ChwEligibilityResults(nin(i), i % 3 == 0));
+            }
+            status = store.appendResults(status, chunk);
+        }
+        return status;
+    }
+
+    private static EligibleChwCheckRequest request(int chws) {
+        List<ChwDetails> details = new ArrayList<>(chws);
+        for (int i = 0; i < chws; i++) {
+            details.add(new ChwDetails(nin(i), "provider-" + i));
+        }
+        return new EligibleChwCheckRequest(new Period("03", "2025"), details);
+    }
+
+    private static String nin(int index) {
+        return "NIN-" + index + "-".repeat(index % 7);
+    }
+
+    private static List<String> expectedNins(int from, int to) {
+        List<String> nins = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            nins.add(nin(i));
+        }
+        return nins;
+    }
+
+    private static List<String> nins(List<ChwEligibilityResults> results) {
+        List<String> nins = new ArrayList<>(results.size());
+        for (ChwEligibilityResults result : results) {
+            nins.add(result.getNationalIdentificationNumber());
+        }
+        return nins;
+    }
+}